@@ -19,9 +19,16 @@ package org.newsclub.net.unix;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -37,11 +44,35 @@ class AFUNIXCore extends CleanableState {
   private static final int DATAGRAMPACKET_BUFFER_MIN_CAPACITY = 8192;
   private static final int DATAGRAMPACKET_BUFFER_MAX_CAPACITY = 1 * 1024 * 1024;
 
+  @SuppressWarnings("PMD.UseDiamondOperator") // not in Java 7
+  private static final ThreadLocal<IOVecs> IOVECS_TL = new ThreadLocal<IOVecs>();
+
   private final AtomicBoolean closed = new AtomicBoolean(false);
 
+  /**
+   * The blocking mode as seen by the user (see {@link #implConfigureBlocking(boolean)}).
+   */
+  private volatile boolean blocking = true;
+
+  /**
+   * Set once the socket has been switched to non-blocking mode on behalf of a virtual thread; it
+   * stays that way, and blocking operations wait via {@link VirtualThreadPoller}.
+   */
+  private volatile boolean nonBlockingUnderTheHood = false;
+
   protected final FileDescriptor fd;
   protected final AncillaryDataSupport ancillaryDataSupport;
 
+  /**
+   * The keys whose {@link AFUNIXEpollSelector} has this file descriptor in its interest list.
+   * 
+   * The file descriptor has to be removed from there before it is closed; otherwise, another copy
+   * of it (e.g., one that has been passed to another process) would keep the registration alive.
+   */
+  private List<AFUNIXSelectionKey> epollKeys = null; // guarded by epollKeysLock
+  private boolean epollClosing = false; // guarded by epollKeysLock
+  private final Object epollKeysLock = new Object();
+
   protected AFUNIXCore(Object observed, FileDescriptor fd,
       AncillaryDataSupport ancillaryDataSupport) {
     super(observed);
@@ -72,8 +103,63 @@ class AFUNIXCore extends CleanableState {
   }
 
   protected void doClose() throws IOException {
-    NativeUnixSocket.close(fd);
+    removeFromEpollSelectors();
+    // mark as closed first, so threads that are about to park see it (see VirtualThreadPoller)
     closed.set(true);
+    if (nonBlockingUnderTheHood && fd.valid()) {
+      // parked threads retry their operation, and find the socket closed
+      VirtualThreadPoller.wakeup(NativeUnixSocket.getFD(fd));
+    }
+    NativeUnixSocket.close(fd);
+  }
+
+  /**
+   * Records that the given key's {@link AFUNIXEpollSelector} is about to add this file descriptor
+   * to its interest list.
+   * 
+   * @param key The key.
+   * @return {@code false} if the file descriptor is being closed, and must not be added.
+   */
+  boolean addEpollKey(AFUNIXSelectionKey key) {
+    synchronized (epollKeysLock) {
+      if (epollClosing) {
+        return false;
+      }
+      if (epollKeys == null) {
+        epollKeys = new ArrayList<>(1);
+      }
+      epollKeys.add(key);
+      return true;
+    }
+  }
+
+  /**
+   * Records that the given key's {@link AFUNIXEpollSelector} has removed this file descriptor from
+   * its interest list.
+   * 
+   * @param key The key.
+   */
+  void removeEpollKey(AFUNIXSelectionKey key) {
+    synchronized (epollKeysLock) {
+      if (epollKeys != null) {
+        epollKeys.remove(key);
+      }
+    }
+  }
+
+  private void removeFromEpollSelectors() {
+    AFUNIXSelectionKey[] keys;
+    synchronized (epollKeysLock) {
+      epollClosing = true;
+      if (epollKeys == null || epollKeys.isEmpty()) {
+        return;
+      }
+      keys = epollKeys.toArray(new AFUNIXSelectionKey[0]);
+      epollKeys.clear();
+    }
+    for (AFUNIXSelectionKey key : keys) {
+      ((AFUNIXEpollSelector) key.selector()).fileDescriptorClosing(key);
+    }
   }
 
   protected FileDescriptor validFdOrException() throws SocketException {
@@ -109,18 +195,24 @@ class AFUNIXCore extends CleanableState {
     }
     FileDescriptor fdesc = validFdOrException();
 
+    int pos = dst.position();
+
     ByteBuffer buf;
+    int offset;
     if (dst.isDirect()) {
       buf = dst;
+      offset = pos;
     } else {
       buf = getThreadLocalDirectByteBuffer(remaining);
       remaining = Math.min(remaining, buf.remaining());
+      offset = 0;
     }
 
-    int pos = dst.position();
-
-    int count = NativeUnixSocket.receive(fdesc, buf, pos, remaining, socketAddressBuffer, options,
-        ancillaryDataSupport, 0);
+    int count = NativeUnixSocket.receive(fdesc, buf, offset, remaining, socketAddressBuffer,
+        options, ancillaryDataSupport, 0);
+    if (count == -1 && (options & NativeUnixSocket.OPT_STREAM) != 0) {
+      return -1;
+    }
     if (buf != dst) { // NOPMD
       buf.limit(count);
       dst.put(buf);
@@ -156,18 +248,23 @@ class AFUNIXCore extends CleanableState {
     // and don't retry (which would slow things down quite a bit)
     options |= NativeUnixSocket.OPT_NON_BLOCKING;
 
+    int pos = src.position();
+
     ByteBuffer buf;
+    int offset;
     if (src.isDirect()) {
       buf = src;
+      offset = pos;
     } else {
       buf = getThreadLocalDirectByteBuffer(remaining);
       remaining = Math.min(remaining, buf.remaining());
-      buf.put(src);
-      buf.position(0);
+      ByteBuffer chunk = src.duplicate();
+      chunk.limit(pos + remaining);
+      buf.put(chunk);
+      offset = 0;
     }
-    int pos = buf.position();
 
-    int written = NativeUnixSocket.send(fdesc, buf, pos, remaining, addressTo, options,
+    int written = NativeUnixSocket.send(fdesc, buf, offset, remaining, addressTo, options,
         ancillaryDataSupport);
     if (written > 0) {
       src.position(pos + written);
@@ -176,6 +273,196 @@ class AFUNIXCore extends CleanableState {
     return written;
   }
 
+  long read(ByteBuffer[] dsts, int offset, int length, int options) throws IOException {
+    checkBufferArrayRange(dsts, offset, length);
+    if (length == 1) {
+      return read(dsts[offset], null, options);
+    }
+    FileDescriptor fdesc = validFdOrException();
+
+    IOVecs iov = IOVecs.get(length);
+    ByteBuffer staging = getStagingBuffer(dsts, offset, length, false);
+
+    int numBuffers = iov.prepare(dsts, offset, length, staging, false, false);
+    if (numBuffers == 0) {
+      iov.clear();
+      return 0;
+    }
+
+    long count;
+    try {
+      count = NativeUnixSocket.receiveVectored(fdesc, iov.buffers, iov.offsets, iov.lengths,
+          numBuffers, options, ancillaryDataSupport, 0);
+      iov.complete(count, staging, false);
+    } finally {
+      iov.clear();
+    }
+    return count;
+  }
+
+  long write(ByteBuffer[] srcs, int offset, int length, int options) throws IOException {
+    checkBufferArrayRange(srcs, offset, length);
+    if (length == 1) {
+      return write(srcs[offset], null, options);
+    }
+    FileDescriptor fdesc = validFdOrException();
+
+    // accept "send buffer overflow" as packet loss, see #write(ByteBuffer, SocketAddress, int)
+    options |= NativeUnixSocket.OPT_NON_BLOCKING;
+
+    // If there are more buffers than we can pass in one system call, coalesce them into the staging
+    // buffer instead, so small writes (up to PIPE_BUF for pipes) remain atomic
+    boolean coalesce = countNonEmpty(srcs, offset, length) > NativeUnixSocket.MAX_IOVECS;
+
+    IOVecs iov = IOVecs.get(length);
+    ByteBuffer staging = getStagingBuffer(srcs, offset, length, coalesce);
+
+    int numBuffers = iov.prepare(srcs, offset, length, staging, true, coalesce);
+    if (numBuffers == 0) {
+      iov.clear();
+      return 0;
+    }
+
+    long written;
+    try {
+      written = NativeUnixSocket.sendVectored(fdesc, iov.buffers, iov.offsets, iov.lengths,
+          numBuffers, options, ancillaryDataSupport);
+      iov.complete(written, staging, true);
+    } finally {
+      iov.clear();
+    }
+    return written;
+  }
+
+  /**
+   * Receives up to {@code length} datagrams (but no more than {@link NativeUnixSocket#MAX_IOVECS}),
+   * one per buffer, with a single native call.
+   * 
+   * @param socketAddressBuffer A direct buffer with room for the sender address of each datagram,
+   *          or {@code null}.
+   * @return The number of datagrams received, which is also the number of buffers that were
+   *         updated, starting at {@code offset}.
+   */
+  int receiveMultiple(ByteBuffer[] dsts, int offset, int length, ByteBuffer socketAddressBuffer,
+      int options) throws IOException {
+    checkBufferArrayRange(dsts, offset, length);
+    length = Math.min(length, NativeUnixSocket.MAX_IOVECS);
+    if (length == 0) {
+      return 0;
+    }
+    FileDescriptor fdesc = validFdOrException();
+
+    IOVecs iov = IOVecs.get(length);
+    ByteBuffer staging = getStagingBufferForEach(dsts, offset, length);
+
+    int numBuffers = iov.prepareEach(dsts, offset, length, staging, false);
+
+    int received;
+    try {
+      received = NativeUnixSocket.receiveMultiple(fdesc, iov.buffers, iov.offsets, iov.lengths,
+          iov.counts, numBuffers, socketAddressBuffer, options, 0);
+      iov.completeEach(received, staging, false);
+    } finally {
+      iov.clear();
+    }
+    return received;
+  }
+
+  /**
+   * Sends up to {@code length} datagrams (but no more than {@link NativeUnixSocket#MAX_IOVECS}),
+   * one per buffer, with a single native call. The datagrams are sent in order; the call stops at
+   * the first datagram that cannot be sent (e.g., because the send buffer is full).
+   * 
+   * @param targets The target address for each buffer (at the same index), or {@code null} to send
+   *          all datagrams to the connected peer. {@code null} entries also denote the connected
+   *          peer.
+   * @return The number of datagrams sent, which is also the number of buffers whose position was
+   *         advanced, starting at {@code offset}.
+   */
+  int sendMultiple(ByteBuffer[] srcs, int offset, int length, SocketAddress[] targets, int options)
+      throws IOException {
+    checkBufferArrayRange(srcs, offset, length);
+    length = Math.min(length, NativeUnixSocket.MAX_IOVECS);
+    if (length == 0) {
+      return 0;
+    }
+    FileDescriptor fdesc = validFdOrException();
+
+    // accept "send buffer overflow" as packet loss, see #write(ByteBuffer, SocketAddress, int)
+    options |= NativeUnixSocket.OPT_NON_BLOCKING;
+
+    IOVecs iov = IOVecs.get(length);
+    ByteBuffer staging = getStagingBufferForEach(srcs, offset, length);
+
+    int numBuffers = iov.prepareEach(srcs, offset, length, staging, true);
+
+    int sent;
+    try {
+      ByteBuffer socketAddressBuffer;
+      if (targets == null) {
+        socketAddressBuffer = null;
+      } else {
+        socketAddressBuffer = AFUNIXSocketAddress.SOCKETADDRESS_BATCH_BUFFER_TL.get();
+        iov.prepareAddresses(targets, offset, numBuffers, socketAddressBuffer);
+      }
+
+      sent = NativeUnixSocket.sendMultiple(fdesc, iov.buffers, iov.offsets, iov.lengths,
+          iov.counts, numBuffers, socketAddressBuffer, iov.addressIndexes, options);
+      iov.completeEach(sent, staging, true);
+    } finally {
+      iov.clear();
+    }
+    return sent;
+  }
+
+  /**
+   * Returns a direct buffer with a separate region for each heap buffer in the given range, or
+   * {@code null} if all buffers are direct.
+   */
+  private ByteBuffer getStagingBufferForEach(ByteBuffer[] buffers, int offset, int length) {
+    long heapRemaining = -1;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      ByteBuffer buf = buffers[i];
+      if (!buf.isDirect()) {
+        heapRemaining = Math.max(heapRemaining, 0) + buf.remaining();
+      }
+    }
+    return heapRemaining < 0 ? null : getThreadLocalDirectByteBuffer((int) Math.min(heapRemaining,
+        Integer.MAX_VALUE));
+  }
+
+  /**
+   * Returns a direct buffer to stage the contents of all heap buffers in the given range (or of all
+   * buffers, if {@code all} is set), or {@code null} if there is nothing to stage.
+   */
+  private ByteBuffer getStagingBuffer(ByteBuffer[] buffers, int offset, int length, boolean all) {
+    long stagedRemaining = 0;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      ByteBuffer buf = buffers[i];
+      if (all || !buf.isDirect()) {
+        stagedRemaining += buf.remaining();
+      }
+    }
+    return stagedRemaining == 0 ? null : getThreadLocalDirectByteBuffer((int) Math.min(
+        stagedRemaining, Integer.MAX_VALUE));
+  }
+
+  static int countNonEmpty(ByteBuffer[] buffers, int offset, int length) {
+    int n = 0;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      if (buffers[i].hasRemaining()) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private static void checkBufferArrayRange(ByteBuffer[] buffers, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > buffers.length - length) {
+      throw new IndexOutOfBoundsException();
+    }
+  }
+
   ByteBuffer getThreadLocalDirectByteBuffer(int capacity) {
     if (capacity > DATAGRAMPACKET_BUFFER_MAX_CAPACITY) {
       capacity = DATAGRAMPACKET_BUFFER_MAX_CAPACITY;
@@ -192,6 +479,298 @@ class AFUNIXCore extends CleanableState {
   }
 
   void implConfigureBlocking(boolean block) throws IOException {
-    NativeUnixSocket.configureBlocking(validFdOrException(), block);
+    synchronized (this) {
+      if (!block || !nonBlockingUnderTheHood) {
+        NativeUnixSocket.configureBlocking(validFdOrException(), block);
+      }
+      blocking = block;
+    }
+  }
+
+  /**
+   * Prepares a blocking operation: If called from a virtual thread, the socket is switched to
+   * non-blocking mode under the hood, so the thread can be parked instead of blocking in native
+   * code (which would pin its carrier thread).
+   *
+   * @return {@code true} if the socket is blocking from the user's point of view but non-blocking
+   *         under the hood, i.e., the caller has to try the operation without blocking, and
+   *         {@link #awaitReady(int, int, long)} until it succeeds.
+   * @throws IOException on error.
+   */
+  boolean configureNonBlockingIfVirtualThread() throws IOException {
+    if (!blocking) {
+      return false;
+    } else if (nonBlockingUnderTheHood) {
+      return true;
+    } else if (!VirtualThreadPoller.isVirtualThread()) {
+      return false;
+    }
+    synchronized (this) {
+      if (blocking && !nonBlockingUnderTheHood) {
+        NativeUnixSocket.configureBlocking(validFdOrException(), false);
+        nonBlockingUnderTheHood = true;
+      }
+      return blocking;
+    }
+  }
+
+  /**
+   * Waits until the socket may be ready for the given operation, after a non-blocking attempt (see
+   * {@link #configureNonBlockingIfVirtualThread()}) came up empty.
+   *
+   * @param op {@link SelectionKey#OP_READ}, {@link SelectionKey#OP_ACCEPT}, or
+   *          {@link SelectionKey#OP_WRITE}.
+   * @param timeoutMillis The timeout ({@code SO_TIMEOUT}), or 0 to wait indefinitely.
+   * @param startNanos The {@link System#nanoTime()} when the blocking operation started.
+   * @throws SocketTimeoutException if the timeout has elapsed.
+   * @throws InterruptedIOException if the thread is a virtual thread and has been interrupted (the
+   *           socket is closed then, just like the JDK's own sockets are).
+   * @throws IOException on error.
+   */
+  void awaitReady(int op, int timeoutMillis, long startNanos) throws IOException {
+    int remaining = 0;
+    if (timeoutMillis > 0) {
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      if (elapsed >= timeoutMillis) {
+        throw new SocketTimeoutException(op == SelectionKey.OP_ACCEPT ? "Accept timed out"
+            : "Read timed out");
+      }
+      remaining = (int) (timeoutMillis - elapsed);
+    }
+    VirtualThreadPoller.await(this, validFdOrException(), op, remaining);
+    if (Thread.currentThread().isInterrupted() && VirtualThreadPoller.isVirtualThread()) {
+      // platform threads cannot be interrupted while blocking in native code either
+      runCleaner();
+      throw new InterruptedIOException("Closed by interrupt");
+    }
+    // we may have been woken up because the socket was closed
+    validFdOrException();
+  }
+
+  /**
+   * Per-thread scratch space that describes the buffers of a scattering read or gathering write to
+   * native code.
+   * 
+   * Direct buffers are passed as-is; the contents of heap buffers are staged in (consecutive
+   * regions of) a single direct buffer. Adjacent staged regions are passed as one entry.
+   */
+  private static final class IOVecs {
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    private int[] offsets = new int[0];
+    private int[] lengths = new int[0];
+    private int[] counts = new int[0];
+    private int[] addressIndexes = new int[0];
+    private int numVecs;
+
+    /**
+     * The buffers as specified by the caller, and how many bytes of each were considered.
+     */
+    private ByteBuffer[] targets = new ByteBuffer[0];
+    private int[] targetLengths = new int[0];
+    private boolean[] targetStaged = new boolean[0];
+    private int numTargets;
+
+    static IOVecs get(int minCapacity) {
+      IOVecs iov = IOVECS_TL.get();
+      if (iov == null) {
+        iov = new IOVecs();
+        IOVECS_TL.set(iov);
+      }
+      if (iov.buffers.length < minCapacity) {
+        iov.buffers = new ByteBuffer[minCapacity];
+        iov.offsets = new int[minCapacity];
+        iov.lengths = new int[minCapacity];
+        iov.counts = new int[minCapacity];
+        iov.addressIndexes = new int[minCapacity];
+        iov.targets = new ByteBuffer[minCapacity];
+        iov.targetLengths = new int[minCapacity];
+        iov.targetStaged = new boolean[minCapacity];
+      }
+      return iov;
+    }
+
+    /**
+     * Fills the arrays from the given buffers, skipping empty ones, and copies the contents of heap
+     * buffers (or all buffers, if {@code stageAll} is set) into the staging buffer when writing.
+     * 
+     * @return The number of entries to pass to native code.
+     */
+    int prepare(ByteBuffer[] bufs, int offset, int length, ByteBuffer staging, boolean write,
+        boolean stageAll) {
+      int n = 0;
+      int t = 0;
+      int stagingPos = 0;
+      for (int i = offset, end = offset + length; i < end; i++) {
+        ByteBuffer buf = bufs[i];
+        int remaining = buf.remaining();
+        if (remaining == 0) {
+          continue;
+        }
+        int pos = buf.position();
+        boolean staged = stageAll || !buf.isDirect();
+        if (!staged) {
+          buffers[n] = buf;
+          offsets[n] = pos;
+          lengths[n++] = remaining;
+        } else {
+          remaining = Math.min(remaining, staging.capacity() - stagingPos);
+          if (remaining == 0) {
+            // staging buffer exhausted; leave the remaining buffers for a later call
+            break;
+          }
+          if (write) {
+            int limit = buf.limit();
+            buf.limit(pos + remaining);
+            staging.position(stagingPos);
+            staging.put(buf);
+            buf.limit(limit);
+            buf.position(pos);
+          }
+          if (n > 0 && buffers[n - 1] == staging && offsets[n - 1] + lengths[n - 1] == stagingPos) {
+            lengths[n - 1] += remaining;
+          } else {
+            buffers[n] = staging;
+            offsets[n] = stagingPos;
+            lengths[n++] = remaining;
+          }
+          stagingPos += remaining;
+        }
+        targets[t] = buf;
+        targetLengths[t] = remaining;
+        targetStaged[t++] = staged;
+      }
+      numVecs = n;
+      numTargets = t;
+      return n;
+    }
+
+    /**
+     * Fills the arrays with exactly one entry per buffer (including empty ones), for sending or
+     * receiving one datagram per buffer. Heap buffers are assigned separate regions of the staging
+     * buffer, and their contents are copied there when writing.
+     * 
+     * @return The number of entries used, which may be less than {@code length} if the staging
+     *         buffer is exhausted.
+     */
+    int prepareEach(ByteBuffer[] bufs, int offset, int length, ByteBuffer staging,
+        boolean write) {
+      int n = 0;
+      int stagingPos = 0;
+      for (int i = offset, end = offset + length; i < end; i++) {
+        ByteBuffer buf = bufs[i];
+        int remaining = buf.remaining();
+        boolean staged = !buf.isDirect();
+        if (staged) {
+          int available = staging.capacity() - stagingPos;
+          if (remaining > available) {
+            if (n > 0) {
+              // leave the remaining buffers for a later call
+              break;
+            }
+            remaining = available;
+          }
+          if (write) {
+            int pos = buf.position();
+            int limit = buf.limit();
+            buf.limit(pos + remaining);
+            staging.position(stagingPos);
+            staging.put(buf);
+            buf.limit(limit);
+            buf.position(pos);
+          }
+          buffers[n] = staging;
+          offsets[n] = stagingPos;
+          stagingPos += remaining;
+        } else {
+          buffers[n] = buf;
+          offsets[n] = buf.position();
+        }
+        lengths[n] = remaining;
+        targets[n] = buf;
+        targetStaged[n] = staged;
+        n++;
+      }
+      numVecs = n;
+      numTargets = n;
+      return n;
+    }
+
+    /**
+     * Assigns each entry the index of a slot in the given direct buffer that holds its target
+     * address (or -1 for {@code null}). Each distinct target is converted only once.
+     */
+    void prepareAddresses(SocketAddress[] addresses, int offset, int n,
+        ByteBuffer socketAddressBuffer) throws SocketException {
+      int numSlots = 0;
+      for (int i = 0; i < n; i++) {
+        SocketAddress address = addresses[offset + i];
+        int index = -1;
+        if (address != null) {
+          for (int j = i - 1; j >= 0; j--) {
+            if (addresses[offset + j] == address) { // NOPMD
+              index = addressIndexes[j];
+              break;
+            }
+          }
+          if (index == -1) {
+            index = numSlots++;
+            AFUNIXSocketAddress.unwrapAddressDirectBufferInternal(socketAddressBuffer, index,
+                address);
+          }
+        }
+        addressIndexes[i] = index;
+      }
+    }
+
+    /**
+     * Advances the buffer positions according to the number of bytes transferred per datagram, and
+     * copies data from the staging buffer to heap buffers when reading.
+     */
+    void completeEach(int numTransferred, ByteBuffer staging, boolean write) {
+      for (int i = 0; i < numTransferred; i++) {
+        ByteBuffer buf = targets[i];
+        int len = counts[i];
+        if (!write && targetStaged[i]) {
+          staging.limit(offsets[i] + len);
+          staging.position(offsets[i]);
+          buf.put(staging);
+        } else {
+          buf.position(buf.position() + len);
+        }
+      }
+    }
+
+    /**
+     * Advances the buffer positions according to the number of bytes transferred, and copies data
+     * from the staging buffer to heap buffers when reading.
+     */
+    void complete(long count, ByteBuffer staging, boolean write) {
+      int stagingPos = 0;
+      for (int i = 0; i < numTargets && count > 0; i++) {
+        ByteBuffer buf = targets[i];
+        int len = (int) Math.min(targetLengths[i], count);
+        count -= len;
+        if (!write && targetStaged[i]) {
+          staging.limit(stagingPos + len);
+          staging.position(stagingPos);
+          buf.put(staging);
+        } else {
+          buf.position(buf.position() + len);
+        }
+        if (targetStaged[i]) {
+          stagingPos += len;
+        }
+      }
+    }
+
+    /**
+     * Drops the references to the buffers, so we don't keep them from being garbage-collected.
+     */
+    void clear() {
+      Arrays.fill(buffers, 0, numVecs, null);
+      Arrays.fill(targets, 0, numTargets, null);
+      numVecs = 0;
+      numTargets = 0;
+    }
   }
 }
@@ -119,11 +119,97 @@ public final class AFUNIXDatagramChannel extends DatagramChannel implements AFUN
     return afSocket.getAFImpl().receive(dst);
   }
 
+  /**
+   * Receives several datagrams at once, one per buffer, using as few system calls as possible
+   * ({@code recvmmsg} on Linux).
+   * 
+   * In blocking mode, this method waits for the first datagram only; further datagrams are
+   * received only if they are immediately available. As with {@link #receive(ByteBuffer)}, any
+   * part of a datagram that does not fit into its buffer is silently discarded. Ancillary data
+   * (e.g., file descriptors) is not received by this method.
+   * 
+   * @param dsts The buffers to receive into; the {@code i}-th datagram is stored in
+   *          {@code dsts[i]}.
+   * @param senders If not {@code null}, receives the sender address of the {@code i}-th datagram
+   *          at index {@code i} (an entry may be {@code null} if the sender is not bound to an
+   *          address).
+   * @return The number of datagrams received, which may be 0 if this channel is in non-blocking
+   *         mode and no datagram is immediately available.
+   * @throws IOException on error.
+   */
+  public int receive(ByteBuffer[] dsts, AFUNIXSocketAddress[] senders) throws IOException {
+    return receive(dsts, 0, dsts.length, senders);
+  }
+
+  /**
+   * Receives several datagrams at once, one per buffer, using as few system calls as possible
+   * ({@code recvmmsg} on Linux).
+   * 
+   * @param dsts The buffers to receive into.
+   * @param offset The offset of the first buffer to use.
+   * @param length The maximum number of datagrams to receive.
+   * @param senders If not {@code null}, receives the sender address of the datagram stored in
+   *          {@code dsts[offset + i]} at index {@code offset + i}.
+   * @return The number of datagrams received.
+   * @throws IOException on error.
+   * @see #receive(ByteBuffer[], AFUNIXSocketAddress[])
+   */
+  public int receive(ByteBuffer[] dsts, int offset, int length, AFUNIXSocketAddress[] senders)
+      throws IOException {
+    if (senders != null && senders.length < offset + length) {
+      throw new IllegalArgumentException("senders array too small");
+    }
+    return afSocket.getAFImpl().receive(dsts, offset, length, senders);
+  }
+
   @Override
   public int send(ByteBuffer src, SocketAddress target) throws IOException {
     return afSocket.getAFImpl().send(src, target);
   }
 
+  /**
+   * Sends several datagrams at once, one per buffer, using as few system calls as possible
+   * ({@code sendmmsg} on Linux).
+   * 
+   * The datagrams are sent in order. Sending stops at the first datagram that cannot be sent, for
+   * example because the channel is in non-blocking mode and the send buffer is full
+   * ({@code EAGAIN}). The return value tells how many datagrams were sent; for each of them, the
+   * buffer position has been advanced by the number of bytes sent, whereas the buffers of the
+   * remaining datagrams are left untouched. Ancillary data (e.g., file descriptors) is not sent by
+   * this method.
+   * 
+   * @param srcs The buffers to send; each buffer's remaining bytes form one datagram.
+   * @param targets The target address of each datagram, at the same index as its buffer, or
+   *          {@code null} to send all datagrams to the connected peer. A {@code null} entry also
+   *          denotes the connected peer.
+   * @return The number of datagrams sent, which may be less than {@code srcs.length}.
+   * @throws IOException on error.
+   */
+  public int send(ByteBuffer[] srcs, SocketAddress[] targets) throws IOException {
+    return send(srcs, 0, srcs.length, targets);
+  }
+
+  /**
+   * Sends several datagrams at once, one per buffer, using as few system calls as possible
+   * ({@code sendmmsg} on Linux).
+   * 
+   * @param srcs The buffers to send.
+   * @param offset The offset of the first buffer to send.
+   * @param length The maximum number of datagrams to send.
+   * @param targets The target address of the datagram in {@code srcs[offset + i]} at index
+   *          {@code offset + i}, or {@code null} to send all datagrams to the connected peer.
+   * @return The number of datagrams sent, which may be less than {@code length}.
+   * @throws IOException on error.
+   * @see #send(ByteBuffer[], SocketAddress[])
+   */
+  public int send(ByteBuffer[] srcs, int offset, int length, SocketAddress[] targets)
+      throws IOException {
+    if (targets != null && targets.length < offset + length) {
+      throw new IllegalArgumentException("targets array too small");
+    }
+    return afSocket.getAFImpl().send(srcs, offset, length, targets);
+  }
+
   @Override
   public int read(ByteBuffer dst) throws IOException {
     return afSocket.getAFImpl().read(dst, null);
@@ -131,11 +217,7 @@ public final class AFUNIXDatagramChannel extends DatagramChannel implements AFUN
 
   @Override
   public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-    if (length == 0) {
-      return 0;
-    }
-    // FIXME support more than one buffer for scatter-gather access
-    return read(dsts[offset]);
+    return afSocket.getAFImpl().read(dsts, offset, length);
   }
 
   @Override
@@ -145,11 +227,7 @@ public final class AFUNIXDatagramChannel extends DatagramChannel implements AFUN
 
   @Override
   public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-    if (length == 0) {
-      return 0;
-    }
-    // FIXME support more than one buffer for scatter-gather access
-    return write(srcs[offset]);
+    return afSocket.getAFImpl().write(srcs, offset, length);
   }
 
   @Override
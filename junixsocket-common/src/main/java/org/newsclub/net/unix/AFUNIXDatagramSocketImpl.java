@@ -26,14 +26,11 @@ import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 final class AFUNIXDatagramSocketImpl extends DatagramSocketImpl {
   private final AFUNIXSocketCore core;
   final AncillaryDataSupport ancillaryDataSupport = new AncillaryDataSupport();
-  private final AtomicBoolean connected = new AtomicBoolean(false);
-  private final AtomicBoolean bound = new AtomicBoolean(false);
 
   private final AtomicInteger socketTimeout = new AtomicInteger(0);
   private int remotePort = 0;
@@ -75,6 +72,7 @@ final class AFUNIXDatagramSocketImpl extends DatagramSocketImpl {
       return;
     }
     NativeUnixSocket.connect(socketAddress.getBytes(), fd, -1);
+    core.setState(AFUNIXSocketCore.STATE_CONNECTED);
     this.remotePort = socketAddress.getPort();
   }
 
@@ -82,7 +80,8 @@ final class AFUNIXDatagramSocketImpl extends DatagramSocketImpl {
   protected void disconnect() {
     try {
       NativeUnixSocket.disconnect(fd);
-      connected.set(false);
+      // we may or may not be bound
+      core.setState(AFUNIXSocketCore.STATE_UNKNOWN);
       this.remotePort = 0;
     } catch (IOException e) {
       e.printStackTrace();
@@ -113,6 +112,7 @@ final class AFUNIXDatagramSocketImpl extends DatagramSocketImpl {
     }
     try {
       NativeUnixSocket.bind(socketAddress.getBytes(), fd, 0);
+      core.setState(AFUNIXSocketCore.STATE_BOUND);
       this.localPort = socketAddress.getPort();
     } catch (SocketException e) {
       throw e;
@@ -250,10 +250,20 @@ final class AFUNIXDatagramSocketImpl extends DatagramSocketImpl {
     return core.receive(dst);
   }
 
+  int receive(ByteBuffer[] dsts, int offset, int length, AFUNIXSocketAddress[] senders)
+      throws IOException {
+    return core.receive(dsts, offset, length, senders);
+  }
+
   int send(ByteBuffer src, SocketAddress target) throws IOException {
     return core.write(src, target, 0);
   }
 
+  int send(ByteBuffer[] srcs, int offset, int length, SocketAddress[] targets)
+      throws IOException {
+    return core.sendMultiple(srcs, offset, length, targets, 0);
+  }
+
   int read(ByteBuffer dst, ByteBuffer socketAddressBuffer) throws IOException {
     return core.read(dst, socketAddressBuffer, 0);
   }
@@ -262,32 +272,20 @@ final class AFUNIXDatagramSocketImpl extends DatagramSocketImpl {
     return core.write(src);
   }
 
+  long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    return core.read(dsts, offset, length, 0);
+  }
+
+  long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    return core.write(srcs, offset, length, 0);
+  }
+
   boolean isConnected() {
-    if (connected.get()) {
-      return true;
-    }
-    if (isClosed()) {
-      return false;
-    }
-    if (core.isConnected(false)) {
-      connected.set(true);
-      return true;
-    }
-    return false;
+    return core.isConnected(false);
   }
 
   boolean isBound() {
-    if (bound.get()) {
-      return true;
-    }
-    if (isClosed()) {
-      return false;
-    }
-    if (core.isConnected(true)) {
-      bound.set(true);
-      return true;
-    }
-    return false;
+    return core.isConnected(true);
   }
 
   void updatePorts(int local, int remote) {
@@ -0,0 +1,270 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+
+/**
+ * An {@link AFUNIXSelector} that uses Linux' {@code epoll} instead of {@code poll}.
+ * 
+ * Registered file descriptors are kept in the kernel; registrations, interest changes and
+ * cancellations are applied (via {@code epoll_ctl}) upon the next selection operation. Each
+ * selection only returns the keys that are actually ready, so its cost does not depend on the
+ * number of idle registered channels.
+ * 
+ * A file descriptor is only in the kernel's interest list while its key's interest set is
+ * non-empty, since {@code epoll} reports hang-ups and errors regardless of the requested events.
+ * When a registered file descriptor is closed, it is removed from there first (see
+ * {@link #fileDescriptorClosing(AFUNIXSelectionKey)}).
+ * 
+ * This selector is used by {@link AFUNIXSelectorProvider#openSelector()} where available, unless
+ * the system property {@code org.newsclub.net.unix.selector.epoll} is set to {@code false}.
+ * 
+ * @author Christian Kohlschütter
+ */
+final class AFUNIXEpollSelector extends AFUNIXSelector {
+  private static final String PROP_EPOLL = "org.newsclub.net.unix.selector.epoll";
+  private static final boolean EPOLL_ENABLED = Boolean.valueOf(System.getProperty(PROP_EPOLL,
+      "true"));
+
+  private static final int WAKEUP_ID = 0;
+  private static final int MIN_EVENTS = 64;
+
+  private final FileDescriptor epollFd;
+
+  /**
+   * The registered keys, indexed by their epoll identifier; identifiers of cancelled keys are
+   * reused once their file descriptor is no longer in the interest list.
+   */
+  private AFUNIXSelectionKey[] keysById = new AFUNIXSelectionKey[MIN_EVENTS];
+  private int nextId = WAKEUP_ID + 1;
+  private int[] freeIds = new int[MIN_EVENTS];
+  private int numFreeIds = 0;
+
+  private int[] readyIds = new int[MIN_EVENTS];
+  private int[] readyOps = new int[MIN_EVENTS];
+
+  private AFUNIXEpollSelector(AFUNIXSelectorProvider provider, FileDescriptor epollFd)
+      throws IOException {
+    super(provider);
+    this.epollFd = epollFd;
+
+    boolean success = false;
+    try {
+      NativeUnixSocket.epollCtl(epollFd, NativeUnixSocket.EPOLL_CTL_ADD, selectorWakeup.fd(),
+          SelectionKey.OP_READ, WAKEUP_ID);
+      success = true;
+    } finally {
+      if (!success) {
+        selectorWakeup.close();
+      }
+    }
+  }
+
+  /**
+   * Opens a new epoll-based selector, if supported.
+   * 
+   * @param provider The selector provider.
+   * @return The selector, or {@code null} if epoll is not supported or disabled.
+   * @throws IOException on error.
+   */
+  static AFUNIXEpollSelector open(AFUNIXSelectorProvider provider) throws IOException {
+    if (!EPOLL_ENABLED) {
+      return null;
+    }
+    FileDescriptor epollFd = new FileDescriptor();
+    if (!NativeUnixSocket.epollCreate(epollFd)) {
+      return null;
+    }
+    boolean success = false;
+    try {
+      AFUNIXEpollSelector selector = new AFUNIXEpollSelector(provider, epollFd);
+      success = true;
+      return selector;
+    } finally {
+      if (!success) {
+        NativeUnixSocket.close(epollFd);
+      }
+    }
+  }
+
+  /**
+   * Applies a registration, interest change or cancellation via {@code epoll_ctl}. Changes to the
+   * kernel's interest list (see {@link AFUNIXSelectionKey#getRegisteredOps()}) are guarded by
+   * {@link #pendingUpdatesLock}.
+   * 
+   * @param key The key.
+   * @throws IOException on error.
+   */
+  @Override
+  void processUpdate(AFUNIXSelectionKey key) throws IOException {
+    int id = key.getId();
+    if (!key.isValid()) {
+      if (id != WAKEUP_ID) {
+        // the identifier must not be reused while the file descriptor is in the interest list
+        removeFromInterestList(key);
+        releaseId(id);
+        key.setId(WAKEUP_ID);
+      }
+      return;
+    }
+    if (id == WAKEUP_ID) {
+      id = newId();
+      key.setId(id);
+      keysById[id] = key;
+    }
+
+    int ops = key.interestOps();
+    int registeredOps = key.getRegisteredOps();
+    if (ops == registeredOps) {
+      return;
+    } else if (ops == 0) {
+      removeFromInterestList(key);
+    } else if (registeredOps != 0) {
+      NativeUnixSocket.epollCtl(epollFd, NativeUnixSocket.EPOLL_CTL_MOD, key.getAFCore().fd, ops,
+          id);
+      key.setRegisteredOps(ops);
+    } else {
+      AFUNIXSocketCore core = key.getAFCore();
+      if (!core.addEpollKey(key)) {
+        // the file descriptor is being closed
+        return;
+      }
+      boolean success = false;
+      try {
+        NativeUnixSocket.epollCtl(epollFd, NativeUnixSocket.EPOLL_CTL_ADD, core.fd, ops, id);
+        success = true;
+      } finally {
+        if (!success) {
+          core.removeEpollKey(key);
+        }
+      }
+      key.setRegisteredOps(ops);
+    }
+  }
+
+  private void removeFromInterestList(AFUNIXSelectionKey key) {
+    if (key.getRegisteredOps() == 0) {
+      return;
+    }
+    key.setRegisteredOps(0);
+    AFUNIXSocketCore core = key.getAFCore();
+    core.removeEpollKey(key);
+    try {
+      // the file descriptor is still open, unless it was closed without going through AFUNIXCore
+      NativeUnixSocket.epollCtl(epollFd, NativeUnixSocket.EPOLL_CTL_DEL, core.fd, 0, key
+          .getId());
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * Removes the key's file descriptor from the interest list, since it is about to be closed.
+   * 
+   * Called from {@link AFUNIXCore} (by any thread).
+   * 
+   * @param key The key.
+   */
+  void fileDescriptorClosing(AFUNIXSelectionKey key) {
+    synchronized (pendingUpdatesLock) {
+      removeFromInterestList(key);
+    }
+  }
+
+  private int newId() {
+    if (numFreeIds > 0) {
+      return freeIds[--numFreeIds];
+    }
+    int id = nextId++;
+    if (id == keysById.length) {
+      keysById = Arrays.copyOf(keysById, id * 2);
+    }
+    return id;
+  }
+
+  private void releaseId(int id) {
+    keysById[id] = null;
+    if (numFreeIds == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, numFreeIds * 2);
+    }
+    freeIds[numFreeIds++] = id;
+  }
+
+  @Override
+  int select0(int timeout) throws IOException {
+    processPendingUpdates();
+
+    beginSelect();
+
+    int num;
+    begin();
+    try {
+      num = NativeUnixSocket.epollWait(epollFd, timeout, readyIds, readyOps);
+    } finally {
+      end();
+    }
+    setOpsReady(num);
+
+    if (num == readyIds.length && readyIds.length < nextId) {
+      // more keys may be ready than we were able to receive at once; since epoll is
+      // level-triggered, the remaining ones are returned by the next selection
+      readyIds = new int[readyIds.length * 2];
+      readyOps = new int[readyIds.length];
+    }
+
+    return numKeysReady();
+  }
+
+  private void setOpsReady(int num) throws IOException {
+    for (int i = 0; i < num; i++) {
+      int id = readyIds[i];
+      if (id == WAKEUP_ID) {
+        selectorWakeup.consume();
+        continue;
+      }
+      AFUNIXSelectionKey key = id < keysById.length ? keysById[id] : null;
+      if (key == null || !key.isValid()) {
+        continue;
+      }
+      int rops = readyOps[i] & key.interestOps();
+      if (rops != 0) {
+        keyReady(key, rops);
+      }
+    }
+  }
+
+  @Override
+  protected void implCloseSelector() throws IOException {
+    super.implCloseSelector();
+    synchronized (pendingUpdatesLock) {
+      for (AFUNIXSelectionKey key : keysById) {
+        if (key != null && key.getRegisteredOps() != 0) {
+          // closing the epoll instance takes care of the interest list
+          key.setRegisteredOps(0);
+          key.getAFCore().removeEpollKey(key);
+        }
+      }
+      Arrays.fill(keysById, null);
+      NativeUnixSocket.close(epollFd);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Creates anonymous, memory-backed files ({@code memfd_create(2)}) that can be passed to other
+ * processes via {@link AFUNIXSocket#setOutboundFileDescriptors(FileDescriptor...)}.
+ * 
+ * Typical usage, to hand an immutable buffer to a peer without copying it through the socket:
+ * 
+ * <code>
+ * FileDescriptor fd = AFUNIXMemoryFile.create("data", buffer, AFUNIXMemoryFile.SEAL_IMMUTABLE);
+ * socket.setOutboundFileDescriptors(fd);
+ * socket.getOutputStream().write(...);
+ * 
+ * // on the receiving side
+ * FileDescriptor fd = socket.getReceivedFileDescriptors()[0];
+ * int seals = AFUNIXMemoryFile.getSeals(fd);
+ * if ((seals &amp; AFUNIXMemoryFile.SEAL_IMMUTABLE) == AFUNIXMemoryFile.SEAL_IMMUTABLE) {
+ *   MappedByteBuffer bb = FileDescriptorCast.using(fd).as(MappedByteBuffer.class);
+ * }
+ * </code>
+ * 
+ * The returned {@link FileDescriptor}s can be converted to a {@link FileChannel} or a
+ * {@link MappedByteBuffer} via {@link FileDescriptorCast}.
+ * 
+ * NOTE: {@link #SEAL_WRITE} cannot be added while a writable shared mapping of the file exists.
+ * Since Java cannot explicitly unmap a {@link MappedByteBuffer}, write the contents through a
+ * {@link FileChannel} (or use {@link #create(String, ByteBuffer, int)}) before sealing.
+ * 
+ * This requires {@link AFUNIXSocketCapability#CAPABILITY_MEMORY_FILES}.
+ * 
+ * @author Christian Kohlschütter
+ */
+public final class AFUNIXMemoryFile {
+  /** Prevents further seals from being added. */
+  public static final int SEAL_SEAL = 0x0001;
+
+  /** Prevents the file from shrinking. */
+  public static final int SEAL_SHRINK = 0x0002;
+
+  /** Prevents the file from growing. */
+  public static final int SEAL_GROW = 0x0004;
+
+  /** Prevents any modification of the file's contents. */
+  public static final int SEAL_WRITE = 0x0008;
+
+  /**
+   * Prevents new writes (and new writable mappings), while existing writable mappings stay valid
+   * (Linux 5.1 or later).
+   */
+  public static final int SEAL_FUTURE_WRITE = 0x0010;
+
+  /**
+   * The seals that make the file fully immutable: {@link #SEAL_SEAL}, {@link #SEAL_SHRINK},
+   * {@link #SEAL_GROW} and {@link #SEAL_WRITE}.
+   */
+  public static final int SEAL_IMMUTABLE = SEAL_SEAL | SEAL_SHRINK | SEAL_GROW | SEAL_WRITE;
+
+  private AFUNIXMemoryFile() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Checks if memory-backed files are supported in this environment.
+   * 
+   * @return {@code true} if supported.
+   */
+  public static boolean isSupported() {
+    return AFUNIXSocket.supports(AFUNIXSocketCapability.CAPABILITY_MEMORY_FILES);
+  }
+
+  private static void ensureSupported() {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Memory-backed files are not supported");
+    }
+  }
+
+  /**
+   * Creates a new, empty memory-backed file that allows sealing.
+   * 
+   * @param name The name of the file (for debugging purposes only, need not be unique).
+   * @return The file descriptor.
+   * @throws IOException on error.
+   * @throws UnsupportedOperationException if not supported.
+   */
+  public static FileDescriptor create(String name) throws IOException {
+    Objects.requireNonNull(name);
+    ensureSupported();
+    FileDescriptor fd = new FileDescriptor();
+    if (!NativeUnixSocket.initMemoryFile(fd, name, true)) {
+      throw new UnsupportedOperationException("Memory-backed files are not supported");
+    }
+    return fd;
+  }
+
+  /**
+   * Creates a new memory-backed file with the given contents, and adds the given seals.
+   * 
+   * The remaining bytes of {@code contents} are consumed.
+   * 
+   * @param name The name of the file (for debugging purposes only, need not be unique).
+   * @param contents The contents.
+   * @param seals The seals to add (e.g., {@link #SEAL_IMMUTABLE}), or 0.
+   * @return The file descriptor.
+   * @throws IOException on error.
+   * @throws UnsupportedOperationException if not supported.
+   */
+  public static FileDescriptor create(String name, ByteBuffer contents, int seals)
+      throws IOException {
+    FileDescriptor fd = create(name);
+    boolean success = false;
+    try {
+      FileDescriptor dup = new FileDescriptor();
+      NativeUnixSocket.duplicate(fd, dup);
+      try (FileOutputStream fos = new FileOutputStream(dup)) {
+        FileChannel fc = fos.getChannel();
+        long pos = 0;
+        while (contents.hasRemaining()) {
+          pos += fc.write(contents, pos);
+        }
+      }
+      if (seals != 0) {
+        addSeals(fd, seals);
+      }
+      success = true;
+      return fd;
+    } finally {
+      if (!success) {
+        NativeUnixSocket.close(fd);
+      }
+    }
+  }
+
+  /**
+   * Adds the given seals to a memory-backed file.
+   * 
+   * @param fd The file descriptor.
+   * @param seals The seals to add (see {@code SEAL_*}).
+   * @throws IOException on error, e.g., if the file is already sealed with {@link #SEAL_SEAL}.
+   * @throws UnsupportedOperationException if not supported.
+   */
+  public static void addSeals(FileDescriptor fd, int seals) throws IOException {
+    Objects.requireNonNull(fd);
+    ensureSupported();
+    NativeUnixSocket.addSeals(fd, seals);
+  }
+
+  /**
+   * Returns the seals of a memory-backed file, for example one received from a peer.
+   * 
+   * @param fd The file descriptor.
+   * @return The seals (see {@code SEAL_*}), or 0 if the file does not support sealing.
+   * @throws IOException on error.
+   */
+  public static int getSeals(FileDescriptor fd) throws IOException {
+    Objects.requireNonNull(fd);
+    if (!isSupported()) {
+      return 0;
+    }
+    return NativeUnixSocket.getSeals(fd);
+  }
+}
@@ -92,10 +92,7 @@ public final class AFUNIXPipe extends Pipe implements Closeable {
 
     @Override
     public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-      if (length == 0) {
-        return 0;
-      }
-      return read(dsts[offset]);
+      return sourceCore.read(dsts, offset, length, options);
     }
 
     @Override
@@ -132,10 +129,7 @@ public final class AFUNIXPipe extends Pipe implements Closeable {
 
     @Override
     public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-      if (length == 0) {
-        return 0;
-      }
-      return write(srcs[offset]);
+      return sinkCore.write(srcs, offset, length, options);
     }
 
     @Override
@@ -30,6 +30,10 @@ final class AFUNIXSelectionKey extends SelectionKey {
   private final SelectableChannel chann;
   private final AtomicBoolean cancelled = new AtomicBoolean();
   private int opsReady;
+  private int id;
+  private int selectedIndex = -1;
+  private boolean updatePending;
+  private int registeredOps;
 
   AFUNIXSelectionKey(AFUNIXSelector selector, AbstractSelectableChannel ch, int ops, Object att) {
     super();
@@ -91,6 +95,7 @@ final class AFUNIXSelectionKey extends SelectionKey {
   @Override
   public SelectionKey interestOps(int interestOps) {
     this.ops = interestOps; // FIXME check
+    sel.interestOpsChanged(this);
     return this;
   }
 
@@ -106,4 +111,59 @@ final class AFUNIXSelectionKey extends SelectionKey {
   void setOpsReady(int opsReady) {
     this.opsReady = opsReady;
   }
-}
\ No newline at end of file
+
+  /**
+   * Returns the identifier assigned by the selector (the slot in {@link AFUNIXSelector.PollFd}, or
+   * the epoll identifier in {@link AFUNIXEpollSelector}).
+   * 
+   * @return The identifier, or 0 if none has been assigned.
+   */
+  int getId() {
+    return id;
+  }
+
+  void setId(int id) {
+    this.id = id;
+  }
+
+  /**
+   * Returns the position of this key in {@link AFUNIXSelector.SelectionKeySet}.
+   * 
+   * @return The position, or -1 if not selected.
+   */
+  int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  void setSelectedIndex(int selectedIndex) {
+    this.selectedIndex = selectedIndex;
+  }
+
+  /**
+   * Checks if this key is queued for an update of its registration with the selector (see
+   * {@link AFUNIXSelector#processPendingUpdates()}).
+   * 
+   * @return {@code true} if so.
+   */
+  boolean isUpdatePending() {
+    return updatePending;
+  }
+
+  void setUpdatePending(boolean updatePending) {
+    this.updatePending = updatePending;
+  }
+
+  /**
+   * Returns the operations the file descriptor is currently registered for in the kernel (used by
+   * {@link AFUNIXEpollSelector}).
+   * 
+   * @return The operations, or 0 if the file descriptor is not in the interest list.
+   */
+  int getRegisteredOps() {
+    return registeredOps;
+  }
+
+  void setRegisteredOps(int registeredOps) {
+    this.registeredOps = registeredOps;
+  }
+}
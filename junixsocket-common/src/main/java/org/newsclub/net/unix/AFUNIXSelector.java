@@ -20,56 +20,68 @@ package org.newsclub.net.unix;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
-import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectableChannel;
-import java.nio.channels.spi.AbstractSelector;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-final class AFUNIXSelector extends AbstractSelector {
-  private static AFUNIXPipe sharedSelectorPipe = null;
-  private static PollFd sharedSelectorPipePollFd;
+class AFUNIXSelector extends SelectorShim {
+  /**
+   * Value of {@link PollFd#rops} for file descriptors that are no longer valid (set by native
+   * code).
+   */
+  private static final int ROPS_INVALID = -1;
 
-  private static final ByteBuffer PIPE_MSG = ByteBuffer.allocate(1);
-  private static final ByteBuffer PIPE_MSG_RECEIVE_BUFFER = ByteBuffer.allocateDirect(256);
+  private static final int MIN_PENDING_UPDATES = 64;
 
-  private final Set<AFUNIXSelectionKey> keysRegistered = new HashSet<>();
+  // keys are registered and cancelled from any thread
+  final Set<AFUNIXSelectionKey> keysRegistered = Collections.newSetFromMap(
+      new ConcurrentHashMap<AFUNIXSelectionKey, Boolean>());
 
   @SuppressWarnings("unchecked")
   private final Set<SelectionKey> keysView =
       (Set<SelectionKey>) (Set<? extends SelectionKey>) Collections.unmodifiableSet(keysRegistered);
 
-  private PollFd pollFd = null;
+  private PollFd pollFd; // guarded by this
 
-  private final SelectionKeySet keysSelected = new SelectionKeySet();
+  /**
+   * Guards the pending updates (and, in {@link AFUNIXEpollSelector}, all changes to the kernel's
+   * interest list).
+   */
+  final Object pendingUpdatesLock = new Object();
+  // guarded by pendingUpdatesLock
+  private AFUNIXSelectionKey[] pendingUpdates = new AFUNIXSelectionKey[MIN_PENDING_UPDATES];
+  // guarded by pendingUpdatesLock
+  private int numPendingUpdates = 0;
+  // guarded by pendingUpdatesLock
+  private AFUNIXSelectionKey[] processedUpdates = new AFUNIXSelectionKey[MIN_PENDING_UPDATES];
 
-  protected AFUNIXSelector(SelectorProvider provider) {
-    super(provider);
-  }
+  final SelectionKeySet keysSelected = new SelectionKeySet();
+  private int numKeysReady = 0;
 
-  protected AFUNIXPipe selectorPipe() throws IOException {
-    AFUNIXPipe selectorPipe;
-    synchronized (AFUNIXSelector.class) {
-      if (sharedSelectorPipe == null) {
-        sharedSelectorPipe = AFUNIXSelectorProvider.getInstance().openSelectablePipe();
-        sharedSelectorPipePollFd = new PollFd(sharedSelectorPipe.sourceFD());
-      }
-      selectorPipe = sharedSelectorPipe;
-    }
-    return selectorPipe;
+  final SelectorWakeup selectorWakeup;
+
+  protected AFUNIXSelector(SelectorProvider provider) throws IOException {
+    super(provider);
+    this.selectorWakeup = SelectorWakeup.open(AFUNIXSelectorProvider.getInstance());
+    this.pollFd = new PollFd(16);
+    pollFd.fds[0] = selectorWakeup.fd();
   }
 
   @Override
   protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
     AFUNIXSelectionKey key = new AFUNIXSelectionKey(this, ch, ops, att);
-    pollFd = null;
     keysRegistered.add(key);
+    keyAdded(key);
     return key;
   }
 
@@ -85,7 +97,7 @@ final class AFUNIXSelector extends AbstractSelector {
 
   @Override
   public int selectNow() throws IOException {
-    return select0(0);
+    return lockAndSelect(0);
   }
 
   @Override
@@ -96,22 +108,32 @@ final class AFUNIXSelector extends AbstractSelector {
       throw new IllegalArgumentException("Timeout must not be negative");
     }
 
-    return select0((int) timeout);
+    return lockAndSelect((int) timeout);
   }
 
   @Override
   public int select() throws IOException {
     try {
-      return select0(-1);
+      return lockAndSelect(-1);
     } catch (SocketTimeoutException e) {
       return 0;
     }
   }
 
-  private int select0(int timeout) throws IOException {
-    pollFd = initPollFd(pollFd);
+  @Override
+  final int lockAndSelect(int timeout) throws IOException {
+    synchronized (this) {
+      if (!isOpen()) {
+        throw new ClosedSelectorException();
+      }
+      return select0(timeout);
+    }
+  }
 
-    keysSelected.clear();
+  int select0(int timeout) throws IOException {
+    processPendingUpdates();
+
+    beginSelect();
 
     int num;
     begin();
@@ -124,150 +146,392 @@ final class AFUNIXSelector extends AbstractSelector {
       consumeAllBytesAfterPoll();
       setOpsReady();
     }
-    return keysSelected.size();
+    return numKeysReady;
+  }
+
+  /**
+   * Prepares a selection operation; clears the selected-key set unless the ready keys are
+   * dispatched to an action.
+   */
+  final void beginSelect() {
+    numKeysReady = 0;
+    if (!isDispatching()) {
+      keysSelected.clear();
+    }
+  }
+
+  /**
+   * Sets the ready operations of the given key, and either adds it to the selected-key set, or
+   * passes it to the action of the current {@code select(Consumer)} operation.
+   *
+   * @param key The key.
+   * @param rops The ready operations.
+   */
+  final void keyReady(AFUNIXSelectionKey key, int rops) {
+    key.setOpsReady(rops);
+    if (!dispatchReady(key)) {
+      keysSelected.add0(key);
+    }
+    numKeysReady++;
+  }
+
+  /**
+   * Returns the number of keys marked as ready by {@link #keyReady(AFUNIXSelectionKey, int)} in
+   * the current selection operation.
+   *
+   * @return The number of ready keys.
+   */
+  final int numKeysReady() {
+    return numKeysReady;
   }
 
   private void consumeAllBytesAfterPoll() throws IOException {
     if ((pollFd.rops[0] & SelectionKey.OP_READ) == 0) {
       return;
     }
-    synchronized (PIPE_MSG_RECEIVE_BUFFER) {
-      PIPE_MSG_RECEIVE_BUFFER.clear();
-      int maxReceive = PIPE_MSG_RECEIVE_BUFFER.remaining();
-      int bytesReceived = NativeUnixSocket.receive(pollFd.fds[0], PIPE_MSG_RECEIVE_BUFFER, 0,
-          maxReceive, null, NativeUnixSocket.OPT_NON_SOCKET, null, 0);
-
-      if (bytesReceived == maxReceive) {
-        // consume all pending bytes
-        int read;
-        do {
-          if ((read = NativeUnixSocket.poll(sharedSelectorPipePollFd, 0)) > 0) {
-            PIPE_MSG_RECEIVE_BUFFER.clear();
-            read = NativeUnixSocket.receive(sharedSelectorPipePollFd.fds[0],
-                PIPE_MSG_RECEIVE_BUFFER, 0, maxReceive, null, NativeUnixSocket.OPT_NON_SOCKET, null,
-                0);
-          }
-        } while (read == maxReceive);
-      }
-    }
+    selectorWakeup.consume();
   }
 
   private void setOpsReady() {
-    for (int i = 1; i < pollFd.rops.length; i++) {
+    // iterate backwards, so removing an entry does not affect the ones not yet visited
+    for (int i = pollFd.numFds - 1; i > 0; i--) {
       int rops = pollFd.rops[i];
       if (rops == 0) {
         continue;
       }
       AFUNIXSelectionKey key = pollFd.keys[i];
-      key.setOpsReady(rops);
-      keysSelected.add0(key);
-    }
-  }
-
-  @SuppressWarnings("resource")
-  private PollFd initPollFd(PollFd existingPollFd) throws IOException {
-    for (Iterator<AFUNIXSelectionKey> it = keysRegistered.iterator(); it.hasNext();) {
-      AFUNIXSelectionKey key = it.next();
-      if (!key.getAFCore().fd.valid()) {
+      if (rops == ROPS_INVALID) {
+        // closed without cancelling the key; we hold the selector lock, so remove it right away
         key.cancelNoRemove();
-        it.remove();
-        existingPollFd = null;
+        keysRegistered.remove(key);
+        pollFd.remove(key);
+        continue;
       }
+      keyReady(key, rops);
     }
-
-    if (existingPollFd != null) {
-      return existingPollFd;
-    }
-
-    int size = keysRegistered.size() + 1;
-    FileDescriptor[] fds = new FileDescriptor[size];
-    int[] ops = new int[size];
-
-    AFUNIXSelectionKey[] keys = new AFUNIXSelectionKey[size];
-    fds[0] = selectorPipe().sourceFD();
-    ops[0] = SelectionKey.OP_READ;
-
-    int i = 1;
-    for (AFUNIXSelectionKey key : keysRegistered) {
-      keys[i] = key;
-      fds[i] = key.getAFCore().fd;
-      ops[i] = key.interestOps();
-    }
-    return new PollFd(keys, fds, ops);
   }
 
   @Override
   protected void implCloseSelector() throws IOException {
     wakeup();
-    for (AFUNIXSelectionKey key : keysRegistered) {
-      key.cancelNoRemove();
+    synchronized (this) {
+      // any selection operation has finished by now
+      for (AFUNIXSelectionKey key : keysRegistered) {
+        key.cancelNoRemove();
+      }
+      keysRegistered.clear();
+      pollFd = new PollFd(1);
+      selectorWakeup.close();
+    }
+    synchronized (pendingUpdatesLock) {
+      Arrays.fill(pendingUpdates, 0, numPendingUpdates, null);
+      numPendingUpdates = 0;
     }
-    keysRegistered.clear();
   }
 
   @Override
   public Selector wakeup() {
     try {
-      selectorPipe().sink().write(PIPE_MSG);
+      // a no-op once the selector is closed
+      selectorWakeup.wakeup();
     } catch (IOException e) {
-      // FIXME throw as runtimeexception?
-      e.printStackTrace();
+      throw new IllegalStateException("Could not wake up selector", e);
     }
     return this;
   }
 
   void remove(AFUNIXSelectionKey key) {
     keysRegistered.remove(key);
-    pollFd = null;
+    keyRemoved(key);
   }
 
+  /**
+   * Called after a key has been registered.
+   * 
+   * @param key The key.
+   */
+  final void keyAdded(AFUNIXSelectionKey key) {
+    addPendingUpdate(key);
+  }
+
+  /**
+   * Called after a key has been removed (cancelled).
+   * 
+   * @param key The key.
+   */
+  final void keyRemoved(AFUNIXSelectionKey key) {
+    addPendingUpdate(key);
+  }
+
+  /**
+   * Called after the interest ops of a key have changed.
+   * 
+   * @param key The key.
+   */
+  final void interestOpsChanged(AFUNIXSelectionKey key) {
+    addPendingUpdate(key);
+  }
+
+  /**
+   * Queues a registration, interest change or cancellation (which may come from any thread), to be
+   * applied by the next selection operation (see {@link #processUpdate(AFUNIXSelectionKey)}).
+   * 
+   * @param key The key.
+   */
+  private void addPendingUpdate(AFUNIXSelectionKey key) {
+    synchronized (pendingUpdatesLock) {
+      if (key.isUpdatePending()) {
+        return;
+      }
+      key.setUpdatePending(true);
+      if (numPendingUpdates == pendingUpdates.length) {
+        pendingUpdates = Arrays.copyOf(pendingUpdates, numPendingUpdates * 2);
+      }
+      pendingUpdates[numPendingUpdates++] = key;
+    }
+  }
+
+  /**
+   * Applies the queued registrations, interest changes and cancellations. Called with the selector
+   * lock held, before polling.
+   */
+  final void processPendingUpdates() throws IOException {
+    synchronized (pendingUpdatesLock) {
+      int numKeys = numPendingUpdates;
+      if (numKeys == 0) {
+        return;
+      }
+      // swap the arrays, so we don't need to allocate a new one
+      AFUNIXSelectionKey[] keys = pendingUpdates;
+      pendingUpdates = processedUpdates;
+      processedUpdates = keys;
+      numPendingUpdates = 0;
+      for (int i = 0; i < numKeys; i++) {
+        keys[i].setUpdatePending(false);
+      }
+
+      for (int i = 0; i < numKeys; i++) {
+        AFUNIXSelectionKey key = keys[i];
+        keys[i] = null;
+        processUpdate(key);
+      }
+    }
+  }
+
+  /**
+   * Applies a registration, interest change or cancellation of the given key. Called with the
+   * selector lock and {@link #pendingUpdatesLock} held.
+   * 
+   * @param key The key.
+   * @throws IOException on error.
+   */
+  void processUpdate(AFUNIXSelectionKey key) throws IOException {
+    if (!key.isValid()) {
+      pollFd.remove(key);
+    } else if (key.getId() == 0) {
+      pollFd.add(key);
+    } else {
+      pollFd.update(key);
+    }
+  }
+
+  /**
+   * The arrays passed to {@code poll}.
+   * 
+   * For a selector, slot 0 is reserved for its {@link SelectorWakeup}, and each registered key
+   * occupies one further slot (see {@link AFUNIXSelectionKey#getId()}). The arrays grow as needed;
+   * when a key is removed, the last slot is moved into its place, so the used slots are always
+   * contiguous. They are only modified with the selector lock held, by the selecting thread (see
+   * {@link AFUNIXSelector#processPendingUpdates()}).
+   */
   static final class PollFd {
     // accessed from native code
-    final FileDescriptor[] fds;
+    FileDescriptor[] fds;
     // accessed from native code
-    final int[] ops;
+    int[] ops;
     // accessed from native code
-    final int[] rops;
-
-    final AFUNIXSelectionKey[] keys;
+    int[] rops;
+    // accessed from native code
+    int numFds;
 
-    private PollFd(FileDescriptor pipeSourceFd) {
-      this(pipeSourceFd, SelectionKey.OP_READ);
-    }
+    AFUNIXSelectionKey[] keys;
 
     PollFd(FileDescriptor pipeSourceFd, int op) {
       this.fds = new FileDescriptor[] {pipeSourceFd};
       this.ops = new int[] {op};
       this.rops = new int[1];
       this.keys = null;
+      this.numFds = 1;
     }
 
-    private PollFd(AFUNIXSelectionKey[] keys, FileDescriptor[] fds, int[] ops) {
-      this.keys = keys;
-      if (fds.length != ops.length) {
-        throw new IllegalStateException();
+    private PollFd(int capacity) {
+      this.fds = new FileDescriptor[capacity];
+      this.ops = new int[capacity];
+      this.rops = new int[capacity];
+      this.keys = new AFUNIXSelectionKey[capacity];
+      this.ops[0] = SelectionKey.OP_READ;
+      this.numFds = 1;
+    }
+
+    private void add(AFUNIXSelectionKey key) {
+      if (numFds == fds.length) {
+        int capacity = fds.length * 2;
+        fds = Arrays.copyOf(fds, capacity);
+        ops = Arrays.copyOf(ops, capacity);
+        rops = Arrays.copyOf(rops, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+      }
+      int slot = numFds++;
+      keys[slot] = key;
+      fds[slot] = key.getAFCore().fd;
+      ops[slot] = key.interestOps();
+      rops[slot] = 0;
+      key.setId(slot);
+    }
+
+    private void remove(AFUNIXSelectionKey key) {
+      int slot = key.getId();
+      if (slot <= 0 || slot >= numFds || keys[slot] != key) {
+        return;
+      }
+      key.setId(0);
+
+      int last = --numFds;
+      if (slot != last) {
+        AFUNIXSelectionKey lastKey = keys[last];
+        keys[slot] = lastKey;
+        fds[slot] = fds[last];
+        ops[slot] = ops[last];
+        // the moved key has already been visited if we are in setOpsReady
+        rops[slot] = 0;
+        lastKey.setId(slot);
       }
-      this.fds = fds;
-      this.ops = ops;
-      this.rops = new int[ops.length];
+      keys[last] = null;
+      fds[last] = null;
+      ops[last] = 0;
+      rops[last] = 0;
+    }
+
+    private void update(AFUNIXSelectionKey key) {
+      int slot = key.getId();
+      if (slot <= 0 || slot >= numFds || keys[slot] != key) {
+        return;
+      }
+      ops[slot] = key.interestOps();
     }
   }
 
-  private static final class SelectionKeySet extends HashSet<SelectionKey> {
-    private static final long serialVersionUID = 1L;
+  /**
+   * The selected-key set, backed by an array that is reused across selection operations.
+   *
+   * Each key knows its position in the array (see {@link AFUNIXSelectionKey#getSelectedIndex()}),
+   * so {@link #contains(Object)} and {@link #remove(Object)} are O(1). Removed keys leave a gap,
+   * which is skipped upon iteration, and reclaimed upon {@link #clear()}.
+   */
+  static final class SelectionKeySet extends AbstractSet<SelectionKey> {
+    private AFUNIXSelectionKey[] keys = new AFUNIXSelectionKey[16];
+    private int end = 0;
+    private int size = 0;
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof AFUNIXSelectionKey)) {
+        return false;
+      }
+      AFUNIXSelectionKey key = (AFUNIXSelectionKey) o;
+      int index = key.getSelectedIndex();
+      return index >= 0 && index < end && keys[index] == key;
+    }
 
     @Override
     public boolean add(SelectionKey e) {
       throw new UnsupportedOperationException();
     }
 
-    private void add0(SelectionKey e) {
-      super.add(e);
+    void add0(AFUNIXSelectionKey key) {
+      if (contains(key)) {
+        return;
+      }
+      if (end == keys.length) {
+        keys = Arrays.copyOf(keys, end * 2);
+      }
+      key.setSelectedIndex(end);
+      keys[end++] = key;
+      size++;
     }
 
     @Override
     public boolean addAll(Collection<? extends SelectionKey> c) {
       throw new UnsupportedOperationException();
     }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!contains(o)) {
+        return false;
+      }
+      AFUNIXSelectionKey key = (AFUNIXSelectionKey) o;
+      keys[key.getSelectedIndex()] = null;
+      key.setSelectedIndex(-1);
+      size--;
+      return true;
+    }
+
+    @Override
+    public void clear() {
+      for (int i = 0; i < end; i++) {
+        AFUNIXSelectionKey key = keys[i];
+        if (key != null) {
+          key.setSelectedIndex(-1);
+          keys[i] = null;
+        }
+      }
+      end = 0;
+      size = 0;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+      return new Iterator<SelectionKey>() {
+        private int next = 0;
+        private AFUNIXSelectionKey current = null;
+
+        @Override
+        public boolean hasNext() {
+          while (next < end && keys[next] == null) {
+            next++;
+          }
+          return next < end;
+        }
+
+        @Override
+        public SelectionKey next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          current = keys[next++];
+          return current;
+        }
+
+        @Override
+        public void remove() {
+          if (current == null) {
+            throw new IllegalStateException();
+          }
+          SelectionKeySet.this.remove(current);
+          current = null;
+        }
+      };
+    }
   }
 }
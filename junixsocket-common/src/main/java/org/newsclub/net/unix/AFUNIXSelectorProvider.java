@@ -56,7 +56,7 @@ public final class AFUNIXSelectorProvider extends SelectorProvider {
     AFUNIXDatagramChannel s1 = openDatagramChannel(AFUNIXProtocolFamily.UNIX);
     AFUNIXDatagramChannel s2 = openDatagramChannel(AFUNIXProtocolFamily.UNIX);
 
-    NativeUnixSocket.socketPair(NativeUnixSocket.SOCK_STREAM, s1.getAFCore().fd, s2.getAFCore().fd);
+    NativeUnixSocket.socketPair(NativeUnixSocket.SOCK_DGRAM, s1.getAFCore().fd, s2.getAFCore().fd);
 
     s1.socket().internalDummyBind();
     s2.socket().internalDummyBind();
@@ -90,7 +90,11 @@ public final class AFUNIXSelectorProvider extends SelectorProvider {
 
   @Override
   public AbstractSelector openSelector() throws IOException {
-    return new AFUNIXSelector(this);
+    AbstractSelector selector = AFUNIXEpollSelector.open(this);
+    if (selector == null) {
+      selector = new AFUNIXSelector(this);
+    }
+    return selector;
   }
 
   @Override
@@ -0,0 +1,642 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.IllegalBlockingModeException;
+import java.util.Objects;
+
+/**
+ * A {@link ByteChannel} that exchanges data with its peer via shared memory, using an
+ * {@link AFUNIXSocketChannel} connection only for setting up the memory region and for wake-up
+ * notifications ("doorbells").
+ * 
+ * One side calls {@link #offer(AFUNIXSocketChannel, int)}, which creates a memory-backed file
+ * ({@code memfd_create(2)} where available, or an unlinked temporary file otherwise), and passes
+ * its file descriptor to the other side, which calls {@link #accept(AFUNIXSocketChannel)}. Both
+ * sides then map the file, which contains two single-producer/single-consumer ring buffers, one
+ * for each direction.
+ * 
+ * Data written to the channel is copied into the ring buffer, and data is read directly from it.
+ * As long as neither side has to wait for the other, no system calls are involved. A side that
+ * runs out of data (or space) announces this in the shared header and then blocks on the socket
+ * until the other side rings the doorbell. Each doorbell byte tells which direction it is for, and
+ * only one thread at a time reads from the socket, handing doorbells over to the other waiting
+ * thread (if any).
+ * 
+ * The channel takes ownership of the socket channel, which must be in blocking mode and must not
+ * be used otherwise after the handshake. Closing this channel closes the socket. Reads and writes
+ * are always blocking; {@link #write(ByteBuffer)} returns once all bytes have been written.
+ * 
+ * This requires Java 9 or later; on Java 8, {@link #offer(AFUNIXSocketChannel, int)} and
+ * {@link #accept(AFUNIXSocketChannel)} throw an {@link UnsupportedOperationException}.
+ * 
+ * @author Christian Kohlschütter
+ */
+public final class AFUNIXSharedMemoryChannel implements ByteChannel {
+  private static final int MAGIC = 0x4A585348; // "JXSH"
+  private static final int VERSION = 2;
+
+  private static final int MIN_BUFFER_SIZE = 4096;
+  private static final int MAX_BUFFER_SIZE = 1 << 29;
+
+  /**
+   * The size of the header page. Data begins after the header.
+   */
+  private static final int HEADER_SIZE = 4096;
+
+  private static final int OFFSET_MAGIC = 0;
+  private static final int OFFSET_VERSION = 4;
+  private static final int OFFSET_CAPACITY = 8;
+
+  private static final int OFFSET_RINGS = 128;
+  private static final int RING_HEADER_SIZE = 512;
+
+  // fields written by the producer side of a ring
+  private static final int RING_WRITE_POSITION = 0;
+  private static final int RING_PRODUCER_WAITING = 8;
+  private static final int RING_PRODUCER_CLOSED = 12;
+
+  // fields written by the consumer side of a ring (on a separate cache line)
+  private static final int RING_READ_POSITION = 128;
+  private static final int RING_CONSUMER_WAITING = 136;
+  private static final int RING_CONSUMER_CLOSED = 140;
+
+  private static final int SPIN_COUNT = 64;
+
+  // doorbell bits: data has been written to the ring we read from / space has been freed up in
+  // the ring we write to (from the point of view of the receiving side)
+  private static final int DOORBELL_DATA = 1;
+  private static final int DOORBELL_SPACE = 2;
+
+  private final AFUNIXSocketChannel channel;
+  private final InputStream doorbellIn;
+  private final OutputStream doorbellOut;
+
+  private final MappedByteBuffer buffer;
+  private final ByteBuffer readView;
+  private final ByteBuffer writeView;
+  private final int capacity;
+  private final int mask;
+
+  /**
+   * Header offset of the ring we read from.
+   */
+  private final int inRing;
+
+  /**
+   * Header offset of the ring we write to.
+   */
+  private final int outRing;
+
+  private final int inData;
+  private final int outData;
+
+  private final Object readLock = new Object();
+  private final Object writeLock = new Object();
+  private final Object doorbellLock = new Object();
+  private final Object closeLock = new Object();
+  private final byte[] doorbellBuffer = new byte[64]; // guarded by doorbellReaderActive
+
+  // guarded by doorbellLock
+  private boolean doorbellReaderActive = false;
+  private int pendingDoorbells = 0;
+
+  private volatile boolean peerGone = false;
+  private volatile boolean closed = false;
+
+  private AFUNIXSharedMemoryChannel(AFUNIXSocketChannel channel, MappedByteBuffer buffer,
+      int capacity, boolean offerer) throws IOException {
+    SharedMemoryAccess.checkSupported();
+    this.channel = channel;
+    AFUNIXSocket socket = channel.socket();
+    this.doorbellIn = socket.getInputStream();
+    this.doorbellOut = socket.getOutputStream();
+
+    this.buffer = buffer;
+    this.readView = buffer.duplicate();
+    this.writeView = buffer.duplicate();
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+
+    int ring0 = OFFSET_RINGS;
+    int ring1 = OFFSET_RINGS + RING_HEADER_SIZE;
+    int data0 = HEADER_SIZE;
+    int data1 = HEADER_SIZE + capacity;
+    if (offerer) {
+      this.outRing = ring0;
+      this.outData = data0;
+      this.inRing = ring1;
+      this.inData = data1;
+    } else {
+      this.outRing = ring1;
+      this.outData = data1;
+      this.inRing = ring0;
+      this.inData = data0;
+    }
+  }
+
+  /**
+   * Creates a new shared memory region, offers it to the peer of the given socket channel, and
+   * waits for the peer to accept it (via {@link #accept(AFUNIXSocketChannel)}).
+   * 
+   * @param channel The connected socket channel, in blocking mode.
+   * @param bufferSize The requested size of each ring buffer (rounded up to a power of two).
+   * @return The shared memory channel.
+   * @throws IOException on error.
+   * @throws UnsupportedOperationException if shared memory is not supported in this environment.
+   */
+  public static AFUNIXSharedMemoryChannel offer(AFUNIXSocketChannel channel, int bufferSize)
+      throws IOException {
+    SharedMemoryAccess.checkSupported();
+    checkChannel(channel);
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize");
+    }
+    int capacity = capacityFor(bufferSize);
+
+    FileDescriptor fd = new FileDescriptor();
+    boolean memoryFile = NativeUnixSocket.initMemoryFile(fd, "junixsocket-shm", false);
+    FileChannel fc = null;
+    try {
+      if (memoryFile) {
+        fc = FileDescriptorCast.using(fd).as(FileChannel.class);
+      } else {
+        File f = File.createTempFile("jux", ".shm", sharedMemoryDirectory());
+        @SuppressWarnings("resource")
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        if (!f.delete()) {
+          f.deleteOnExit();
+        }
+        fd = raf.getFD();
+        fc = raf.getChannel();
+      }
+
+      MappedByteBuffer mbb = fc.map(MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * capacity);
+      mbb.order(ByteOrder.nativeOrder());
+      mbb.putInt(OFFSET_MAGIC, MAGIC);
+      mbb.putInt(OFFSET_VERSION, VERSION);
+      mbb.putInt(OFFSET_CAPACITY, capacity);
+
+      AFUNIXSocket socket = channel.socket();
+      channel.setOutboundFileDescriptors(fd);
+      OutputStream out = socket.getOutputStream();
+      out.write(handshake(capacity));
+      out.flush();
+
+      int ack = socket.getInputStream().read();
+      if (ack != 1) {
+        throw new IOException("Shared memory was not accepted by peer");
+      }
+
+      return new AFUNIXSharedMemoryChannel(channel, mbb, capacity, true);
+    } finally {
+      // don't send it along with some later write if we failed early
+      channel.setOutboundFileDescriptors((FileDescriptor[]) null);
+
+      // the mapping stays valid, and the peer has its own copy of the file descriptor
+      if (fc != null) {
+        fc.close();
+      }
+      if (memoryFile) {
+        // closing the casted FileChannel does not close the memory file
+        NativeUnixSocket.close(fd);
+      }
+    }
+  }
+
+  /**
+   * Accepts a shared memory region offered by the peer of the given socket channel (via
+   * {@link #offer(AFUNIXSocketChannel, int)}).
+   * 
+   * @param channel The connected socket channel, in blocking mode.
+   * @return The shared memory channel.
+   * @throws IOException on error.
+   * @throws UnsupportedOperationException if shared memory is not supported in this environment.
+   */
+  public static AFUNIXSharedMemoryChannel accept(AFUNIXSocketChannel channel) throws IOException {
+    SharedMemoryAccess.checkSupported();
+    checkChannel(channel);
+
+    AFUNIXSocket socket = channel.socket();
+    channel.ensureAncillaryReceiveBufferSize(128);
+
+    byte[] hello = new byte[12];
+    InputStream in = socket.getInputStream();
+    for (int off = 0; off < hello.length;) {
+      int read = in.read(hello, off, hello.length - off);
+      if (read == -1) {
+        throw new EOFException("Unexpected end of stream during shared memory handshake");
+      }
+      off += read;
+    }
+
+    FileDescriptor[] fds = channel.getReceivedFileDescriptors();
+    if (fds == null || fds.length != 1) {
+      closeAll(fds);
+      throw new IOException("Expected exactly one file descriptor from peer");
+    }
+
+    ByteBuffer bb = ByteBuffer.wrap(hello);
+    int capacity = bb.getInt(8);
+    if (bb.getInt(0) != MAGIC || bb.getInt(4) != VERSION || capacity < MIN_BUFFER_SIZE
+        || capacity > MAX_BUFFER_SIZE || Integer.bitCount(capacity) != 1) {
+      closeAll(fds);
+      throw new IOException("Unexpected shared memory handshake");
+    }
+
+    MappedByteBuffer mbb;
+    try (FileChannel fc = FileDescriptorCast.using(fds[0]).as(FileChannel.class)) {
+      long size = HEADER_SIZE + 2L * capacity;
+      if (fc.size() < size) {
+        throw new IOException("Shared memory is too small: " + fc.size());
+      }
+      mbb = fc.map(MapMode.READ_WRITE, 0, size);
+    } finally {
+      // the mapping stays valid; closing the casted FileChannel does not close the descriptor
+      closeAll(fds);
+    }
+    mbb.order(ByteOrder.nativeOrder());
+    if (mbb.getInt(OFFSET_MAGIC) != MAGIC || mbb.getInt(OFFSET_CAPACITY) != capacity) {
+      throw new IOException("Unexpected shared memory header");
+    }
+
+    OutputStream out = socket.getOutputStream();
+    out.write(1);
+    out.flush();
+
+    return new AFUNIXSharedMemoryChannel(channel, mbb, capacity, false);
+  }
+
+  private static void checkChannel(AFUNIXSocketChannel channel) throws IOException {
+    Objects.requireNonNull(channel);
+    if (!channel.isConnected()) {
+      throw new ClosedChannelException();
+    }
+    if (!channel.isBlocking()) {
+      throw new IllegalBlockingModeException();
+    }
+  }
+
+  private static int capacityFor(int bufferSize) {
+    if (bufferSize <= MIN_BUFFER_SIZE) {
+      return MIN_BUFFER_SIZE;
+    } else if (bufferSize >= MAX_BUFFER_SIZE) {
+      return MAX_BUFFER_SIZE;
+    } else {
+      return Integer.highestOneBit(bufferSize - 1) << 1;
+    }
+  }
+
+  private static File sharedMemoryDirectory() {
+    File shm = new File("/dev/shm");
+    if (shm.isDirectory() && shm.canWrite()) {
+      return shm;
+    } else {
+      return null;
+    }
+  }
+
+  private static byte[] handshake(int capacity) {
+    ByteBuffer bb = ByteBuffer.allocate(12);
+    bb.putInt(MAGIC);
+    bb.putInt(VERSION);
+    bb.putInt(capacity);
+    return bb.array();
+  }
+
+  private static void closeAll(FileDescriptor[] fds) {
+    if (fds == null) {
+      return;
+    }
+    for (FileDescriptor fd : fds) {
+      try {
+        NativeUnixSocket.close(fd);
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Returns the capacity of each ring buffer, in bytes.
+   * 
+   * @return The buffer size.
+   */
+  public int getBufferSize() {
+    return capacity;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    synchronized (readLock) {
+      ensureOpen();
+      if (!dst.hasRemaining()) {
+        return 0;
+      }
+      while (true) {
+        // check this first, so we never miss data written right before closing
+        boolean done = peerGone || getInt(inRing + RING_PRODUCER_CLOSED) != 0;
+
+        long readPos = SharedMemoryAccess.getLongAcquire(buffer, inRing + RING_READ_POSITION);
+        long writePos = SharedMemoryAccess.getLongAcquire(buffer, inRing + RING_WRITE_POSITION);
+        int available = checkedUsed(writePos, readPos);
+        if (available > 0) {
+          int n = Math.min(available, dst.remaining());
+          copyOut(readPos, dst, n);
+          SharedMemoryAccess.setLongRelease(buffer, inRing + RING_READ_POSITION, readPos + n);
+          notifyPeer(inRing + RING_PRODUCER_WAITING, DOORBELL_SPACE);
+          return n;
+        } else if (done) {
+          return -1;
+        }
+
+        await(inRing + RING_CONSUMER_WAITING, true);
+        ensureOpen();
+      }
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    synchronized (writeLock) {
+      ensureOpen();
+      int written = 0;
+      while (src.hasRemaining()) {
+        if (peerGone || getInt(outRing + RING_CONSUMER_CLOSED) != 0) {
+          throw new IOException("Broken pipe");
+        }
+
+        long writePos = SharedMemoryAccess.getLongAcquire(buffer, outRing + RING_WRITE_POSITION);
+        long readPos = SharedMemoryAccess.getLongAcquire(buffer, outRing + RING_READ_POSITION);
+        int free = capacity - checkedUsed(writePos, readPos);
+        if (free > 0) {
+          int n = Math.min(free, src.remaining());
+          copyIn(writePos, src, n);
+          SharedMemoryAccess.setLongRelease(buffer, outRing + RING_WRITE_POSITION, writePos + n);
+          notifyPeer(outRing + RING_CONSUMER_WAITING, DOORBELL_DATA);
+          written += n;
+        } else {
+          await(outRing + RING_PRODUCER_WAITING, false);
+          ensureOpen();
+        }
+      }
+      return written;
+    }
+  }
+
+  /**
+   * Returns the number of bytes in a ring buffer, making sure that the positions (which are also
+   * written by the peer) are consistent.
+   * 
+   * @param writePos The write position.
+   * @param readPos The read position.
+   * @return The number of bytes that can be read, between 0 and the capacity.
+   * @throws IOException if the positions are inconsistent.
+   */
+  private int checkedUsed(long writePos, long readPos) throws IOException {
+    long used = writePos - readPos;
+    if (used < 0 || used > capacity) {
+      throw new IOException("Inconsistent shared memory state: read position " + readPos
+          + ", write position " + writePos);
+    }
+    return (int) used;
+  }
+
+  private int getInt(int index) {
+    return SharedMemoryAccess.getIntVolatile(buffer, index);
+  }
+
+  private void copyIn(long writePos, ByteBuffer src, int n) {
+    int offset = (int) (writePos & mask);
+    int first = Math.min(n, capacity - offset);
+
+    ByteBuffer s = src.duplicate();
+    s.limit(s.position() + first);
+    writeView.clear();
+    writeView.position(outData + offset);
+    writeView.put(s);
+    if (first < n) {
+      s.limit(s.position() + (n - first));
+      writeView.position(outData);
+      writeView.put(s);
+    }
+    src.position(src.position() + n);
+  }
+
+  private void copyOut(long readPos, ByteBuffer dst, int n) {
+    int offset = (int) (readPos & mask);
+    int first = Math.min(n, capacity - offset);
+
+    readView.limit(inData + offset + first);
+    readView.position(inData + offset);
+    dst.put(readView);
+    if (first < n) {
+      readView.limit(inData + (n - first));
+      readView.position(inData);
+      dst.put(readView);
+    }
+  }
+
+  /**
+   * Rings the doorbell if the peer has announced that it is waiting on the given flag.
+   * 
+   * @param waitingFlag The offset of the peer's "waiting" flag.
+   * @param doorbell The doorbell bit ({@link #DOORBELL_DATA} or {@link #DOORBELL_SPACE}).
+   */
+  private void notifyPeer(int waitingFlag, int doorbell) throws IOException {
+    SharedMemoryAccess.fullFence();
+    if (getInt(waitingFlag) != 0 && SharedMemoryAccess.compareAndSetInt(buffer, waitingFlag, 1,
+        0)) {
+      ringDoorbell(doorbell);
+    }
+  }
+
+  private void ringDoorbell(int doorbell) throws IOException {
+    synchronized (doorbellOut) {
+      doorbellOut.write(doorbell);
+    }
+  }
+
+  private boolean isReady(boolean forData) {
+    if (peerGone || closed) {
+      return true;
+    }
+    if (forData) {
+      return getInt(inRing + RING_PRODUCER_CLOSED) != 0 || SharedMemoryAccess.getLongAcquire(
+          buffer, inRing + RING_WRITE_POSITION) != SharedMemoryAccess.getLongAcquire(buffer,
+              inRing + RING_READ_POSITION);
+    } else {
+      // inconsistent positions count as "ready", so write() gets to report them
+      return getInt(outRing + RING_CONSUMER_CLOSED) != 0 || (SharedMemoryAccess.getLongAcquire(
+          buffer, outRing + RING_WRITE_POSITION) - SharedMemoryAccess.getLongAcquire(buffer,
+              outRing + RING_READ_POSITION)) != capacity;
+    }
+  }
+
+  /**
+   * Waits until there is data to read (or space to write), or the peer has gone away.
+   * 
+   * @param waitingFlag The offset of our "waiting" flag.
+   * @param forData {@code true} if waiting for data, {@code false} if waiting for space.
+   */
+  private void await(int waitingFlag, boolean forData) throws IOException {
+    for (int i = 0; i < SPIN_COUNT; i++) {
+      if (isReady(forData)) {
+        return;
+      }
+      Thread.yield();
+    }
+
+    SharedMemoryAccess.setIntVolatile(buffer, waitingFlag, 1);
+    try {
+      SharedMemoryAccess.fullFence();
+      while (!isReady(forData)) {
+        awaitDoorbell(forData ? DOORBELL_DATA : DOORBELL_SPACE);
+        SharedMemoryAccess.setIntVolatile(buffer, waitingFlag, 1);
+        SharedMemoryAccess.fullFence();
+      }
+    } finally {
+      SharedMemoryAccess.setIntVolatile(buffer, waitingFlag, 0);
+    }
+  }
+
+  /**
+   * Waits until the peer rings the doorbell for the given direction, or has gone away.
+   * 
+   * Only one thread reads from the socket at a time (without a timeout); doorbells for the other
+   * direction are handed over to the thread waiting for them.
+   * 
+   * @param doorbell The doorbell bit ({@link #DOORBELL_DATA} or {@link #DOORBELL_SPACE}).
+   */
+  private void awaitDoorbell(int doorbell) throws IOException {
+    synchronized (doorbellLock) {
+      while (doorbellReaderActive) {
+        if (takeDoorbell(doorbell)) {
+          return;
+        }
+        try {
+          doorbellLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if (takeDoorbell(doorbell)) {
+        return;
+      }
+      doorbellReaderActive = true;
+    }
+
+    try {
+      while (true) {
+        int read;
+        try {
+          read = doorbellIn.read(doorbellBuffer);
+        } catch (IOException e) {
+          if (closed) {
+            throw (ClosedChannelException) new ClosedChannelException().initCause(e);
+          }
+          throw e;
+        }
+
+        synchronized (doorbellLock) {
+          if (read == -1) {
+            peerGone = true;
+          }
+          for (int i = 0; i < read; i++) {
+            pendingDoorbells |= doorbellBuffer[i];
+          }
+          doorbellLock.notifyAll();
+
+          if (takeDoorbell(doorbell)) {
+            return;
+          }
+        }
+      }
+    } finally {
+      synchronized (doorbellLock) {
+        doorbellReaderActive = false;
+        // let another waiting thread take over reading from the socket
+        doorbellLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Consumes a pending doorbell for the given direction. Must be called with
+   * {@link #doorbellLock} held.
+   * 
+   * @param doorbell The doorbell bit.
+   * @return {@code true} if the waiting thread should re-check the ring buffer.
+   */
+  private boolean takeDoorbell(int doorbell) {
+    if ((pendingDoorbells & doorbell) != 0 || peerGone || closed) {
+      pendingDoorbells &= ~doorbell;
+      return true;
+    }
+    return false;
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (closeLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        SharedMemoryAccess.setIntVolatile(buffer, outRing + RING_PRODUCER_CLOSED, 1);
+        SharedMemoryAccess.setIntVolatile(buffer, inRing + RING_CONSUMER_CLOSED, 1);
+        ringDoorbell(DOORBELL_DATA | DOORBELL_SPACE);
+      } catch (IOException e) {
+        // ignore; the peer may have already gone away
+      } finally {
+        channel.close();
+        synchronized (doorbellLock) {
+          doorbellLock.notifyAll();
+        }
+      }
+    }
+  }
+}
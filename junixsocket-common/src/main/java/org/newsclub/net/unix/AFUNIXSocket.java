@@ -19,10 +19,18 @@ package org.newsclub.net.unix;
 
 import java.io.Closeable;
 import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
@@ -44,6 +52,97 @@ public final class AFUNIXSocket extends Socket implements AFUNIXSomeSocket, AFUN
   private final Closeables closeables = new Closeables();
   private final AtomicBoolean created = new AtomicBoolean(false);
   private final AFUNIXSocketChannel channel = new AFUNIXSocketChannel(this);
+  private volatile FlushingOutputStream outputStream = null;
+  private volatile TransferringInputStream inputStream = null;
+
+  /**
+   * Newer versions of {@link Socket} wrap our {@link OutputStream} in a way that swallows
+   * {@link OutputStream#flush()}, which we need for write coalescing.
+   */
+  private final class FlushingOutputStream extends FilterOutputStream {
+    private FlushingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    private boolean wraps(OutputStream os) {
+      return out == os; // NOPMD
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+      getAFImpl().flushWriteCoalescing();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * Newer versions of {@link Socket} wrap our {@link InputStream} in a way that hides our
+   * {@code transferTo} implementation; older ones don't know about {@code transferTo} at all.
+   */
+  private final class TransferringInputStream extends FilterInputStream {
+    private TransferringInputStream(InputStream in) {
+      super(in);
+    }
+
+    private boolean wraps(InputStream is) {
+      return in == is; // NOPMD
+    }
+
+    /**
+     * Reads all remaining bytes from this stream and writes them to the given stream.
+     * 
+     * If the target is a {@link FileOutputStream}, the bytes are moved with {@code splice} where
+     * supported (Linux), without copying them through user space.
+     * 
+     * The socket's {@link Socket#getSoTimeout() SO_TIMEOUT} is honored; if it expires, the
+     * {@link SocketTimeoutException}'s {@code bytesTransferred} field contains the number of bytes
+     * that have been transferred so far.
+     * 
+     * @param out The target stream.
+     * @return The number of bytes transferred.
+     * @throws IOException on error.
+     */
+    // NOTE: no @Override; InputStream#transferTo was only added in Java 9
+    public long transferTo(OutputStream out) throws IOException {
+      Objects.requireNonNull(out, "out");
+      long transferred = getAFImpl().transferReadAheadTo(out);
+      try {
+        if (out instanceof FileOutputStream && getAncillaryReceiveBufferSize() == 0) {
+          FileChannel fc = ((FileOutputStream) out).getChannel();
+          ChannelTransfer transfer = channel.transfer();
+          int timeout = getSoTimeout();
+          long n;
+          while ((n = transfer.transferTo(Long.MAX_VALUE, fc, false, timeout)) >= 0) {
+            transferred += n;
+          }
+          if (n == -1) {
+            return transferred;
+          }
+        }
+
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = read(buf)) >= 0) {
+          out.write(buf, 0, n);
+          transferred += n;
+        }
+        return transferred;
+      } catch (SocketTimeoutException e) {
+        e.bytesTransferred = (int) Math.min(Integer.MAX_VALUE, transferred);
+        throw e;
+      }
+    }
+  }
 
   private AFUNIXSocket(final AFUNIXSocketImpl impl, AFUNIXSocketFactory factory)
       throws SocketException {
@@ -353,6 +452,94 @@ public final class AFUNIXSocket extends Socket implements AFUNIXSomeSocket, AFUN
     closeables.close(superException);
   }
 
+  @Override
+  public InputStream getInputStream() throws IOException {
+    InputStream in = super.getInputStream();
+    TransferringInputStream is = inputStream;
+    if (is == null || !is.wraps(in)) {
+      is = new TransferringInputStream(in);
+      inputStream = is;
+    }
+    return is;
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    OutputStream out = super.getOutputStream();
+    FlushingOutputStream os = outputStream;
+    if (os == null || !os.wraps(out)) {
+      os = new FlushingOutputStream(out);
+      outputStream = os;
+    }
+    return os;
+  }
+
+  /**
+   * Returns the size of the write-coalescing buffer of this socket's {@link java.io.OutputStream},
+   * or {@code 0} if write coalescing is disabled (the default).
+   * 
+   * @return The write-coalescing buffer size, in bytes.
+   * @see #setWriteCoalescingBufferSize(int)
+   */
+  public int getWriteCoalescingBufferSize() {
+    return getAFImpl().getWriteCoalescingBufferSize();
+  }
+
+  /**
+   * Enables (or, with {@code 0}, disables) write coalescing ("corking") for this socket's
+   * {@link java.io.OutputStream}.
+   * 
+   * With write coalescing, small writes are gathered in an internal buffer and sent once the
+   * buffer is full, upon {@link java.io.OutputStream#flush()}, or when the stream is closed. A
+   * write that doesn't fit is sent along with the buffered data in a single (vectored) call.
+   * 
+   * Buffered data is also sent before any write through {@link #getChannel()}, before outbound
+   * file descriptors are set, and upon {@link #shutdownOutput()}. It is <em>not</em> sent when the
+   * socket itself is closed without flushing the stream first.
+   * 
+   * @param size The buffer size, in bytes, or {@code 0} to disable (which sends any buffered
+   *          data).
+   * @throws IOException if buffered data could not be sent.
+   */
+  public void setWriteCoalescingBufferSize(int size) throws IOException {
+    getAFImpl().setWriteCoalescingBufferSize(size);
+  }
+
+  /**
+   * Returns the size of the read-ahead buffer of this socket's {@link java.io.InputStream}, or
+   * {@code 0} if read-ahead is disabled (the default).
+   * 
+   * @return The read-ahead buffer size, in bytes.
+   * @see #setReadAheadBufferSize(int)
+   */
+  public int getReadAheadBufferSize() {
+    return getAFImpl().getReadAheadBufferSize();
+  }
+
+  /**
+   * Enables (or, with {@code 0}, disables) read-ahead buffering for this socket's
+   * {@link java.io.InputStream}.
+   * 
+   * With read-ahead, small reads (such as single bytes read via {@link java.io.DataInputStream})
+   * are served from an internal buffer, which is filled with as much data as is available, instead
+   * of going to the operating system for every call.
+   * 
+   * Reads are not buffered while an ancillary receive buffer is set (see
+   * {@link #setAncillaryReceiveBufferSize(int)}), so received file descriptors are still reported
+   * along with the data they were sent with. However, file descriptors sent along with data that
+   * has already been read ahead are discarded, even if an ancillary receive buffer is set
+   * afterwards. If file descriptors are to be expected, set the ancillary receive buffer size
+   * first.
+   * 
+   * Data that has been read ahead is only visible through the {@link java.io.InputStream}, not
+   * through {@link #getChannel()}.
+   * 
+   * @param size The buffer size, in bytes, or {@code 0} to disable.
+   */
+  public void setReadAheadBufferSize(int size) {
+    getAFImpl().setReadAheadBufferSize(size);
+  }
+
   /**
    * Registers a {@link Closeable} that should be closed when this socket is closed.
    * 
@@ -48,6 +48,12 @@ public final class AFUNIXSocketAddress extends InetSocketAddress {
   private static final long serialVersionUID = 1L;
 
   private static final int SOCKADDR_UN_LENGTH = NativeUnixSocket.sockAddrUnLength();
+
+  /**
+   * The offset of {@code sun_path} in {@code struct sockaddr_un} (after {@code sun_family}, or
+   * {@code sun_len} and {@code sun_family}).
+   */
+  private static final int SUN_PATH_OFFSET = 2;
   private static final Map<ByteBuffer, AFUNIXSocketAddress> ADDRESS_CACHE = new HashMap<>();
   private static final Charset ADDRESS_CHARSET = Charset.defaultCharset();
 
@@ -62,6 +68,19 @@ public final class AFUNIXSocketAddress extends InetSocketAddress {
     }
   };
 
+  /**
+   * Room for the sender addresses of up to {@link NativeUnixSocket#MAX_IOVECS} datagrams received
+   * at once.
+   */
+  static final ThreadLocal<ByteBuffer> SOCKETADDRESS_BATCH_BUFFER_TL =
+      new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+          return ByteBuffer.allocateDirect(SOCKADDR_UN_LENGTH * NativeUnixSocket.MAX_IOVECS);
+        }
+      };
+
   /**
    * Just a marker for "don't actually bind" (checked with "=="). Used in combination with a
    * superclass' bind method, which should trigger "setBound()", etc.
@@ -234,6 +253,7 @@ public final class AFUNIXSocketAddress extends InetSocketAddress {
 
         ByteBuffer key = newSockAddrUnKeyBuffer();
         key.put(direct);
+        key.flip();
         ADDRESS_CACHE.put(key, instance);
       }
     }
@@ -355,19 +375,43 @@ public final class AFUNIXSocketAddress extends InetSocketAddress {
     NativeUnixSocket.bytesToSockAddrUn(socketAddressBuffer, addr);
   }
 
+  static void unwrapAddressDirectBufferInternal(ByteBuffer socketAddressBatchBuffer, int index,
+      SocketAddress address) throws SocketException {
+    unwrapAddressDirectBufferInternal(slot(socketAddressBatchBuffer, index), address);
+  }
+
+  private static ByteBuffer slot(ByteBuffer socketAddressBatchBuffer, int index) {
+    ByteBuffer slot = socketAddressBatchBuffer.duplicate();
+    slot.limit((index + 1) * SOCKADDR_UN_LENGTH);
+    slot.position(index * SOCKADDR_UN_LENGTH);
+    return slot.slice();
+  }
+
+  static AFUNIXSocketAddress ofInternal(ByteBuffer socketAddressBatchBuffer, int index)
+      throws SocketException {
+    return ofInternal(slot(socketAddressBatchBuffer, index));
+  }
+
   static AFUNIXSocketAddress ofInternal(ByteBuffer socketAddressBuffer) throws SocketException {
     synchronized (AFUNIXSocketAddress.class) {
-      AFUNIXSocketAddress address = ADDRESS_CACHE.get(socketAddressBuffer);
-      if (address != null) {
-        return address;
-      } else {
-        byte[] sockAddrUnToBytes = NativeUnixSocket.sockAddrUnToBytes(socketAddressBuffer);
-        if (sockAddrUnToBytes == null) {
-          return null;
-        } else {
-          return of(sockAddrUnToBytes);
+      // The cache keys cover the entire sockaddr_un (native code zeroes the unused part), so look
+      // up all of it, regardless of the buffer's position.
+      // Only filesystem addresses are looked up: a sender address without a path (all zeros) is
+      // not an address at all, but would match the key of an all-zero abstract address.
+      socketAddressBuffer.limit(SOCKADDR_UN_LENGTH);
+      socketAddressBuffer.position(0);
+      if (socketAddressBuffer.get(SUN_PATH_OFFSET) != 0) {
+        AFUNIXSocketAddress address = ADDRESS_CACHE.get(socketAddressBuffer);
+        if (address != null) {
+          return address;
         }
       }
+      byte[] sockAddrUnToBytes = NativeUnixSocket.sockAddrUnToBytes(socketAddressBuffer);
+      if (sockAddrUnToBytes == null) {
+        return null;
+      } else {
+        return of(sockAddrUnToBytes);
+      }
     }
   }
 
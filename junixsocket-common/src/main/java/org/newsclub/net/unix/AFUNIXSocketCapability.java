@@ -50,6 +50,12 @@ public enum AFUNIXSocketCapability {
    */
   CAPABILITY_NATIVE_SOCKETPAIR(5),
 
+  /**
+   * Anonymous memory-backed files can be created, and sealed, via {@link AFUNIXMemoryFile}
+   * ({@code memfd_create}, Linux only).
+   */
+  CAPABILITY_MEMORY_FILES(6),
+
   ; // end of list
 
   private final int bitmask;
@@ -17,20 +17,43 @@
  */
 package org.newsclub.net.unix;
 
+import java.io.Closeable;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketOption;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class AFUNIXSocketChannel extends SocketChannel implements AFUNIXSomeSocket,
     AFUNIXSocketExtensions {
+  /**
+   * Runs each task in a new daemon thread (used by {@link #relay(ByteChannel)}).
+   */
+  private static final Executor RELAY_THREAD_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      Thread t = new Thread(command, "AFUNIXSocketChannel relay");
+      t.setDaemon(true);
+      t.start();
+    }
+  };
+
   private final AFUNIXSocket afSocket;
   private final AtomicBoolean connectPending = new AtomicBoolean(false);
+  private ChannelTransfer transfer;
 
   AFUNIXSocketChannel(AFUNIXSocket socket) {
     super(AFUNIXSelectorProvider.getInstance());
@@ -139,10 +162,12 @@ public final class AFUNIXSocketChannel extends SocketChannel implements AFUNIXSo
       return false;
     }
 
-    boolean connected = NativeUnixSocket.finishConnect(afSocket.getFileDescriptor())
-        || isConnected();
+    boolean connected = NativeUnixSocket.finishConnect(afSocket.getFileDescriptor());
     if (connected) {
+      afSocket.getAFImpl().getCore().setState(AFUNIXSocketCore.STATE_CONNECTED);
       connectPending.set(false);
+    } else {
+      connected = isConnected();
     }
     return connected;
   }
@@ -162,8 +187,7 @@ public final class AFUNIXSocketChannel extends SocketChannel implements AFUNIXSo
     if (length == 0) {
       return 0;
     }
-    // FIXME support more than one buffer for scatter-gather access
-    return read(dsts[offset]);
+    return afSocket.getAFImpl().read(dsts, offset, length);
   }
 
   @Override
@@ -171,8 +195,7 @@ public final class AFUNIXSocketChannel extends SocketChannel implements AFUNIXSo
     if (length == 0) {
       return 0;
     }
-    // FIXME support more than one buffer for scatter-gather access
-    return write(srcs[offset]);
+    return afSocket.getAFImpl().write(srcs, offset, length);
   }
 
   @Override
@@ -180,6 +203,198 @@ public final class AFUNIXSocketChannel extends SocketChannel implements AFUNIXSo
     return afSocket.getAFImpl().write(src);
   }
 
+  /**
+   * Transfers bytes from the given file to this channel, without copying them through user space
+   * where possible ({@code sendfile} on Linux).
+   * 
+   * This is the counterpart of {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+   * which can only use a zero-copy path for the JDK's own channels. Where zero-copy is not
+   * available (or if outbound file descriptors are pending, which need to be sent along with
+   * regular data), this falls back to {@link FileChannel#transferTo(long, long,
+   * WritableByteChannel)}.
+   * 
+   * As with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, fewer bytes than
+   * requested may be transferred, and the file channel's position is not modified. Transfers
+   * larger than 2 GiB are supported.
+   * 
+   * @param src The file to read from.
+   * @param position The position in the file at which to start reading.
+   * @param count The maximum number of bytes to transfer.
+   * @return The number of bytes transferred, which may be 0 if this channel is in non-blocking
+   *         mode and the socket's send buffer is full.
+   * @throws IOException on error.
+   */
+  public long transferFrom(FileChannel src, long position, long count) throws IOException {
+    if (position < 0 || count < 0) {
+      throw new IllegalArgumentException();
+    }
+    long size = src.size();
+    if (position >= size) {
+      return 0;
+    }
+    count = Math.min(count, size - position);
+    if (count == 0) {
+      return 0;
+    }
+
+    long transferred = afSocket.getAFImpl().transferFrom(src, position, count);
+    if (transferred >= 0) {
+      return transferred;
+    }
+    return src.transferTo(position, count, this);
+  }
+
+  /**
+   * Transfers bytes from this channel to the given target channel.
+   * 
+   * On Linux, where the target has a file descriptor (e.g., another {@link AFUNIXSocketChannel},
+   * a JDK {@link SocketChannel} or {@link FileChannel}), the data is moved with {@code splice}
+   * through an internal pipe, without copying it through user space. Otherwise, the data is copied
+   * through a buffer.
+   * 
+   * If this channel is in blocking mode, this method blocks until at least some bytes could be
+   * read, just like {@link #read(ByteBuffer)}. If the target is in non-blocking mode, it may accept
+   * fewer bytes than have been read from this channel; these bytes are kept internally and are
+   * written first upon the next call to this method.
+   * 
+   * @param count The maximum number of bytes to transfer.
+   * @param target The target channel.
+   * @return The number of bytes written to the target (possibly 0 in non-blocking mode), or -1 if
+   *         this channel has reached end-of-stream.
+   * @throws IOException on error.
+   */
+  public long transferTo(long count, WritableByteChannel target) throws IOException {
+    return transfer().transferTo(count, target);
+  }
+
+  /**
+   * Relays data between this channel and the given other channel, in both directions, until both
+   * have reached end-of-stream.
+   * 
+   * The direction from the other channel to this one is handled by a new daemon thread, which is
+   * started for each call and terminates when the relay is done. Use
+   * {@link #relay(ByteChannel, Executor)} to control which thread is used.
+   * 
+   * @param other The other channel.
+   * @throws IOException on error.
+   * @see #relay(ByteChannel, Executor)
+   */
+  public void relay(ByteChannel other) throws IOException {
+    relay(other, RELAY_THREAD_EXECUTOR);
+  }
+
+  /**
+   * Relays data between this channel and the given other channel, in both directions, until both
+   * have reached end-of-stream.
+   * 
+   * Data is transferred as in {@link #transferTo(long, WritableByteChannel)}. When one side reaches
+   * end-of-stream, the output of the other side is shut down (if it is a {@link SocketChannel}).
+   * Both channels must be in blocking mode. The direction from the other channel to this one is
+   * handled by a task that is run on the given executor, the other direction by the calling thread.
+   * The executor must run that task concurrently (i.e., not in the calling thread, and not queued
+   * behind other tasks that wait for this relay).
+   * 
+   * If an error occurs in either direction, both channels are closed, and the exception is
+   * rethrown. If both directions fail, the exception of the reverse direction is added as a
+   * suppressed exception.
+   * 
+   * @param other The other channel.
+   * @param executor The executor that runs the reverse direction.
+   * @throws IOException on error.
+   */
+  public void relay(final ByteChannel other, Executor executor) throws IOException {
+    Objects.requireNonNull(executor, "executor");
+    if (!isBlocking() || !ChannelTransfer.isBlocking(other)) {
+      throw new IllegalBlockingModeException();
+    }
+    final ChannelTransfer reverse = (other instanceof AFUNIXSocketChannel)
+        ? ((AFUNIXSocketChannel) other).transfer() : new ChannelTransfer(other);
+    final AtomicReference<Throwable> reverseException = new AtomicReference<>();
+    final CountDownLatch reverseDone = new CountDownLatch(1);
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            relay(reverse, AFUNIXSocketChannel.this);
+          } catch (IOException | RuntimeException e) {
+            reverseException.set(e);
+            closeQuietly(AFUNIXSocketChannel.this, other);
+          } finally {
+            if (!(other instanceof AFUNIXSocketChannel)) {
+              closeQuietly(reverse);
+            }
+            reverseDone.countDown();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      // e.g., RejectedExecutionException
+      if (!(other instanceof AFUNIXSocketChannel)) {
+        closeQuietly(reverse);
+      }
+      throw e;
+    }
+
+    try {
+      relay(transfer(), other);
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(this, other);
+      awaitRelay(reverseDone, other);
+      Throwable t = reverseException.get();
+      if (t != null) {
+        e.addSuppressed(t);
+      }
+      throw e;
+    }
+    awaitRelay(reverseDone, other);
+
+    Throwable t = reverseException.get();
+    if (t instanceof IOException) {
+      throw (IOException) t;
+    } else if (t != null) {
+      throw (RuntimeException) t;
+    }
+  }
+
+  private void awaitRelay(CountDownLatch reverseDone, ByteChannel other)
+      throws InterruptedIOException {
+    try {
+      reverseDone.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closeQuietly(this, other);
+      throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+    }
+  }
+
+  private static void relay(ChannelTransfer transfer, WritableByteChannel to) throws IOException {
+    while (transfer.transferTo(Long.MAX_VALUE, to) >= 0) {
+      // keep going until end-of-stream
+    }
+    if (to instanceof SocketChannel) {
+      ((SocketChannel) to).shutdownOutput();
+    }
+  }
+
+  private static void closeQuietly(Closeable... closeables) {
+    for (Closeable c : closeables) {
+      try {
+        c.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  synchronized ChannelTransfer transfer() throws IOException {
+    if (transfer == null) {
+      transfer = new ChannelTransfer(this);
+    }
+    return transfer;
+  }
+
   @Override
   public AFUNIXSocketAddress getLocalAddress() throws IOException {
     return afSocket.getLocalSocketAddress();
@@ -187,7 +402,18 @@ public final class AFUNIXSocketChannel extends SocketChannel implements AFUNIXSo
 
   @Override
   protected void implCloseSelectableChannel() throws IOException {
-    afSocket.close();
+    // close the socket first, which unblocks any transfer that waits for it
+    try {
+      afSocket.close();
+    } finally {
+      ChannelTransfer t;
+      synchronized (this) {
+        t = transfer;
+      }
+      if (t != null) {
+        t.close();
+      }
+    }
   }
 
   @Override
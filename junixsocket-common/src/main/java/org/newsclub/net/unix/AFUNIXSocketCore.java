@@ -20,6 +20,7 @@ package org.newsclub.net.unix;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -30,6 +31,35 @@ import java.util.concurrent.atomic.AtomicLong;
 class AFUNIXSocketCore extends AFUNIXCore {
   private static final int SHUT_RD_WR = 2;
 
+  /**
+   * If set to {@code true}, the connection state is always verified via a native call, as opposed
+   * to relying on the state we keep track of ourselves.
+   */
+  private static final String PROP_VERIFY_SOCKET_STATUS =
+      "org.newsclub.net.unix.socket.verifyStatus";
+  private static final boolean VERIFY_SOCKET_STATUS = Boolean.valueOf(System.getProperty(
+      PROP_VERIFY_SOCKET_STATUS, "false"));
+
+  /**
+   * The connection state is not known yet (e.g., for a socket created from a file descriptor).
+   */
+  static final int STATE_UNKNOWN = 0;
+
+  /**
+   * A connection attempt is pending (e.g., a non-blocking connect).
+   */
+  static final int STATE_CONNECTING = 1;
+
+  static final int STATE_UNBOUND = 2;
+  static final int STATE_BOUND = 3;
+  static final int STATE_CONNECTED = 4;
+
+  /**
+   * The connection state, updated upon bind/connect/accept/disconnect, so we don't have to ask the
+   * operating system every time.
+   */
+  private final AtomicInteger state;
+
   /**
    * We keep track of the server's inode to detect when another server connects to our address.
    */
@@ -40,6 +70,7 @@ class AFUNIXSocketCore extends AFUNIXCore {
   protected AFUNIXSocketCore(Object observed, FileDescriptor fd,
       AncillaryDataSupport ancillaryDataSupport) {
     super(observed, fd, ancillaryDataSupport);
+    this.state = new AtomicInteger(fd == null ? STATE_UNBOUND : STATE_UNKNOWN);
   }
 
   @Override
@@ -63,18 +94,50 @@ class AFUNIXSocketCore extends AFUNIXCore {
     }
   }
 
+  int receive(ByteBuffer[] dsts, int offset, int length, AFUNIXSocketAddress[] senders)
+      throws IOException {
+    ByteBuffer socketAddressBuffer = senders == null ? null
+        : AFUNIXSocketAddress.SOCKETADDRESS_BATCH_BUFFER_TL.get();
+    int received = receiveMultiple(dsts, offset, length, socketAddressBuffer, 0);
+    if (senders != null) {
+      for (int i = 0; i < received; i++) {
+        senders[offset + i] = AFUNIXSocketAddress.ofInternal(socketAddressBuffer, i);
+      }
+    }
+    return received;
+  }
+
+  void setState(int newState) {
+    state.set(newState);
+  }
+
+  int getState() {
+    return state.get();
+  }
+
   boolean isConnected(boolean boundOk) {
+    int s = state.get();
+    if (!VERIFY_SOCKET_STATUS && s >= STATE_UNBOUND) {
+      return isConnected(s, boundOk);
+    } else if (s == STATE_CONNECTED) {
+      return true;
+    }
+
     try {
       if (fd.valid()) {
         switch (NativeUnixSocket.socketStatus(fd)) {
           case NativeUnixSocket.SOCKETSTATUS_CONNECTED:
+            state.compareAndSet(s, STATE_CONNECTED);
             return true;
           case NativeUnixSocket.SOCKETSTATUS_BOUND:
-            if (boundOk) {
-              return true;
+            if (s == STATE_UNKNOWN) {
+              state.compareAndSet(s, STATE_BOUND);
             }
-            break;
+            return boundOk;
           default:
+            if (s == STATE_UNKNOWN) {
+              state.compareAndSet(s, STATE_UNBOUND);
+            }
         }
       }
     } catch (IOException e) {
@@ -82,4 +145,15 @@ class AFUNIXSocketCore extends AFUNIXCore {
     }
     return false;
   }
+
+  private static boolean isConnected(int s, boolean boundOk) {
+    switch (s) {
+      case STATE_CONNECTED:
+        return true;
+      case STATE_BOUND:
+        return boundOk;
+      default:
+        return false;
+    }
+  }
 }
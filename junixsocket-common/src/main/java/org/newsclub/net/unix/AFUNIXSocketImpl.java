@@ -28,8 +28,11 @@ import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketImpl;
 import java.net.SocketOptions;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -46,9 +49,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
   private final AFUNIXSocketStreamCore core;
   final AncillaryDataSupport ancillaryDataSupport = new AncillaryDataSupport();
 
-  private final AtomicBoolean bound = new AtomicBoolean(false);
   private Boolean createType = null;
-  private final AtomicBoolean connected = new AtomicBoolean(false);
 
   private volatile boolean closedInputStream = false;
   private volatile boolean closedOutputStream = false;
@@ -147,31 +148,11 @@ class AFUNIXSocketImpl extends SocketImplShim {
   }
 
   boolean isConnected() {
-    if (connected.get()) {
-      return true;
-    }
-    if (isClosed()) {
-      return false;
-    }
-    if (core.isConnected(false)) {
-      connected.set(true);
-      return true;
-    }
-    return false;
+    return core.isConnected(false);
   }
 
   boolean isBound() {
-    if (bound.get()) {
-      return true;
-    }
-    if (isClosed()) {
-      return false;
-    }
-    if (core.isConnected(true)) {
-      bound.set(true);
-      return true;
-    }
-    return false;
+    return core.isConnected(true);
   }
 
   AFUNIXSocketCore getCore() {
@@ -200,8 +181,15 @@ class AFUNIXSocketImpl extends SocketImplShim {
     final AFUNIXSocketImpl si = (AFUNIXSocketImpl) socket;
     try {
       core.incPendingAccepts();
-      if (!NativeUnixSocket.accept(socketAddress.getBytes(), fdesc, si.fd, core.inode.get(),
-          socketTimeout.get())) {
+      if (core.configureNonBlockingIfVirtualThread()) {
+        int timeout = socketTimeout.get();
+        long start = System.nanoTime();
+        while (!NativeUnixSocket.accept(socketAddress.getBytes(), fdesc, si.fd, core.inode.get(),
+            0)) {
+          core.awaitReady(SelectionKey.OP_ACCEPT, timeout, start);
+        }
+      } else if (!NativeUnixSocket.accept(socketAddress.getBytes(), fdesc, si.fd, core.inode
+          .get(), socketTimeout.get())) {
         return false;
       }
 
@@ -222,7 +210,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
       core.decPendingAccepts();
     }
     si.setSocketAddress(socketAddress);
-    si.connected.set(true);
+    si.core.setState(AFUNIXSocketCore.STATE_CONNECTED);
 
     return true;
   }
@@ -255,7 +243,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
       throw new SocketException("Cannot bind to this type of address: " + addr.getClass());
     }
 
-    bound.set(true);
+    core.setState(AFUNIXSocketCore.STATE_BOUND);
 
     if (addr == AFUNIXSocketAddress.INTERNAL_DUMMY_BIND) { // NOPMD
       core.inode.set(0);
@@ -308,7 +296,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
       throw new SocketException("Cannot bind to this type of address: " + addr.getClass());
     }
     if (addr == AFUNIXSocketAddress.INTERNAL_DUMMY_CONNECT) { // NOPMD
-      this.connected.set(true);
+      core.setState(AFUNIXSocketCore.STATE_CONNECTED);
       return true;
     } else if (addr == AFUNIXSocketAddress.INTERNAL_DUMMY_CONNECT) { // NOPMD)
       return false;
@@ -317,7 +305,9 @@ class AFUNIXSocketImpl extends SocketImplShim {
     boolean success = NativeUnixSocket.connect(socketAddress.getBytes(), fd, -1);
     if (success) {
       setSocketAddress(socketAddress);
-      this.connected.set(true);
+      core.setState(AFUNIXSocketCore.STATE_CONNECTED);
+    } else {
+      core.setState(AFUNIXSocketCore.STATE_CONNECTING);
     }
     core.validFdOrException();
     return success;
@@ -381,10 +371,32 @@ class AFUNIXSocketImpl extends SocketImplShim {
     throw new UnsupportedOperationException();
   }
 
+  private static final int READ_AHEAD_SKIPPED = -2;
+
   private final class AFUNIXInputStream extends InputStream {
     private volatile boolean streamClosed = false;
     private boolean eofReached = false;
 
+    /**
+     * Serializes reads that go through the read-ahead buffer (and the single-byte buffer), also
+     * while blocked in native code. We don't synchronize on "this", so a blocking read does not
+     * prevent {@link #close()}.
+     */
+    private final Object readLock = new Object();
+
+    /**
+     * Guards the read-ahead buffer's position and limit; never held while blocking, so
+     * {@link #available()} and {@link #setReadAheadBufferSize(int)} return right away.
+     */
+    private final Object readAheadLock = new Object();
+    private volatile int readAheadBufferSize = 0;
+    private volatile byte[] readAheadBuffer = null;
+    private int readAheadPos = 0;
+    private int readAheadLimit = 0;
+
+    // guarded by readLock
+    private final byte[] singleByte = new byte[1];
+
     @Override
     public int read(byte[] buf, int off, int len) throws IOException {
       if (streamClosed) {
@@ -397,7 +409,141 @@ class AFUNIXSocketImpl extends SocketImplShim {
         throw new IndexOutOfBoundsException();
       }
 
-      return NativeUnixSocket.read(fdesc, buf, off, len, ancillaryDataSupport, socketTimeout.get());
+      if (readAheadBufferSize > 0 || readAheadBuffer != null) {
+        synchronized (readLock) {
+          int count = readBuffered(buf, off, len);
+          if (count > 0) {
+            return count;
+          }
+          count = fillReadAheadBuffer(fdesc, len);
+          if (count == READ_AHEAD_SKIPPED) {
+            return readDirect(fdesc, buf, off, len);
+          } else if (count <= 0) {
+            return count;
+          }
+          return readBuffered(buf, off, len);
+        }
+      }
+
+      return readDirect(fdesc, buf, off, len);
+    }
+
+    private int readDirect(FileDescriptor fdesc, byte[] buf, int off, int len)
+        throws IOException {
+      ByteBuffer directBuffer = stagingBuffer(len);
+      if (!core.configureNonBlockingIfVirtualThread()) {
+        return NativeUnixSocket.read(fdesc, buf, off, len, directBuffer, 0, ancillaryDataSupport,
+            socketTimeout.get());
+      }
+
+      int timeout = socketTimeout.get();
+      long start = System.nanoTime();
+      int count;
+      while ((count = NativeUnixSocket.read(fdesc, buf, off, len, directBuffer,
+          NativeUnixSocket.OPT_NON_BLOCKING, ancillaryDataSupport, 0)) == 0) {
+        core.awaitReady(SelectionKey.OP_READ, timeout, start);
+      }
+      return count;
+    }
+
+    /**
+     * Copies bytes from the read-ahead buffer, if any.
+     *
+     * @return The number of bytes copied, or {@code 0} if the buffer is empty.
+     */
+    private int readBuffered(byte[] buf, int off, int len) {
+      synchronized (readAheadLock) {
+        int count = Math.min(len, readAheadLimit - readAheadPos);
+        if (count > 0) {
+          System.arraycopy(readAheadBuffer, readAheadPos, buf, off, count);
+          readAheadPos += count;
+        }
+        return count;
+      }
+    }
+
+    /**
+     * Tries to fill the (empty) read-ahead buffer with as much data as is available. Must be called
+     * with {@link #readLock} held.
+     *
+     * We don't read ahead if the request is at least as large as the buffer, or if we may receive
+     * ancillary data: received file descriptors must show up along with the bytes they were sent
+     * with, not with some earlier read.
+     *
+     * @return The number of bytes now buffered, the result of the underlying read if that was
+     *         not positive (EOF, or no data on a non-blocking socket), or
+     *         {@link #READ_AHEAD_SKIPPED} if the caller should read directly.
+     */
+    private int fillReadAheadBuffer(FileDescriptor fdesc, int len) throws IOException {
+      int size = readAheadBufferSize;
+      if (len >= size || ancillaryDataSupport.getAncillaryReceiveBufferSize() > 0) {
+        if (size == 0) {
+          synchronized (readAheadLock) {
+            if (readAheadPos == readAheadLimit) {
+              readAheadBuffer = null;
+            }
+          }
+        }
+        return READ_AHEAD_SKIPPED;
+      }
+      byte[] buf = readAheadBuffer;
+      if (buf == null || buf.length != size) {
+        buf = new byte[size];
+      }
+
+      // the buffer is empty, and only we (holding readLock) may fill it
+      int count = readDirect(fdesc, buf, 0, size);
+      synchronized (readAheadLock) {
+        readAheadBuffer = buf;
+        readAheadPos = 0;
+        readAheadLimit = Math.max(0, count);
+      }
+      return count;
+    }
+
+    /**
+     * Writes the bytes currently held in the read-ahead buffer, if any, to the given stream.
+     *
+     * @return The number of bytes written.
+     */
+    private int transferBuffered(OutputStream out) throws IOException {
+      synchronized (readLock) {
+        byte[] buf;
+        int pos;
+        int count;
+        synchronized (readAheadLock) {
+          buf = readAheadBuffer;
+          pos = readAheadPos;
+          count = readAheadLimit - readAheadPos;
+        }
+        if (count > 0) {
+          out.write(buf, pos, count);
+          synchronized (readAheadLock) {
+            readAheadPos += count;
+          }
+        }
+        return count;
+      }
+    }
+
+    private int bufferedCount() {
+      synchronized (readAheadLock) {
+        return readAheadLimit - readAheadPos;
+      }
+    }
+
+    void setReadAheadBufferSize(int size) {
+      synchronized (readAheadLock) {
+        this.readAheadBufferSize = Math.max(0, size);
+        if (readAheadPos == readAheadLimit) {
+          // don't drop any data that is still buffered
+          readAheadBuffer = null;
+        }
+      }
+    }
+
+    int getReadAheadBufferSize() {
+      return readAheadBufferSize;
     }
 
     @Override
@@ -407,8 +553,36 @@ class AFUNIXSocketImpl extends SocketImplShim {
       if (eofReached) {
         return -1;
       }
-      int byteRead = NativeUnixSocket.read(fdesc, null, 0, 1, ancillaryDataSupport, socketTimeout
-          .get());
+
+      if (core.configureNonBlockingIfVirtualThread()) {
+        // a non-blocking single-byte read can't tell "no data" apart from a zero byte
+        synchronized (readLock) {
+          if (read(singleByte, 0, 1) < 0) {
+            eofReached = true;
+            return -1;
+          }
+          return singleByte[0] & 0xFF;
+        }
+      }
+
+      if (readAheadBufferSize > 0 || readAheadBuffer != null) {
+        synchronized (readLock) {
+          if (readBuffered(singleByte, 0, 1) > 0) {
+            return singleByte[0] & 0xFF;
+          }
+          int count = fillReadAheadBuffer(fdesc, 1);
+          if (count > 0) {
+            readBuffered(singleByte, 0, 1);
+            return singleByte[0] & 0xFF;
+          } else if (count < 0 && count != READ_AHEAD_SKIPPED) {
+            eofReached = true;
+            return -1;
+          }
+        }
+      }
+
+      int byteRead = NativeUnixSocket.read(fdesc, null, 0, 1, null, 0, ancillaryDataSupport,
+          socketTimeout.get());
       if (byteRead < 0) {
         eofReached = true;
         return -1;
@@ -435,7 +609,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
         throw new IOException("This InputStream has already been closed.");
       }
 
-      return AFUNIXSocketImpl.this.available();
+      return bufferedCount() + AFUNIXSocketImpl.this.available();
     }
   }
 
@@ -453,15 +627,44 @@ class AFUNIXSocketImpl extends SocketImplShim {
   private final class AFUNIXOutputStream extends OutputStream {
     private volatile boolean streamClosed = false;
 
+    /**
+     * Guards the write-coalescing buffer.
+     */
+    private final Object coalesceLock = new Object();
+    private volatile int coalesceBufferSize = 0;
+    private byte[] coalesceBuffer = null;
+    private volatile int coalesceCount = 0;
+
     @Override
     public void write(int oneByte) throws IOException {
       FileDescriptor fdesc = core.validFdOrException();
 
+      if (coalesceBufferSize > 0) {
+        synchronized (coalesceLock) {
+          int size = coalesceBufferSize;
+          if (size > 0) {
+            byte[] buf = coalesceBuffer;
+            if (buf == null || buf.length != size) {
+              flushCoalesced();
+              buf = coalesceBuffer = new byte[size];
+            }
+            buf[coalesceCount++] = (byte) oneByte;
+            if (coalesceCount == size) {
+              flushCoalesced();
+            }
+            return;
+          }
+        }
+      }
+
+      boolean park = core.configureNonBlockingIfVirtualThread();
       int written;
       do {
-        written = NativeUnixSocket.write(fdesc, null, oneByte, 1, ancillaryDataSupport);
+        written = NativeUnixSocket.write(fdesc, null, oneByte, 1, null, ancillaryDataSupport);
         if (written != 0) {
           break;
+        } else if (park) {
+          core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
         }
       } while (checkWriteInterruptedException(0));
     }
@@ -479,12 +682,46 @@ class AFUNIXSocketImpl extends SocketImplShim {
         return;
       }
 
+      if (coalesceBufferSize > 0 || coalesceCount > 0) {
+        synchronized (coalesceLock) {
+          int size = coalesceBufferSize;
+          int count = coalesceCount;
+          if (count > 0 && count + len > size) {
+            // send what we have, along with the new data, in one go
+            writeGathered(coalesceBuffer, count, buf, off, len);
+            return;
+          } else if (len < size) {
+            byte[] cb = coalesceBuffer;
+            if (cb == null || cb.length != size) {
+              cb = coalesceBuffer = new byte[size];
+            }
+            System.arraycopy(buf, off, cb, count, len);
+            coalesceCount = count + len;
+            if (coalesceCount == size) {
+              flushCoalesced();
+            }
+            return;
+          }
+        }
+      }
+
+      writeDirect(fdesc, buf, off, len);
+    }
+
+    private void writeDirect(FileDescriptor fdesc, byte[] buf, int off, int len)
+        throws IOException {
+      ByteBuffer directBuffer = stagingBuffer(len);
+      boolean park = core.configureNonBlockingIfVirtualThread();
+
       int writtenTotal = 0;
 
       do {
-        final int written = NativeUnixSocket.write(fdesc, buf, off, len, ancillaryDataSupport);
+        final int written = NativeUnixSocket.write(fdesc, buf, off, len, directBuffer,
+            ancillaryDataSupport);
         if (written < 0) {
           throw new IOException("Unspecific error while writing");
+        } else if (written == 0 && park) {
+          core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
         }
 
         len -= written;
@@ -493,11 +730,119 @@ class AFUNIXSocketImpl extends SocketImplShim {
       } while (len > 0 && checkWriteInterruptedException(writtenTotal));
     }
 
+    /**
+     * Sends the buffered data (the first {@code len1} bytes of the coalescing buffer) along with
+     * the given bytes. Must be called with {@link #coalesceLock} held.
+     *
+     * If this fails, only the buffered data that has not been sent yet remains buffered.
+     */
+    private void writeGathered(byte[] buf1, int len1, byte[] buf2, int off2, int len2)
+        throws IOException {
+      ByteBuffer[] srcs = {ByteBuffer.wrap(buf1, 0, len1), ByteBuffer.wrap(buf2, off2, len2)};
+      long remaining = (long) len1 + len2;
+      long writtenTotal = 0;
+      boolean park = core.configureNonBlockingIfVirtualThread();
+      int timeout = socketTimeout.get();
+      long start = System.nanoTime();
+      try {
+        do {
+          long written = core.write(srcs, 0, srcs.length, 0);
+          if (written < 0) {
+            throw new IOException("Unspecific error while writing");
+          } else if (written == 0) {
+            if (park) {
+              core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
+            } else if (timeout > 0 && TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start) >= timeout) {
+              // blocking socket; the send timeout has elapsed
+              SocketTimeoutException ex = new SocketTimeoutException("Write timed out");
+              ex.bytesTransferred = srcs[1].position() - off2;
+              throw ex;
+            }
+          }
+          writtenTotal += written;
+        } while (writtenTotal < remaining && checkWriteInterruptedException(srcs[1].position()
+            - off2));
+      } finally {
+        consumeCoalesced(srcs[0].position());
+      }
+    }
+
+    /**
+     * Sends any data that has been held back for write coalescing.
+     *
+     * If this fails, only the data that has not been sent yet remains buffered.
+     */
+    void flushCoalesced() throws IOException {
+      if (coalesceCount == 0) {
+        return;
+      }
+      synchronized (coalesceLock) {
+        int count = coalesceCount;
+        if (count > 0) {
+          FileDescriptor fdesc = core.validFdOrException();
+          ByteBuffer directBuffer = stagingBuffer(count);
+          boolean park = core.configureNonBlockingIfVirtualThread();
+
+          int writtenTotal = 0;
+          try {
+            do {
+              final int written = NativeUnixSocket.write(fdesc, coalesceBuffer, writtenTotal,
+                  count - writtenTotal, directBuffer, ancillaryDataSupport);
+              if (written < 0) {
+                throw new IOException("Unspecific error while writing");
+              } else if (written == 0 && park) {
+                core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
+              }
+              writtenTotal += written;
+            } while (writtenTotal < count && checkWriteInterruptedException(writtenTotal));
+          } finally {
+            consumeCoalesced(writtenTotal);
+          }
+        }
+      }
+    }
+
+    /**
+     * Removes the given number of bytes, which have been sent, from the start of the coalescing
+     * buffer. Must be called with {@link #coalesceLock} held.
+     */
+    private void consumeCoalesced(int sent) {
+      int rest = coalesceCount - sent;
+      if (rest > 0 && sent > 0) {
+        System.arraycopy(coalesceBuffer, sent, coalesceBuffer, 0, rest);
+      }
+      coalesceCount = Math.max(0, rest);
+    }
+
+    void setCoalesceBufferSize(int size) throws IOException {
+      synchronized (coalesceLock) {
+        size = Math.max(0, size);
+        if (size != coalesceBufferSize) {
+          flushCoalesced();
+          coalesceBuffer = null;
+          this.coalesceBufferSize = size;
+        }
+      }
+    }
+
+    int getCoalesceBufferSize() {
+      return coalesceBufferSize;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      flushCoalesced();
+    }
+
     @Override
     public synchronized void close() throws IOException {
       if (streamClosed) {
         return;
       }
+      if (core.validFd() != null) {
+        flushCoalesced();
+      }
       streamClosed = true;
       FileDescriptor fdesc = core.validFd();
       if (fdesc != null) {
@@ -510,8 +855,10 @@ class AFUNIXSocketImpl extends SocketImplShim {
 
   @Override
   public String toString() {
+    int state = core.getState();
     return super.toString() + "[fd=" + fd + "; addr=" + this.core.socketAddress + "; connected="
-        + connected + "; bound=" + bound + "]";
+        + (state == AFUNIXSocketCore.STATE_CONNECTED) + "; bound="
+        + (state >= AFUNIXSocketCore.STATE_BOUND) + "]";
   }
 
   private static int expectInteger(Object value) throws SocketException {
@@ -665,6 +1012,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
   protected void shutdownOutput() throws IOException {
     FileDescriptor fdesc = core.validFd();
     if (fdesc != null) {
+      out.flushCoalesced();
       NativeUnixSocket.shutdown(fdesc, SHUT_WR);
     }
   }
@@ -714,7 +1062,7 @@ class AFUNIXSocketImpl extends SocketImplShim {
     return NativeUnixSocket.peerCredentials(fd, new AFUNIXSocketCredentials());
   }
 
-  final FileDescriptor[] getReceivedFileDescriptors() {
+  final FileDescriptor[] getReceivedFileDescriptors() throws IOException {
     return ancillaryDataSupport.getReceivedFileDescriptors();
   }
 
@@ -722,11 +1070,13 @@ class AFUNIXSocketImpl extends SocketImplShim {
     ancillaryDataSupport.clearReceivedFileDescriptors();
   }
 
-  final void receiveFileDescriptors(int[] fds) throws IOException {
+  final void receiveFileDescriptors(int[] fds) {
     ancillaryDataSupport.receiveFileDescriptors(fds);
   }
 
   final void setOutboundFileDescriptors(FileDescriptor... fdescs) throws IOException {
+    // the file descriptors must not be sent along with previously written data
+    out.flushCoalesced();
     ancillaryDataSupport.setOutboundFileDescriptors(fdescs);
   }
 
@@ -746,20 +1096,138 @@ class AFUNIXSocketImpl extends SocketImplShim {
     ancillaryDataSupport.ensureAncillaryReceiveBufferSize(minSize);
   }
 
+  int transferReadAheadTo(OutputStream os) throws IOException {
+    return in.transferBuffered(os);
+  }
+
+  void flushWriteCoalescing() throws IOException {
+    out.flushCoalesced();
+  }
+
+  int getWriteCoalescingBufferSize() {
+    return out.getCoalesceBufferSize();
+  }
+
+  void setWriteCoalescingBufferSize(int size) throws IOException {
+    out.setCoalesceBufferSize(size);
+  }
+
+  int getReadAheadBufferSize() {
+    return in.getReadAheadBufferSize();
+  }
+
+  void setReadAheadBufferSize(int size) {
+    in.setReadAheadBufferSize(size);
+  }
+
   SocketAddress receive(ByteBuffer dst) throws IOException {
     return core.receive(dst);
   }
 
   int send(ByteBuffer src, SocketAddress target) throws IOException {
+    out.flushCoalesced();
     return core.write(src, target, 0);
   }
 
   int read(ByteBuffer dst, ByteBuffer socketAddressBuffer) throws IOException {
-    return core.read(dst, socketAddressBuffer, 0);
+    if (!core.configureNonBlockingIfVirtualThread()) {
+      return core.read(dst, socketAddressBuffer, NativeUnixSocket.OPT_STREAM);
+    }
+    int count;
+    while ((count = core.read(dst, socketAddressBuffer, NativeUnixSocket.OPT_STREAM)) == 0 && dst
+        .hasRemaining()) {
+      core.awaitReady(SelectionKey.OP_READ, 0, 0);
+    }
+    return count;
   }
 
   int write(ByteBuffer src) throws IOException {
-    return core.write(src);
+    out.flushCoalesced();
+    if (!core.configureNonBlockingIfVirtualThread()) {
+      return core.write(src);
+    }
+    // a blocking write writes everything
+    int total = 0;
+    while (src.hasRemaining()) {
+      int written = core.write(src);
+      if (written == 0) {
+        core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
+      }
+      total += written;
+    }
+    return total;
+  }
+
+  long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    if (!core.configureNonBlockingIfVirtualThread()) {
+      return core.read(dsts, offset, length, NativeUnixSocket.OPT_STREAM);
+    }
+    long count;
+    while ((count = core.read(dsts, offset, length, NativeUnixSocket.OPT_STREAM)) == 0
+        && AFUNIXCore.countNonEmpty(dsts, offset, length) > 0) {
+      core.awaitReady(SelectionKey.OP_READ, 0, 0);
+    }
+    return count;
+  }
+
+  long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    out.flushCoalesced();
+    if (!core.configureNonBlockingIfVirtualThread()) {
+      return core.write(srcs, offset, length, 0);
+    }
+    // a blocking write writes everything
+    long total = 0;
+    while (AFUNIXCore.countNonEmpty(srcs, offset, length) > 0) {
+      long written = core.write(srcs, offset, length, 0);
+      if (written == 0) {
+        core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
+      }
+      total += written;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the direct buffer to stage a transfer of the given size in, or {@code null} if native
+   * code should stage it on its stack (transferring at most
+   * {@link NativeUnixSocket#STACK_BUFFER_SIZE} bytes at a time).
+   */
+  private ByteBuffer stagingBuffer(int len) {
+    // small transfers are staged on the native stack, larger ones in a per-thread direct buffer,
+    // except for virtual threads, which are too many to each hold on to a direct buffer
+    return len > NativeUnixSocket.STACK_BUFFER_SIZE && !VirtualThreadPoller.isVirtualThread()
+        ? core.getThreadLocalDirectByteBuffer(len) : null;
+  }
+
+  /**
+   * Transfers bytes from a file directly to this socket.
+   * 
+   * @return The number of bytes transferred, or -1 if the caller should use some other way.
+   */
+  long transferFrom(FileChannel src, long position, long count) throws IOException {
+    out.flushCoalesced();
+    if (ancillaryDataSupport.hasOutboundFileDescriptors()) {
+      return -1;
+    }
+    if (!core.configureNonBlockingIfVirtualThread()) {
+      return NativeUnixSocket.transferFrom(core.validFdOrException(), src, position, count);
+    }
+    // a blocking transfer transfers everything, up to the end of the file
+    long total = 0;
+    while (total < count) {
+      long n = NativeUnixSocket.transferFrom(core.validFdOrException(), src, position + total, count
+          - total);
+      if (n < 0) {
+        return total == 0 ? -1 : total;
+      } else if (n == 0) {
+        if (position + total >= src.size()) {
+          break;
+        }
+        core.awaitReady(SelectionKey.OP_WRITE, 0, 0);
+      }
+      total += n;
+    }
+    return total;
   }
 
   @Override
@@ -21,23 +21,32 @@ import java.io.Closeable;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
 
 class AncillaryDataSupport implements Closeable {
   private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+  private static final int RECEIVED_FDS_INITIAL_CAPACITY = 16;
 
   protected final Map<FileDescriptor, Integer> openReceivedFileDescriptors = Collections
       .synchronizedMap(new HashMap<FileDescriptor, Integer>());
 
-  private final List<FileDescriptor[]> receivedFileDescriptors = Collections.synchronizedList(
-      new LinkedList<FileDescriptor[]>());
+  /**
+   * Received file descriptors that have not been retrieved yet (the first
+   * {@link #receivedFileDescriptorsCount} elements). {@link FileDescriptor} instances are only
+   * created upon {@link #getReceivedFileDescriptors()}.
+   *
+   * Guarded by {@code this}, also from native code.
+   */
+  // referenced from native code
+  int[] receivedFileDescriptorsBuffer = new int[RECEIVED_FDS_INITIAL_CAPACITY];
+
+  // referenced from native code
+  int receivedFileDescriptorsCount = 0;
 
   // referenced from native code
   protected ByteBuffer ancillaryReceiveBuffer = EMPTY_BUFFER;
@@ -73,11 +82,69 @@ class AncillaryDataSupport implements Closeable {
     }
   }
 
-  // called from native code
-  void receiveFileDescriptors(int[] fds) throws IOException {
+  /**
+   * Stores the given file descriptors (received via ancillary data) until they are retrieved via
+   * {@link #getReceivedFileDescriptors()}.
+   *
+   * Native code writes directly to {@link #receivedFileDescriptorsBuffer} instead of calling this
+   * method.
+   *
+   * @param fds The file descriptors.
+   */
+  synchronized void receiveFileDescriptors(int[] fds) {
     if (fds == null || fds.length == 0) {
       return;
     }
+    growReceivedFileDescriptors(receivedFileDescriptorsCount + fds.length);
+    System.arraycopy(fds, 0, receivedFileDescriptorsBuffer, receivedFileDescriptorsCount,
+        fds.length);
+    receivedFileDescriptorsCount += fds.length;
+  }
+
+  // called from native code (with the lock held) if the buffer is too small
+  synchronized void growReceivedFileDescriptors(int minCapacity) {
+    int[] buf = receivedFileDescriptorsBuffer;
+    if (minCapacity > buf.length) {
+      this.receivedFileDescriptorsBuffer = Arrays.copyOf(buf, Math.max(minCapacity, buf.length
+          * 2));
+    }
+  }
+
+  private synchronized int[] takeReceivedFileDescriptors() {
+    if (receivedFileDescriptorsCount == 0) {
+      return null;
+    }
+    int[] fds = Arrays.copyOf(receivedFileDescriptorsBuffer, receivedFileDescriptorsCount);
+    receivedFileDescriptorsCount = 0;
+    return fds;
+  }
+
+  private static void closeUnclaimed(int[] fds) {
+    if (fds == null) {
+      return;
+    }
+    for (int fd : fds) {
+      try {
+        FileDescriptor fdesc = new FileDescriptor();
+        NativeUnixSocket.initFD(fdesc, fd);
+        NativeUnixSocket.close(fdesc);
+      } catch (Exception e) {
+        // ignore
+      }
+    }
+  }
+
+  final void clearReceivedFileDescriptors() {
+    // Nobody has seen these file descriptors yet, so we can close them right away
+    closeUnclaimed(takeReceivedFileDescriptors());
+  }
+
+  FileDescriptor[] getReceivedFileDescriptors() throws IOException {
+    int[] fds = takeReceivedFileDescriptors();
+    if (fds == null) {
+      return null;
+    }
+
     final int fdsLength = fds.length;
     FileDescriptor[] descriptors = new FileDescriptor[fdsLength];
     for (int i = 0; i < fdsLength; i++) {
@@ -96,37 +163,7 @@ class AncillaryDataSupport implements Closeable {
       };
       NativeUnixSocket.attachCloseable(fdesc, cleanup);
     }
-
-    this.receivedFileDescriptors.add(descriptors);
-  }
-
-  final void clearReceivedFileDescriptors() {
-    receivedFileDescriptors.clear();
-  }
-
-  FileDescriptor[] getReceivedFileDescriptors() {
-    if (receivedFileDescriptors.isEmpty()) {
-      return null;
-    }
-    List<FileDescriptor[]> copy = new ArrayList<>(receivedFileDescriptors);
-    if (copy.isEmpty()) {
-      return null;
-    }
-    receivedFileDescriptors.removeAll(copy);
-    int count = 0;
-    for (FileDescriptor[] fds : copy) {
-      count += fds.length;
-    }
-    if (count == 0) {
-      return null;
-    }
-    FileDescriptor[] oneArray = new FileDescriptor[count];
-    int offset = 0;
-    for (FileDescriptor[] fds : copy) {
-      System.arraycopy(fds, 0, oneArray, offset, fds.length);
-      offset += fds.length;
-    }
-    return oneArray;
+    return descriptors;
   }
 
   void setOutboundFileDescriptors(int[] fds) {
@@ -163,5 +200,6 @@ class AncillaryDataSupport implements Closeable {
         }
       }
     }
+    closeUnclaimed(takeReceivedFileDescriptors());
   }
 }
@@ -0,0 +1,253 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves bytes from a source channel to arbitrary target channels.
+ * 
+ * Where both sides have a file descriptor, the data is moved with {@code splice(2)} through an
+ * internal pipe, so it never enters user space. Otherwise, it is copied through a buffer.
+ * 
+ * Bytes that were taken from the source but not yet accepted by a (non-blocking) target are kept
+ * (in the pipe or in the buffer), and are written first upon the next call.
+ * 
+ * Sockets that are blocking from the user's point of view but non-blocking under the hood (see
+ * {@link AFUNIXCore#configureNonBlockingIfVirtualThread()}) are waited for instead of returning
+ * zero.
+ * 
+ * @author Christian Kohlschütter
+ */
+final class ChannelTransfer implements Closeable {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final ReadableByteChannel source;
+  private final FileDescriptor sourceFd;
+  private final AFUNIXCore sourceCore;
+  private volatile AFUNIXPipe pipe;
+  private volatile boolean closed = false;
+  private long pipePending = 0;
+  private ByteBuffer buffer;
+  private boolean spliceUnsupported = false;
+
+  ChannelTransfer(ReadableByteChannel source) throws IOException {
+    this.source = source;
+    this.sourceFd = fileDescriptorOf(source);
+    this.sourceCore = coreOf(source);
+  }
+
+  /**
+   * Returns the file descriptor of the given channel, or {@code null} if unknown.
+   * 
+   * @param channel The channel.
+   * @return The file descriptor, or {@code null}.
+   * @throws IOException on error.
+   */
+  static FileDescriptor fileDescriptorOf(Channel channel) throws IOException {
+    if (channel instanceof FileDescriptorAccess) {
+      return ((FileDescriptorAccess) channel).getFileDescriptor();
+    } else {
+      return NativeUnixSocket.channelFileDescriptor(channel);
+    }
+  }
+
+  private static AFUNIXCore coreOf(Channel channel) {
+    return (channel instanceof AFUNIXSocketChannel) ? ((AFUNIXSocketChannel) channel).getAFCore()
+        : null;
+  }
+
+  /**
+   * Transfers up to {@code count} bytes to the given target.
+   * 
+   * Like {@link ReadableByteChannel#read(ByteBuffer)}, this only blocks until some bytes could be
+   * read from the source (if the source is in blocking mode).
+   * 
+   * @param count The maximum number of bytes to transfer.
+   * @param target The target channel.
+   * @return The number of bytes written to the target, or -1 if the source reached end of file and
+   *         there are no more pending bytes.
+   * @throws IOException on error.
+   */
+  long transferTo(long count, WritableByteChannel target) throws IOException {
+    return transferTo(count, target, true, 0);
+  }
+
+  /**
+   * Transfers up to {@code count} bytes to the given target, optionally without ever copying new
+   * data from the source through user space.
+   * 
+   * @param count The maximum number of bytes to transfer.
+   * @param target The target channel.
+   * @param copy If {@code false}, don't copy new data through a buffer if {@code splice} cannot be
+   *          used for this target.
+   * @param timeoutMillis The timeout for waiting on the source, or 0 to wait indefinitely.
+   * @return The number of bytes written to the target, -1 if the source reached end of file and
+   *         there are no more pending bytes, or -2 if {@code copy} was {@code false} and nothing
+   *         could be transferred without copying.
+   * @throws SocketTimeoutException if the timeout has elapsed.
+   * @throws IOException on error.
+   */
+  synchronized long transferTo(long count, WritableByteChannel target, boolean copy,
+      int timeoutMillis) throws IOException {
+    if (count < 0) {
+      throw new IllegalArgumentException("count");
+    }
+    long start = System.nanoTime();
+    boolean awaitSource = sourceCore != null && sourceCore.configureNonBlockingIfVirtualThread();
+    AFUNIXCore targetCore = coreOf(target);
+    boolean awaitTarget = targetCore != null && targetCore.configureNonBlockingIfVirtualThread();
+    if (target instanceof AFUNIXSocketChannel) {
+      ((AFUNIXSocketChannel) target).socket().getAFImpl().flushWriteCoalescing();
+    }
+    FileDescriptor targetFd = (spliceUnsupported || sourceFd == null) ? null : fileDescriptorOf(
+        target);
+
+    long written = 0;
+    while (written < count) {
+      long n;
+      if (buffer != null && buffer.hasRemaining()) {
+        n = writeBuffer(target, count - written);
+      } else if (pipePending > 0) {
+        if (targetFd == null) {
+          // the target cannot be spliced into; copy what's left in the pipe
+          if (fillBuffer(pipe.source(), pipePending) <= 0) {
+            throw new IllegalStateException("Pipe is empty");
+          }
+          pipePending -= buffer.remaining();
+          continue;
+        }
+        n = NativeUnixSocket.splice(pipe.sourceFD(), targetFd, Math.min(pipePending, count
+            - written));
+        if (n == -2) {
+          targetFd = null;
+          continue;
+        } else if (n == 0 && awaitTarget) {
+          targetCore.awaitReady(SelectionKey.OP_WRITE, 0, 0);
+          continue;
+        }
+        pipePending -= n;
+      } else if (written > 0) {
+        // don't block on the source once we've made progress
+        break;
+      } else if (targetFd != null) {
+        n = NativeUnixSocket.splice(sourceFd, pipe().sinkFD(), count);
+        if (n == -2) {
+          spliceUnsupported = true;
+          targetFd = null;
+          continue;
+        } else if (n == -1) {
+          return -1;
+        } else if (n == 0) {
+          if (awaitSource) {
+            sourceCore.awaitReady(SelectionKey.OP_READ, timeoutMillis, start);
+            continue;
+          }
+          break;
+        }
+        pipePending = n;
+        continue;
+      } else if (!copy) {
+        return -2;
+      } else {
+        int numRead = fillBuffer(source, count);
+        if (numRead == -1) {
+          return -1;
+        } else if (numRead == 0) {
+          break;
+        }
+        continue;
+      }
+      if (n <= 0) {
+        break;
+      }
+      written += n;
+    }
+    return written;
+  }
+
+  private AFUNIXPipe pipe() throws IOException {
+    AFUNIXPipe p = pipe;
+    if (p == null) {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      p = pipe = AFUNIXSelectorProvider.getInstance().openPipe();
+      if (closed) {
+        // closed concurrently
+        p.close();
+        throw new ClosedChannelException();
+      }
+    }
+    return p;
+  }
+
+  private int fillBuffer(ReadableByteChannel from, long max) throws IOException {
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    buffer.clear();
+    if (max < buffer.capacity()) {
+      buffer.limit((int) max);
+    }
+    int numRead = from.read(buffer);
+    buffer.flip();
+    return numRead;
+  }
+
+  private int writeBuffer(WritableByteChannel target, long max) throws IOException {
+    int limit = buffer.limit();
+    if (buffer.remaining() > max) {
+      buffer.limit(buffer.position() + (int) max);
+    }
+    try {
+      return target.write(buffer);
+    } finally {
+      buffer.limit(limit);
+    }
+  }
+
+  static boolean isBlocking(Channel channel) {
+    return !(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking();
+  }
+
+  /**
+   * Releases the internal pipe, if any.
+   *
+   * This is not synchronized, since it must not wait for a {@link #transferTo(long,
+   * WritableByteChannel)} that is blocked on the source; close the source first to unblock it.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    AFUNIXPipe p = pipe;
+    if (p != null) {
+      p.close();
+    }
+  }
+}
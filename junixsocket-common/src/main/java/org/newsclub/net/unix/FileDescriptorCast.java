@@ -23,7 +23,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collections;
@@ -54,6 +56,9 @@ import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
  * // always succeeds
  * InputStream in = FileDescriptorCast.using(fd).as(InputStream.class); 
  * OutputStream in = FileDescriptorCast.using(fd).as(OutputStream.class); 
+ * 
+ * // succeeds if fd refers to a regular (or memory-backed) file
+ * MappedByteBuffer bb = FileDescriptorCast.using(fd).as(MappedByteBuffer.class); 
  * </code>
  * 
  * IMPORTANT: On some platforms (e.g., Solaris, Illumos) you may need to re-apply a read timeout
@@ -112,6 +117,22 @@ public final class FileDescriptorCast {
           return RAFChannelProvider.getFileChannel(fdc.getFileDescriptor());
         }
       });
+      addProvider(MappedByteBuffer.class, new CastingProvider<MappedByteBuffer>() {
+        @Override
+        public MappedByteBuffer provideAs(FileDescriptorCast fdc,
+            Class<? super MappedByteBuffer> desiredType) throws IOException {
+          // closing this channel leaves the file descriptor open; the mapping is independent of it
+          try (FileChannel fc = RAFChannelProvider.getFileChannel(fdc.getFileDescriptor())) {
+            long size = fc.size();
+            try {
+              return fc.map(MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+              // read-only, or sealed against writing
+              return fc.map(MapMode.READ_ONLY, 0, size);
+            }
+          }
+        }
+      });
 
       addProvider(FileOutputStream.class, new CastingProvider<FileOutputStream>() {
         @Override
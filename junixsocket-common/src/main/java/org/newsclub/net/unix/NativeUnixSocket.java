@@ -24,6 +24,8 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
 
 import org.newsclub.net.unix.AFUNIXSelector.PollFd;
 
@@ -46,11 +48,34 @@ final class NativeUnixSocket {
   static final int OPT_NON_BLOCKING = 4;
   static final int OPT_NON_SOCKET = 8;
 
+  /**
+   * Stream semantics for {@code receive} and {@code receiveVectored}: End-of-stream is reported as
+   * -1 (instead of 0, which then only means that no data is available on a non-blocking socket).
+   */
+  static final int OPT_STREAM = 16;
+
+  // same values as in sys/epoll.h
+  static final int EPOLL_CTL_ADD = 1;
+  static final int EPOLL_CTL_DEL = 2;
+  static final int EPOLL_CTL_MOD = 3;
+
   static final int SOCKETSTATUS_INVALID = -1;
   static final int SOCKETSTATUS_UNKNOWN = 0;
   static final int SOCKETSTATUS_BOUND = 1;
   static final int SOCKETSTATUS_CONNECTED = 2;
 
+  /**
+   * Reads and writes of up to this many bytes are staged in a buffer on the native stack; larger
+   * transfers use the direct buffer supplied by the caller.
+   */
+  static final int STACK_BUFFER_SIZE = 8192;
+
+  /**
+   * The maximum number of buffers passed to the operating system in a single scattering read or
+   * gathering write.
+   */
+  static final int MAX_IOVECS = 64;
+
   @ExcludeFromCodeCoverageGeneratedReport
   private NativeUnixSocket() {
     throw new UnsupportedOperationException("No instances");
@@ -104,13 +129,19 @@ final class NativeUnixSocket {
    * @param buf The buffer to read into, or {@code null} if a single byte should be read.
    * @param off The buffer offset.
    * @param len The maximum number of bytes to read. Must be 1 if {@code buf} is {@code null}.
+   * @param directBuffer A direct buffer to stage the data in, or {@code null}, in which case at
+   *          most {@link #STACK_BUFFER_SIZE} bytes are read.
+   * @param options Option flags, see {@code OPT_*}.
    * @param ancillaryDataSupport The ancillary data support instance, or {@code null}.
    * @return The number of bytes read, -1 if nothing could be read, or the byte itself iff
-   *         {@code buf} was {@code null}.
+   *         {@code buf} was {@code null}. Iff {@link #OPT_NON_BLOCKING} is set, 0 is returned on a
+   *         non-blocking socket without data (which is ambiguous iff {@code buf} is {@code null});
+   *         otherwise, an exception is thrown.
    * @throws IOException upon error.
    */
   static native int read(final FileDescriptor fd, byte[] buf, int off, int len,
-      AncillaryDataSupport ancillaryDataSupport, int timeoutMillis) throws IOException;
+      ByteBuffer directBuffer, int options, AncillaryDataSupport ancillaryDataSupport,
+      int timeoutMillis) throws IOException;
 
   /**
    * Writes data to an {@link AFUNIXSocketImpl}.
@@ -119,12 +150,14 @@ final class NativeUnixSocket {
    * @param buf The buffer to write from, or {@code null} if a single byte should be written.
    * @param off The buffer offset, or the byte to write if {@code buf} is {@code null}.
    * @param len The number of bytes to write. Must be 1 if {@code buf} is {@code null}.
+   * @param directBuffer A direct buffer to stage the data in, or {@code null}, in which case at
+   *          most {@link #STACK_BUFFER_SIZE} bytes are written.
    * @param ancillaryDataSupport The ancillary data support instance, or {@code null}.
    * @return The number of bytes written (which could be 0).
    * @throws IOException upon error.
    */
   static native int write(final FileDescriptor fd, byte[] buf, int off, int len,
-      AncillaryDataSupport ancillaryDataSupport) throws IOException;
+      ByteBuffer directBuffer, AncillaryDataSupport ancillaryDataSupport) throws IOException;
 
   static native int receive(final FileDescriptor fd, ByteBuffer directBuffer, int offset,
       int length, ByteBuffer directSocketAddressOut, int options,
@@ -134,6 +167,139 @@ final class NativeUnixSocket {
       ByteBuffer directSocketAddress, int options, AncillaryDataSupport ancillaryDataSupport)
       throws IOException;
 
+  /**
+   * Reads data into several direct buffers at once (scattering read).
+   * 
+   * Not all buffers may be considered by a single call, and the native code does not change the
+   * buffers' positions.
+   * 
+   * @param fd The corresponding file descriptor.
+   * @param directBuffers The direct buffers to read into (the same buffer may appear more than once).
+   * @param offsets For each buffer, the absolute offset to start reading into.
+   * @param lengths For each buffer, the maximum number of bytes to read.
+   * @param numBuffers The number of valid entries in the three arrays.
+   * @param options Option flags, see {@code OPT_*}.
+   * @param ancillaryDataSupport The ancillary data support instance, or {@code null}.
+   * @param timeoutMillis The read timeout, or 0.
+   * @return The total number of bytes read (which could be 0), or -1 upon end-of-stream if
+   *         {@link #OPT_STREAM} is set.
+   * @throws IOException upon error.
+   */
+  static native long receiveVectored(final FileDescriptor fd, ByteBuffer[] directBuffers,
+      int[] offsets, int[] lengths, int numBuffers, int options,
+      AncillaryDataSupport ancillaryDataSupport, int timeoutMillis) throws IOException;
+
+  /**
+   * Writes data from several direct buffers at once (gathering write).
+   * 
+   * Not all buffers may be considered by a single call, and the native code does not change the
+   * buffers' positions.
+   * 
+   * @param fd The corresponding file descriptor.
+   * @param directBuffers The direct buffers to write from (the same buffer may appear more than
+   *          once).
+   * @param offsets For each buffer, the absolute offset to start writing from.
+   * @param lengths For each buffer, the number of bytes to write.
+   * @param numBuffers The number of valid entries in the three arrays.
+   * @param options Option flags, see {@code OPT_*}.
+   * @param ancillaryDataSupport The ancillary data support instance, or {@code null}.
+   * @return The total number of bytes written (which could be 0).
+   * @throws IOException upon error.
+   */
+  static native long sendVectored(final FileDescriptor fd, ByteBuffer[] directBuffers,
+      int[] offsets, int[] lengths, int numBuffers, int options,
+      AncillaryDataSupport ancillaryDataSupport) throws IOException;
+
+  /**
+   * Receives several datagrams at once, one per buffer. Only the first datagram is waited for
+   * (depending on the socket's blocking mode); further datagrams are received only if they are
+   * immediately available. Ancillary data is not received.
+   * 
+   * The native code does not change the buffers' positions.
+   * 
+   * @param fd The corresponding file descriptor.
+   * @param directBuffers The direct buffers to receive into (the same buffer may appear more than
+   *          once).
+   * @param offsets For each buffer, the absolute offset to start receiving into.
+   * @param lengths For each buffer, the maximum number of bytes to receive.
+   * @param counts For each datagram received, the number of bytes stored in the buffer.
+   * @param numBuffers The number of valid entries in the buffer arrays.
+   * @param socketAddressBuffer A direct buffer with room for one {@code sockaddr_un} per buffer, to
+   *          receive the sender addresses, or {@code null}.
+   * @param options Option flags, see {@code OPT_*}.
+   * @param timeoutMillis The read timeout, or 0.
+   * @return The number of datagrams received (which could be 0).
+   * @throws IOException upon error.
+   */
+  static native int receiveMultiple(final FileDescriptor fd, ByteBuffer[] directBuffers,
+      int[] offsets, int[] lengths, int[] counts, int numBuffers, ByteBuffer socketAddressBuffer,
+      int options, int timeoutMillis) throws IOException;
+
+  /**
+   * Sends several datagrams at once, one per buffer. The datagrams are sent in order, and sending
+   * stops at the first datagram that cannot be sent without blocking (if the socket is in
+   * non-blocking mode), or that cannot be sent due to an error (unless it is the first one, in
+   * which case an exception is thrown). Ancillary data is not sent.
+   * 
+   * The native code does not change the buffers' positions.
+   * 
+   * @param fd The corresponding file descriptor.
+   * @param directBuffers The direct buffers to send from (the same buffer may appear more than
+   *          once).
+   * @param offsets For each buffer, the absolute offset to start sending from.
+   * @param lengths For each buffer, the number of bytes to send.
+   * @param counts For each datagram sent, the number of bytes sent.
+   * @param numBuffers The number of valid entries in the buffer arrays.
+   * @param socketAddressBuffer A direct buffer holding consecutive {@code sockaddr_un} target
+   *          addresses, or {@code null} to send all datagrams to the connected peer.
+   * @param addressIndexes For each buffer, the index of its target address in
+   *          {@code socketAddressBuffer}, or -1 to send to the connected peer.
+   * @param options Option flags, see {@code OPT_*}.
+   * @return The number of datagrams sent (which could be 0).
+   * @throws IOException upon error.
+   */
+  static native int sendMultiple(final FileDescriptor fd, ByteBuffer[] directBuffers,
+      int[] offsets, int[] lengths, int[] counts, int numBuffers, ByteBuffer socketAddressBuffer,
+      int[] addressIndexes, int options) throws IOException;
+
+  /**
+   * Transfers bytes from a file to a socket without copying them to user space, using
+   * {@code sendfile(2)} where supported.
+   * 
+   * @param fd The socket's file descriptor.
+   * @param src The file channel to read from (its position is not changed).
+   * @param position The position in the file to start reading from.
+   * @param count The maximum number of bytes to transfer.
+   * @return The number of bytes transferred (which could be 0, e.g., in non-blocking mode), or -1
+   *         if this kind of transfer is not supported on this platform or for the given file.
+   * @throws IOException upon error.
+   */
+  static native long transferFrom(final FileDescriptor fd, FileChannel src, long position,
+      long count) throws IOException;
+
+  /**
+   * Moves up to {@code count} bytes from one file descriptor to another using {@code splice(2)}.
+   * One of the two file descriptors must refer to a pipe.
+   * 
+   * @param fdIn The file descriptor to read from.
+   * @param fdOut The file descriptor to write to.
+   * @param count The maximum number of bytes to move.
+   * @return The number of bytes moved, 0 if the operation would block, -1 on end of file, or -2 if
+   *         {@code splice} is not supported for these file descriptors.
+   * @throws IOException upon error.
+   */
+  static native long splice(final FileDescriptor fdIn, FileDescriptor fdOut, long count)
+      throws IOException;
+
+  /**
+   * Returns the {@link FileDescriptor} used by a JDK-provided channel implementation, or
+   * {@code null} if unknown.
+   * 
+   * @param channel The channel.
+   * @return The file descriptor, or {@code null}.
+   */
+  static native FileDescriptor channelFileDescriptor(Channel channel);
+
   static native void close(final FileDescriptor fd) throws IOException;
 
   static native void shutdown(final FileDescriptor fd, int mode) throws IOException;
@@ -162,6 +328,47 @@ final class NativeUnixSocket {
   static native void copyFileDescriptor(FileDescriptor source, FileDescriptor target)
       throws IOException;
 
+  /**
+   * Initializes the given {@link FileDescriptor} with an anonymous, memory-backed file (via
+   * {@code memfd_create(2)}).
+   * 
+   * @param fd The file descriptor to initialize.
+   * @param name The name of the file (for debugging purposes only).
+   * @param allowSealing If {@code true}, seals may be added to the file later.
+   * @return {@code true} if successful, {@code false} if not supported on this platform.
+   * @throws IOException upon error.
+   */
+  static native boolean initMemoryFile(FileDescriptor fd, String name, boolean allowSealing)
+      throws IOException;
+
+  /**
+   * Adds the given seals to a memory-backed file (via {@code F_ADD_SEALS}).
+   * 
+   * @param fd The file descriptor.
+   * @param seals The seals to add.
+   * @throws IOException upon error.
+   */
+  static native void addSeals(FileDescriptor fd, int seals) throws IOException;
+
+  /**
+   * Returns the seals of a memory-backed file (via {@code F_GET_SEALS}).
+   * 
+   * @param fd The file descriptor.
+   * @return The seals, or 0 if the file does not support sealing.
+   * @throws IOException upon error.
+   */
+  static native int getSeals(FileDescriptor fd) throws IOException;
+
+  /**
+   * Initializes the target {@link FileDescriptor} with a duplicate of the source file descriptor
+   * (via {@code dup(2)}).
+   * 
+   * @param source The source file descriptor.
+   * @param target The target file descriptor.
+   * @throws IOException upon error.
+   */
+  static native void duplicate(FileDescriptor source, FileDescriptor target) throws IOException;
+
   static native void attachCloseable(FileDescriptor fdsec, Closeable closeable);
 
   static native int maxAddressLength();
@@ -191,8 +398,53 @@ final class NativeUnixSocket {
   static native boolean initPipe(FileDescriptor source, FileDescriptor sink, boolean selectable)
       throws IOException;
 
+  /**
+   * Initializes the given {@link FileDescriptor} with a new non-blocking {@code eventfd}.
+   *
+   * @param fd The file descriptor to initialize.
+   * @return {@code true} if successful, {@code false} if eventfd is not supported on this
+   *         platform.
+   * @throws IOException upon error.
+   */
+  static native boolean initEventFd(FileDescriptor fd) throws IOException;
+
   static native int poll(PollFd pollFd, int timeout);
 
+  /**
+   * Initializes the given {@link FileDescriptor} with a new epoll instance.
+   * 
+   * @param fd The file descriptor to initialize.
+   * @return {@code true} if successful, {@code false} if epoll is not supported on this platform.
+   * @throws IOException upon error.
+   */
+  static native boolean epollCreate(FileDescriptor fd) throws IOException;
+
+  /**
+   * Adds, modifies or removes a file descriptor to/from an epoll instance.
+   * 
+   * @param epfd The epoll file descriptor.
+   * @param op One of {@link #EPOLL_CTL_ADD}, {@link #EPOLL_CTL_DEL}, {@link #EPOLL_CTL_MOD}.
+   * @param fd The file descriptor.
+   * @param ops The interest ops (see {@link java.nio.channels.SelectionKey}).
+   * @param id The identifier reported by {@link #epollWait(FileDescriptor, int, int[], int[])}.
+   * @throws IOException upon error.
+   */
+  static native void epollCtl(FileDescriptor epfd, int op, FileDescriptor fd, int ops, int id)
+      throws IOException;
+
+  /**
+   * Waits for events on an epoll instance.
+   * 
+   * @param epfd The epoll file descriptor.
+   * @param timeout The timeout in milliseconds, 0 to return immediately, -1 to wait indefinitely.
+   * @param ids Receives the identifiers of the ready file descriptors.
+   * @param rops Receives the ready ops (not masked by the interest ops).
+   * @return The number of entries in {@code ids} and {@code rops}, 0 upon timeout or interrupt.
+   * @throws IOException upon error.
+   */
+  static native int epollWait(FileDescriptor epfd, int timeout, int[] ids, int[] rops)
+      throws IOException;
+
   static native void configureBlocking(FileDescriptor fd, boolean blocking) throws IOException;
 
   static native void socketPair(int type, FileDescriptor fd, FileDescriptor fd2);
@@ -73,6 +73,8 @@ final class RAFChannelProvider extends RandomAccessFile implements FileDescripto
       if (!tempPath.delete()) {
         // we tried our best
       }
+      // closes the temporary file only; the wrapped file descriptor stays open
+      super.close();
     }
   }
 
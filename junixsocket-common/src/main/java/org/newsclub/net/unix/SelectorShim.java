@@ -0,0 +1,99 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A shim that is filled with Java version-specific overrides. This variant is for Java 9 and above.
+ *
+ * The {@code select(Consumer)} methods override the ones introduced with Java 11; they pass the
+ * ready keys directly to the given action, without modifying the selected-key set.
+ *
+ * @author Christian Kohlschütter
+ */
+abstract class SelectorShim extends AbstractSelector {
+  private Consumer<SelectionKey> action = null; // guarded by this
+
+  protected SelectorShim(SelectorProvider provider) {
+    super(provider);
+  }
+
+  abstract int lockAndSelect(int timeout) throws IOException;
+
+  /**
+   * Checks if ready keys are currently passed to an action instead of the selected-key set.
+   *
+   * @return {@code true} if so.
+   */
+  final boolean isDispatching() {
+    return action != null;
+  }
+
+  /**
+   * Passes the given ready key to the action of the current {@code select(Consumer)} operation, if
+   * any.
+   *
+   * @param key The key.
+   * @return {@code true} if the key was dispatched, {@code false} if it should be added to the
+   *         selected-key set.
+   */
+  final boolean dispatchReady(SelectionKey key) {
+    if (action == null) {
+      return false;
+    }
+    action.accept(key);
+    return true;
+  }
+
+  // @Override (Java 11)
+  public int select(Consumer<SelectionKey> selectAction, long timeout) throws IOException {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Timeout must not be negative");
+    }
+    return select1(selectAction, timeout == 0 ? -1 : (int) Math.min(timeout,
+        Integer.MAX_VALUE));
+  }
+
+  // @Override (Java 11)
+  public int select(Consumer<SelectionKey> selectAction) throws IOException {
+    return select1(selectAction, -1);
+  }
+
+  // @Override (Java 11)
+  public int selectNow(Consumer<SelectionKey> selectAction) throws IOException {
+    return select1(selectAction, 0);
+  }
+
+  private int select1(Consumer<SelectionKey> selectAction, int timeout) throws IOException {
+    Objects.requireNonNull(selectAction);
+    synchronized (this) {
+      this.action = selectAction;
+      try {
+        return lockAndSelect(timeout);
+      } finally {
+        this.action = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The wakeup primitive of a single {@link AFUNIXSelector}.
+ *
+ * Uses an {@code eventfd} where available, and a private, non-blocking pipe otherwise. Wakeups are
+ * coalesced: while a wakeup is pending (i.e., not yet consumed by the selector), further wakeups
+ * do not cause another system call.
+ *
+ * @author Christian Kohlschütter
+ */
+final class SelectorWakeup implements Closeable {
+  /**
+   * eventfd reads and writes are always 8 bytes (an unsigned 64-bit counter).
+   */
+  private static final int EVENTFD_MESSAGE_SIZE = 8;
+
+  private final FileDescriptor eventFd;
+  private final AFUNIXPipe pipe;
+  private final ByteBuffer message;
+  private final ByteBuffer receiveBuffer;
+
+  private boolean pending = false; // guarded by this
+  private boolean closed = false; // guarded by this
+
+  private SelectorWakeup(FileDescriptor eventFd, AFUNIXPipe pipe) {
+    this.eventFd = eventFd;
+    this.pipe = pipe;
+    if (eventFd != null) {
+      this.message = ByteBuffer.allocateDirect(EVENTFD_MESSAGE_SIZE).order(ByteOrder
+          .nativeOrder());
+      message.putLong(0, 1);
+      this.receiveBuffer = ByteBuffer.allocateDirect(EVENTFD_MESSAGE_SIZE);
+    } else {
+      this.message = ByteBuffer.allocateDirect(1);
+      this.receiveBuffer = ByteBuffer.allocateDirect(256);
+    }
+  }
+
+  /**
+   * Opens a new wakeup primitive.
+   *
+   * @param provider The selector provider.
+   * @return The new instance.
+   * @throws IOException on error.
+   */
+  static SelectorWakeup open(AFUNIXSelectorProvider provider) throws IOException {
+    FileDescriptor eventFd = new FileDescriptor();
+    if (NativeUnixSocket.initEventFd(eventFd)) {
+      return new SelectorWakeup(eventFd, null);
+    }
+
+    boolean success = false;
+    AFUNIXPipe pipe = provider.openSelectablePipe();
+    try {
+      pipe.source().configureBlocking(false);
+      pipe.sink().configureBlocking(false);
+      success = true;
+    } finally {
+      if (!success) {
+        pipe.close();
+      }
+    }
+    return new SelectorWakeup(null, pipe);
+  }
+
+  /**
+   * Returns the file descriptor that becomes readable upon wakeup.
+   *
+   * @return The file descriptor.
+   */
+  FileDescriptor fd() {
+    return eventFd != null ? eventFd : pipe.sourceFD();
+  }
+
+  /**
+   * Signals a wakeup, unless one is already pending, or this instance has been closed.
+   *
+   * @throws IOException on error.
+   */
+  synchronized void wakeup() throws IOException {
+    if (pending || closed) {
+      return;
+    }
+    message.clear();
+    if (eventFd != null) {
+      NativeUnixSocket.send(eventFd, message, 0, EVENTFD_MESSAGE_SIZE, null,
+          NativeUnixSocket.OPT_NON_SOCKET, null);
+    } else {
+      // a full pipe means a wakeup is already pending
+      pipe.sink().write(message);
+    }
+    pending = true;
+  }
+
+  /**
+   * Consumes all pending wakeups; to be called by the selector after {@link #fd()} was reported
+   * readable.
+   *
+   * @throws IOException on error.
+   */
+  synchronized void consume() throws IOException {
+    if (eventFd != null) {
+      // reading resets the counter
+      NativeUnixSocket.receive(eventFd, receiveBuffer, 0, EVENTFD_MESSAGE_SIZE, null,
+          NativeUnixSocket.OPT_NON_SOCKET, null, 0);
+    } else {
+      int read;
+      do {
+        receiveBuffer.clear();
+        read = pipe.source().read(receiveBuffer);
+      } while (read == receiveBuffer.capacity());
+    }
+    pending = false;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (eventFd != null) {
+      if (eventFd.valid()) {
+        NativeUnixSocket.close(eventFd);
+      }
+    } else {
+      pipe.close();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ordered access to {@code int} and {@code long} fields in a (shared) direct {@link ByteBuffer}.
+ * 
+ * This class (along with the Java 8-specific counterpart in src/main/java8) allows us to use
+ * {@link VarHandle}s where available.
+ * 
+ * @author Christian Kohlschütter
+ */
+final class SharedMemoryAccess {
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+      ByteOrder.nativeOrder());
+  private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder
+      .nativeOrder());
+
+  private SharedMemoryAccess() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Checks if ordered access is supported in this environment.
+   * 
+   * @throws UnsupportedOperationException if not.
+   */
+  static void checkSupported() {
+  }
+
+  static long getLongAcquire(ByteBuffer bb, int index) {
+    return (long) LONGS.getAcquire(bb, index);
+  }
+
+  static void setLongRelease(ByteBuffer bb, int index, long value) {
+    LONGS.setRelease(bb, index, value);
+  }
+
+  static int getIntVolatile(ByteBuffer bb, int index) {
+    return (int) INTS.getVolatile(bb, index);
+  }
+
+  static void setIntVolatile(ByteBuffer bb, int index, int value) {
+    INTS.setVolatile(bb, index, value);
+  }
+
+  static boolean compareAndSetInt(ByteBuffer bb, int index, int expected, int value) {
+    return INTS.compareAndSet(bb, index, expected, value);
+  }
+
+  static void fullFence() {
+    VarHandle.fullFence();
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.newsclub.net.unix.AFUNIXSelector.PollFd;
+
+/**
+ * Lets blocking socket operations wait for readiness without blocking in native code.
+ *
+ * A virtual thread (Java 21 and newer) that blocks in a native {@code recv} or {@code accept}
+ * pins its carrier thread. Instead, sockets used from virtual threads are switched to non-blocking
+ * mode under the hood (see {@link AFUNIXCore#configureNonBlockingIfVirtualThread()}), and whenever
+ * an operation would block, the virtual thread is parked until a shared {@code epoll} instance
+ * reports the file descriptor as ready. There is one such poller (with one platform daemon thread)
+ * for reads and accepts, and one for writes.
+ *
+ * Platform threads that use a socket that has been switched this way simply wait in
+ * {@code poll(2)}.
+ *
+ * This mechanism is only used where {@code epoll} is available, and can be disabled by setting
+ * the system property {@code org.newsclub.net.unix.virtualthreads.poller} to {@code false}.
+ *
+ * @author Christian Kohlschütter
+ */
+final class VirtualThreadPoller implements Runnable {
+  private static final String PROP_POLLER = "org.newsclub.net.unix.virtualthreads.poller";
+  private static final boolean POLLER_ENABLED = Boolean.valueOf(System.getProperty(PROP_POLLER,
+      "true"));
+
+  private static final MethodHandle IS_VIRTUAL = isVirtualMethod();
+
+  private static final int MAX_EVENTS = 256;
+
+  private final FileDescriptor epfd;
+  private final int ops;
+  private final Map<Integer, Waiters> waiters = new HashMap<>(); // guarded by this
+
+  /**
+   * The threads waiting for a particular file descriptor.
+   */
+  private static final class Waiters {
+    private final FileDescriptor fd;
+    private final List<Thread> threads = new ArrayList<>(1);
+
+    Waiters(FileDescriptor fd) {
+      this.fd = fd;
+    }
+
+    void unparkAll() {
+      for (Thread t : threads) {
+        LockSupport.unpark(t);
+      }
+    }
+  }
+
+  /**
+   * The pollers, initialized upon first use.
+   */
+  private static final class Pollers {
+    static final VirtualThreadPoller READ = open(SelectionKey.OP_READ, "read");
+    static final VirtualThreadPoller WRITE = READ == null ? null : open(SelectionKey.OP_WRITE,
+        "write");
+
+    static final boolean AVAILABLE = READ != null && WRITE != null;
+
+    private static VirtualThreadPoller open(int ops, String name) {
+      if (!POLLER_ENABLED || IS_VIRTUAL == null || !NativeUnixSocket.isLoaded()) {
+        return null;
+      }
+      FileDescriptor epfd = new FileDescriptor();
+      try {
+        if (!NativeUnixSocket.epollCreate(epfd)) {
+          return null;
+        }
+      } catch (IOException e) {
+        return null;
+      }
+      VirtualThreadPoller poller = new VirtualThreadPoller(epfd, ops);
+      Thread t = new Thread(poller, "junixsocket virtual thread poller (" + name + ")");
+      t.setDaemon(true);
+      t.start();
+      return poller;
+    }
+  }
+
+  private VirtualThreadPoller(FileDescriptor epfd, int ops) {
+    this.epfd = epfd;
+    this.ops = ops;
+  }
+
+  private static MethodHandle isVirtualMethod() {
+    try {
+      return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType
+          .methodType(boolean.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      // Java 20 or older
+      return null;
+    }
+  }
+
+  /**
+   * Checks if the current thread is a virtual thread that should rather be parked than block in
+   * native code.
+   *
+   * @return {@code true} if so.
+   */
+  static boolean isVirtualThread() {
+    if (IS_VIRTUAL == null) {
+      return false;
+    }
+    boolean virtual;
+    try {
+      virtual = (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+    } catch (Throwable e) { // NOPMD
+      return false;
+    }
+    return virtual && Pollers.AVAILABLE;
+  }
+
+  /**
+   * Waits until the given file descriptor may be ready for the given operation, the timeout
+   * elapses, or the thread is interrupted.
+   *
+   * Spurious returns are possible; the caller is expected to retry its operation and to check for
+   * the timeout.
+   *
+   * @param core The socket that is waited for.
+   * @param fd The file descriptor (must be in non-blocking mode).
+   * @param op {@link SelectionKey#OP_READ}, {@link SelectionKey#OP_ACCEPT}, or
+   *          {@link SelectionKey#OP_WRITE}.
+   * @param timeoutMillis The timeout in milliseconds, or 0 to wait indefinitely.
+   * @throws IOException on error.
+   */
+  static void await(AFUNIXCore core, FileDescriptor fd, int op, int timeoutMillis)
+      throws IOException {
+    if (isVirtualThread()) {
+      VirtualThreadPoller poller = (op == SelectionKey.OP_WRITE) ? Pollers.WRITE : Pollers.READ;
+      poller.park(core, fd, timeoutMillis);
+    } else {
+      NativeUnixSocket.poll(new PollFd(fd, op), timeoutMillis == 0 ? -1 : timeoutMillis);
+    }
+  }
+
+  /**
+   * Wakes up all threads waiting for the given file descriptor, e.g., because it is about to be
+   * closed.
+   *
+   * The socket has to be marked as closed before; threads that register afterwards see that, and
+   * don't park.
+   *
+   * @param fdNum The file descriptor number.
+   */
+  static void wakeup(int fdNum) {
+    if (Pollers.AVAILABLE) {
+      Pollers.READ.wakeup0(fdNum);
+      Pollers.WRITE.wakeup0(fdNum);
+    }
+  }
+
+  private void park(AFUNIXCore core, FileDescriptor fd, int timeoutMillis) throws IOException {
+    int fdNum = NativeUnixSocket.getFD(fd);
+    Thread t = Thread.currentThread();
+
+    synchronized (this) {
+      Waiters w = waiters.get(fdNum);
+      if (w != null && w.fd != fd) { // NOPMD
+        // stale entry; that file descriptor has been closed and its number reused
+        removeAndUnpark(fdNum);
+        w = null;
+      }
+      if (w == null) {
+        NativeUnixSocket.epollCtl(epfd, NativeUnixSocket.EPOLL_CTL_ADD, fd, ops, fdNum);
+        w = new Waiters(fd);
+        waiters.put(fdNum, w);
+      }
+      w.threads.add(t);
+    }
+
+    try {
+      if (core.isClosed()) {
+        // closed concurrently; its wakeup may have happened before we were registered
+        return;
+      }
+      if (timeoutMillis > 0) {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+      } else {
+        LockSupport.park(this);
+      }
+    } finally {
+      synchronized (this) {
+        Waiters w = waiters.get(fdNum);
+        if (w != null && w.threads.remove(t) && w.threads.isEmpty()) {
+          waiters.remove(fdNum);
+          epollDelete(w.fd);
+        }
+      }
+    }
+  }
+
+  private void wakeup0(int fdNum) {
+    synchronized (this) {
+      removeAndUnpark(fdNum);
+    }
+  }
+
+  private void removeAndUnpark(int fdNum) {
+    Waiters w = waiters.remove(fdNum);
+    if (w != null) {
+      epollDelete(w.fd);
+      w.unparkAll();
+    }
+  }
+
+  private void epollDelete(FileDescriptor fd) {
+    try {
+      NativeUnixSocket.epollCtl(epfd, NativeUnixSocket.EPOLL_CTL_DEL, fd, 0, 0);
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  @Override
+  public void run() {
+    int[] ids = new int[MAX_EVENTS];
+    int[] rops = new int[MAX_EVENTS];
+    while (true) { // NOPMD
+      int num;
+      try {
+        num = NativeUnixSocket.epollWait(epfd, -1, ids, rops);
+      } catch (IOException e) {
+        // should not happen for our private epoll instance; keep serving
+        continue;
+      }
+      synchronized (this) {
+        for (int i = 0; i < num; i++) {
+          // level-triggered; the entry is removed so it is not reported again
+          removeAndUnpark(ids[i]);
+        }
+      }
+    }
+  }
+}
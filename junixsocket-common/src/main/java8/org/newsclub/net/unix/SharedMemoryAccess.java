@@ -0,0 +1,71 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ordered access to {@code int} and {@code long} fields in a (shared) direct {@link ByteBuffer}.
+ * 
+ * This is the Java 8-specific counterpart, which does not support ordered access; all methods
+ * throw an {@link UnsupportedOperationException}.
+ * 
+ * @author Christian Kohlschütter
+ */
+final class SharedMemoryAccess {
+  private SharedMemoryAccess() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Checks if ordered access is supported in this environment.
+   * 
+   * @throws UnsupportedOperationException if not.
+   */
+  static void checkSupported() {
+    throw unsupported();
+  }
+
+  private static UnsupportedOperationException unsupported() {
+    return new UnsupportedOperationException("Shared memory requires Java 9 or later");
+  }
+
+  static long getLongAcquire(ByteBuffer bb, int index) {
+    throw unsupported();
+  }
+
+  static void setLongRelease(ByteBuffer bb, int index, long value) {
+    throw unsupported();
+  }
+
+  static int getIntVolatile(ByteBuffer bb, int index) {
+    throw unsupported();
+  }
+
+  static void setIntVolatile(ByteBuffer bb, int index, int value) {
+    throw unsupported();
+  }
+
+  static boolean compareAndSetInt(ByteBuffer bb, int index, int expected, int value) {
+    throw unsupported();
+  }
+
+  static void fullFence() {
+    throw unsupported();
+  }
+}
@@ -32,8 +32,10 @@ import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
 
@@ -189,4 +191,154 @@ public class AFUNIXDatagramSocketTest {
       }
     });
   }
+
+  @Test
+  public void testScatterGather() throws Exception {
+    AFUNIXSocketPair<AFUNIXDatagramChannel> pair = AFUNIXSocketPair.openDatagram();
+    try (AFUNIXDatagramChannel dc1 = pair.getSocket1(); //
+        AFUNIXDatagramChannel dc2 = pair.getSocket2()) {
+      ByteBuffer body = ByteBuffer.allocateDirect(16);
+      for (String payload : new String[] {"payload", "x"}) {
+        ByteBuffer header = ByteBuffer.wrap("HDR:".getBytes(StandardCharsets.US_ASCII));
+        body.clear();
+        body.put(payload.getBytes(StandardCharsets.US_ASCII));
+        body.flip();
+        assertEquals(4 + payload.length(), dc1.write(new ByteBuffer[] {header, body}));
+      }
+
+      // each datagram is received separately, scattered across both buffers
+      for (String payload : new String[] {"payload", "x"}) {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        ByteBuffer in = ByteBuffer.allocateDirect(32);
+        assertEquals(4 + payload.length(), dc2.read(new ByteBuffer[] {header, in}));
+        assertEquals("HDR:", new String(header.array(), StandardCharsets.US_ASCII));
+        in.flip();
+        byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+        assertEquals(payload, new String(bytes, StandardCharsets.US_ASCII));
+      }
+    }
+  }
+
+  @Test
+  public void testReceiveMultiple() throws Exception {
+    AFUNIXSocketAddress ds1Addr = AFUNIXSocketAddress.of(newTempFile());
+    AFUNIXSocketAddress ds2Addr = AFUNIXSocketAddress.of(newTempFile());
+
+    try (AFUNIXDatagramChannel dc1 = AFUNIXDatagramChannel.open();
+        AFUNIXDatagramChannel dc2 = AFUNIXDatagramChannel.open()) {
+      dc1.bind(ds1Addr);
+      dc2.bind(ds2Addr);
+      dc2.configureBlocking(false);
+
+      ByteBuffer[] dsts = new ByteBuffer[8];
+      for (int i = 0; i < dsts.length; i++) {
+        dsts[i] = (i % 2 == 0) ? ByteBuffer.allocate(16) : ByteBuffer.allocateDirect(16);
+      }
+      AFUNIXSocketAddress[] senders = new AFUNIXSocketAddress[dsts.length];
+      assertEquals(0, dc2.receive(dsts, senders));
+
+      for (int i = 0; i < 5; i++) {
+        dc1.send(ByteBuffer.wrap(("Hello" + i).getBytes(StandardCharsets.US_ASCII)), ds2Addr);
+      }
+
+      assertEquals(5, dc2.receive(dsts, senders));
+      for (int i = 0; i < dsts.length; i++) {
+        if (i < 5) {
+          dsts[i].flip();
+          byte[] bytes = new byte[dsts[i].remaining()];
+          dsts[i].get(bytes);
+          assertEquals("Hello" + i, new String(bytes, StandardCharsets.US_ASCII));
+          assertEquals(ds1Addr, senders[i]);
+        } else {
+          assertEquals(0, dsts[i].position());
+          assertNull(senders[i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReceiveFromAlternatingSenders() throws Exception {
+    AFUNIXSocketAddress ds1Addr = AFUNIXSocketAddress.of(newTempFile());
+    AFUNIXSocketAddress ds2Addr = AFUNIXSocketAddress.of(newTempFile());
+    AFUNIXSocketAddress ds3Addr = AFUNIXSocketAddress.of(newTempFile());
+
+    try (AFUNIXDatagramChannel dc1 = AFUNIXDatagramChannel.open();
+        AFUNIXDatagramChannel dc2 = AFUNIXDatagramChannel.open();
+        AFUNIXDatagramChannel dc3 = AFUNIXDatagramChannel.open()) {
+      dc1.bind(ds1Addr);
+      dc2.bind(ds2Addr);
+      dc3.bind(ds3Addr);
+
+      // received sender addresses are looked up in the address cache
+      ByteBuffer dst = ByteBuffer.allocate(16);
+      for (int i = 0; i < 6; i++) {
+        AFUNIXSocketAddress expected = (i % 2 == 0) ? ds1Addr : ds2Addr;
+        (i % 2 == 0 ? dc1 : dc2).send(ByteBuffer.wrap(new byte[] {(byte) i}), ds3Addr);
+        dst.clear();
+        AFUNIXSocketAddress sender = dc3.receive(dst);
+        assertEquals(expected, sender);
+        if (i >= 2) {
+          assertTrue(sender == expected, "Expected the cached instance"); // NOPMD
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSendMultiple() throws Exception {
+    AFUNIXSocketAddress ds1Addr = AFUNIXSocketAddress.of(newTempFile());
+    AFUNIXSocketAddress ds2Addr = AFUNIXSocketAddress.of(newTempFile());
+    AFUNIXSocketAddress ds3Addr = AFUNIXSocketAddress.of(newTempFile());
+
+    try (AFUNIXDatagramChannel dc1 = AFUNIXDatagramChannel.open();
+        AFUNIXDatagramChannel dc2 = AFUNIXDatagramChannel.open();
+        AFUNIXDatagramChannel dc3 = AFUNIXDatagramChannel.open()) {
+      dc1.bind(ds1Addr);
+      dc2.bind(ds2Addr);
+      dc3.bind(ds3Addr);
+
+      ByteBuffer[] srcs = new ByteBuffer[4];
+      for (int i = 0; i < srcs.length; i++) {
+        byte[] bytes = ("Hello" + i).getBytes(StandardCharsets.US_ASCII);
+        srcs[i] = (i % 2 == 0) ? ByteBuffer.wrap(bytes) : ByteBuffer.allocateDirect(16).put(bytes);
+        if (srcs[i].isDirect()) {
+          srcs[i].flip();
+        }
+      }
+      assertEquals(4, dc1.send(srcs, new AFUNIXSocketAddress[] {
+          ds2Addr, ds3Addr, ds2Addr, ds3Addr}));
+      for (ByteBuffer src : srcs) {
+        assertEquals(0, src.remaining());
+      }
+
+      ByteBuffer dst = ByteBuffer.allocate(16);
+      for (int i = 0; i < srcs.length; i++) {
+        dst.clear();
+        assertEquals(ds1Addr, (i % 2 == 0 ? dc2 : dc3).receive(dst));
+        dst.flip();
+        assertEquals("Hello" + i, new String(dst.array(), 0, dst.remaining(),
+            StandardCharsets.US_ASCII));
+      }
+
+      // fill dc2's receive queue, so that a batch can only be sent partially
+      dc1.configureBlocking(false);
+      ByteBuffer[] batch = new ByteBuffer[16];
+      AFUNIXSocketAddress[] targets = new AFUNIXSocketAddress[batch.length];
+      Arrays.fill(targets, ds2Addr);
+      int sent;
+      int attempts = 0;
+      do {
+        for (int i = 0; i < batch.length; i++) {
+          batch[i] = ByteBuffer.allocate(1024);
+        }
+        sent = dc1.send(batch, targets);
+      } while (sent == batch.length && ++attempts < 100000);
+      assertTrue(sent < batch.length);
+      for (int i = 0; i < batch.length; i++) {
+        assertEquals(i < sent ? 0 : 1024, batch[i].remaining());
+      }
+    }
+  }
 }
@@ -0,0 +1,133 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+
+import org.junit.jupiter.api.Test;
+
+@AFUNIXSocketCapabilityRequirement(AFUNIXSocketCapability.CAPABILITY_MEMORY_FILES)
+public class AFUNIXMemoryFileTest {
+  private static ByteBuffer createTestData(int size) {
+    ByteBuffer bb = ByteBuffer.allocate(size);
+    for (int i = 0; i < size; i++) {
+      bb.put((byte) (i * 7));
+    }
+    bb.flip();
+    return bb;
+  }
+
+  @Test
+  public void testCreateAndMap() throws Exception {
+    FileDescriptor fd = AFUNIXMemoryFile.create("test");
+    try (FileChannel fc = FileDescriptorCast.using(fd).as(FileChannel.class)) {
+      assertEquals(0, AFUNIXMemoryFile.getSeals(fd));
+      assertEquals(0, fc.size());
+      fc.write(createTestData(10000));
+      assertEquals(10000, fc.size());
+
+      MappedByteBuffer bb = FileDescriptorCast.using(fd).as(MappedByteBuffer.class);
+      assertTrue(fd.valid());
+      assertEquals(10000, bb.capacity());
+      assertFalse(bb.isReadOnly());
+      assertEquals(createTestData(10000), bb);
+
+      // changes are visible through the file
+      bb.put(0, (byte) 123);
+      ByteBuffer first = ByteBuffer.allocate(1);
+      assertEquals(1, fc.read(first, 0));
+      assertEquals(123, first.get(0));
+    }
+  }
+
+  @Test
+  public void testMapDoesNotLeakFileDescriptors() throws Exception {
+    File fdDir = new File("/proc/self/fd");
+    assumeTrue(fdDir.isDirectory(), "Cannot count open file descriptors");
+
+    FileDescriptor fd = AFUNIXMemoryFile.create("test", createTestData(100), 0);
+    try {
+      int before = fdDir.list().length;
+      for (int i = 0; i < 100; i++) {
+        assertEquals(100, FileDescriptorCast.using(fd).as(MappedByteBuffer.class).capacity());
+      }
+      assertTrue(fd.valid());
+      assertTrue(fdDir.list().length < before + 10, "File descriptors leaked");
+    } finally {
+      NativeUnixSocket.close(fd);
+    }
+  }
+
+  @Test
+  public void testSealed() throws Exception {
+    FileDescriptor fd = AFUNIXMemoryFile.create("test", createTestData(5000),
+        AFUNIXMemoryFile.SEAL_IMMUTABLE);
+    try {
+      assertEquals(AFUNIXMemoryFile.SEAL_IMMUTABLE, AFUNIXMemoryFile.getSeals(fd));
+      assertThrows(IOException.class, () -> AFUNIXMemoryFile.addSeals(fd,
+          AFUNIXMemoryFile.SEAL_FUTURE_WRITE));
+
+      MappedByteBuffer bb = FileDescriptorCast.using(fd).as(MappedByteBuffer.class);
+      assertTrue(bb.isReadOnly());
+      assertEquals(createTestData(5000), bb);
+      assertThrows(ReadOnlyBufferException.class, () -> bb.put(0, (byte) 1));
+    } finally {
+      NativeUnixSocket.close(fd);
+    }
+  }
+
+  @Test
+  public void testSendSealed() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket sock1 = pair.getSocket1().socket(); //
+        AFUNIXSocket sock2 = pair.getSocket2().socket()) {
+      FileDescriptor fd = AFUNIXMemoryFile.create("test", createTestData(100000),
+          AFUNIXMemoryFile.SEAL_IMMUTABLE);
+      try {
+        sock1.setOutboundFileDescriptors(fd);
+        sock1.getOutputStream().write(1);
+      } finally {
+        NativeUnixSocket.close(fd);
+      }
+
+      sock2.setAncillaryReceiveBufferSize(1024);
+      InputStream in = sock2.getInputStream();
+      assertEquals(1, in.read());
+      FileDescriptor[] fds = sock2.getReceivedFileDescriptors();
+      assertEquals(1, fds.length);
+
+      assertEquals(AFUNIXMemoryFile.SEAL_IMMUTABLE, AFUNIXMemoryFile.getSeals(fds[0]));
+      MappedByteBuffer bb = FileDescriptorCast.using(fds[0]).as(MappedByteBuffer.class);
+      NativeUnixSocket.close(fds[0]);
+      assertEquals(createTestData(100000), bb);
+    }
+  }
+}
@@ -37,6 +37,45 @@ public class AFUNIXPipeTest {
     testPipe0(true);
   }
 
+  @Test
+  public void testVectoredPipe() throws IOException {
+    testVectoredPipe0(false);
+  }
+
+  @Test
+  public void testVectoredSelectablePipe() throws IOException {
+    testVectoredPipe0(true);
+  }
+
+  private void testVectoredPipe0(boolean selectable) throws IOException {
+    // more buffers than can be passed to the kernel at once, but still within PIPE_BUF
+    ByteBuffer[] out = new ByteBuffer[100];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = (i % 2 == 0) ? ByteBuffer.allocate(1) : ByteBuffer.allocateDirect(1);
+      out[i].put((byte) i);
+      out[i].flip();
+    }
+    ByteBuffer[] in = {ByteBuffer.allocateDirect(30), ByteBuffer.allocate(70)};
+
+    AFUNIXSelectorProvider provider = AFUNIXSelectorProvider.provider();
+    AFUNIXPipe pipe = selectable ? provider.openSelectablePipe() : provider.openPipe();
+    try (SinkChannel sink = pipe.sink(); //
+        SourceChannel source = pipe.source()) {
+      assertEquals(out.length, sink.write(out));
+
+      long nRead = 0;
+      while (nRead < out.length) {
+        nRead += source.read(in);
+      }
+      assertEquals(out.length, nRead);
+      in[0].flip();
+      in[1].flip();
+      for (int i = 0; i < out.length; i++) {
+        assertEquals((byte) i, (i < 30 ? in[0] : in[1]).get());
+      }
+    }
+  }
+
   private void testPipe0(boolean selectable) throws IOException {
     ByteBuffer out = ByteBuffer.allocate(4);
     out.putInt(0x04030201);
@@ -23,14 +23,27 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.Test;
 
@@ -87,6 +100,256 @@ public class AFUNIXSelectorTest {
     });
   }
 
+  @Test
+  public void testManyKeys() throws Exception {
+    final int numPairs = 200;
+    List<AFUNIXSocketChannel> channels = new ArrayList<>();
+    List<SelectionKey> keys = new ArrayList<>();
+    try (Selector selector = provider.openSelector()) {
+      for (int i = 0; i < numPairs; i++) {
+        AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+        channels.add(pair.getSocket1());
+        channels.add(pair.getSocket2());
+        pair.getSocket2().configureBlocking(false);
+        keys.add(pair.getSocket2().register(selector, SelectionKey.OP_READ));
+      }
+      assertEquals(numPairs, selector.keys().size());
+      assertSelect(0, selector, false);
+
+      ByteBuffer bb = ByteBuffer.allocate(1);
+      for (int i : new int[] {3, 77, 150}) {
+        bb.clear();
+        channels.get(i * 2).write(bb);
+      }
+      assertSelect(3, selector, true);
+      assertEquals(new HashSet<>(Arrays.asList(keys.get(3), keys.get(77), keys.get(150))), selector
+          .selectedKeys());
+      assertEquals(SelectionKey.OP_READ, keys.get(77).readyOps());
+
+      keys.get(3).interestOps(0);
+      assertSelect(2, selector, false);
+
+      keys.get(77).cancel();
+      assertSelect(1, selector, false);
+      assertEquals(Collections.singleton(keys.get(150)), selector.selectedKeys());
+
+      channels.get(150 * 2 + 1).close();
+      assertSelect(0, selector, false);
+
+      keys.get(3).interestOps(SelectionKey.OP_READ);
+      assertSelect(1, selector, true);
+    } finally {
+      for (AFUNIXSocketChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  @Test
+  public void testPollSelectorChurn() throws Exception {
+    try (AFUNIXSelector selector = new AFUNIXSelector(provider)) {
+      List<AFUNIXSocketChannel> channels = new ArrayList<>();
+      List<SelectionKey> keys = new ArrayList<>();
+      try {
+        ByteBuffer bb = ByteBuffer.allocate(1);
+        for (int round = 0; round < 10; round++) {
+          for (int i = 0; i < 50; i++) {
+            AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+            channels.add(pair.getSocket1());
+            channels.add(pair.getSocket2());
+            pair.getSocket2().configureBlocking(false);
+            keys.add(pair.getSocket2().register(selector, SelectionKey.OP_READ));
+            bb.clear();
+            pair.getSocket1().write(bb);
+          }
+          // cancel every other key, in an order that moves slots around
+          for (int i = keys.size() - 1; i >= 0; i -= 2) {
+            keys.remove(i).cancel();
+          }
+          assertEquals(keys.size(), selector.keys().size());
+          assertSelect(keys.size(), selector, false);
+          assertEquals(new HashSet<>(keys), selector.selectedKeys());
+        }
+
+        // closing the file descriptor without cancelling the key removes it upon selection
+        SelectionKey key = keys.get(0);
+        NativeUnixSocket.close(((AFUNIXSocketChannel) key.channel()).getFileDescriptor());
+        assertEquals(keys.size() - 1, selector.selectNow());
+        assertFalse(selector.keys().contains(key));
+        assertFalse(key.isValid());
+      } finally {
+        for (AFUNIXSocketChannel channel : channels) {
+          channel.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEpollNoInterestAfterHangup() throws Exception {
+    try (Selector selector = provider.openSelector()) {
+      assumeTrue(selector instanceof AFUNIXEpollSelector, "epoll is not available");
+
+      AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+      try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+          AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+        sc2.configureBlocking(false);
+        SelectionKey key = sc2.register(selector, SelectionKey.OP_READ);
+        assertSelect(0, selector, false);
+
+        key.interestOps(0);
+        assertSelect(0, selector, false);
+
+        // the hang-up must not wake up the selector while nobody is interested in sc2
+        sc1.close();
+        long time = System.currentTimeMillis();
+        assertEquals(0, selector.select(300));
+        assertTrue(System.currentTimeMillis() - time >= 200, "select returned prematurely");
+
+        key.interestOps(SelectionKey.OP_READ);
+        assertSelect(1, selector, true);
+        assertEquals(SelectionKey.OP_READ, key.readyOps());
+      }
+    }
+  }
+
+  @Test
+  public void testEpollIdReuseAfterClose() throws Exception {
+    try (Selector selector = provider.openSelector()) {
+      assumeTrue(selector instanceof AFUNIXEpollSelector, "epoll is not available");
+
+      AFUNIXSocketPair<AFUNIXSocketChannel> pair1 = provider.openSocketChannelPair();
+      AFUNIXSocketPair<AFUNIXSocketChannel> pair2 = provider.openSocketChannelPair();
+      FileDescriptor duplicate = new FileDescriptor();
+      try (AFUNIXSocketChannel sc1 = pair1.getSocket1(); //
+          AFUNIXSocketChannel sc2 = pair1.getSocket2(); //
+          AFUNIXSocketChannel sc3 = pair2.getSocket1(); //
+          AFUNIXSocketChannel sc4 = pair2.getSocket2()) {
+        sc2.configureBlocking(false);
+        SelectionKey key2 = sc2.register(selector, SelectionKey.OP_READ);
+        assertSelect(0, selector, false);
+
+        // another copy of the file descriptor keeps the underlying socket open
+        NativeUnixSocket.duplicate(sc2.getFileDescriptor(), duplicate);
+        sc2.close();
+        assertFalse(key2.isValid());
+        assertSelect(0, selector, false);
+
+        // the new key may reuse the identifier of the cancelled one, and must not see its events
+        sc4.configureBlocking(false);
+        SelectionKey key4 = sc4.register(selector, SelectionKey.OP_READ);
+        assertSelect(0, selector, false);
+
+        ByteBuffer bb = ByteBuffer.allocate(1);
+        sc3.write(bb);
+        assertSelect(1, selector, true);
+        assertEquals(Collections.singleton(key4), selector.selectedKeys());
+      } finally {
+        NativeUnixSocket.close(duplicate);
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentUpdatesPoll() throws Exception {
+    try (AFUNIXSelector selector = new AFUNIXSelector(provider)) {
+      assertConcurrentUpdates(selector);
+    }
+  }
+
+  @Test
+  public void testConcurrentUpdatesDefault() throws Exception {
+    try (Selector selector = provider.openSelector()) {
+      assertConcurrentUpdates(selector);
+    }
+  }
+
+  /**
+   * Changes interest ops, cancels and registers keys while another thread is selecting, and checks
+   * that the selector ends up with the expected state.
+   */
+  private void assertConcurrentUpdates(Selector selector) throws Exception {
+    final int numPairs = 50;
+    List<AFUNIXSocketChannel> channels = new ArrayList<>();
+    List<SelectionKey> keys = new ArrayList<>();
+    AtomicBoolean stop = new AtomicBoolean();
+    CompletableFuture<Integer> cf = new CompletableFuture<>();
+    try {
+      ByteBuffer bb = ByteBuffer.allocate(1);
+      for (int i = 0; i < numPairs; i++) {
+        keys.add(registerReadable(selector, channels, bb));
+      }
+
+      Thread selectThread = new Thread() {
+        @Override
+        public void run() {
+          int rounds = 0;
+          try {
+            while (!stop.get()) {
+              selector.select(1);
+              rounds++;
+            }
+          } catch (IOException | RuntimeException e) {
+            cf.completeExceptionally(e);
+            return;
+          }
+          cf.complete(rounds);
+        }
+      };
+      selectThread.start();
+
+      Random random = new Random(123);
+      for (int i = 0; i < 5000; i++) {
+        int index = random.nextInt(keys.size());
+        SelectionKey key = keys.get(index);
+        switch (random.nextInt(4)) {
+          case 0:
+            key.cancel();
+            keys.set(index, registerReadable(selector, channels, bb));
+            break;
+          case 1:
+            key.interestOps(0);
+            break;
+          default:
+            key.interestOps(SelectionKey.OP_READ);
+            break;
+        }
+        if (i % 100 == 0) {
+          selector.wakeup();
+        }
+      }
+      stop.set(true);
+      selector.wakeup();
+      assertTrue(cf.get(5, TimeUnit.SECONDS) > 0);
+
+      Set<SelectionKey> expected = new HashSet<>();
+      for (SelectionKey key : keys) {
+        if (key.interestOps() != 0) {
+          expected.add(key);
+        }
+      }
+      assertEquals(new HashSet<>(keys), selector.keys());
+      assertSelect(expected.size(), selector, false);
+      assertEquals(expected, selector.selectedKeys());
+    } finally {
+      stop.set(true);
+      for (AFUNIXSocketChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  private SelectionKey registerReadable(Selector selector, List<AFUNIXSocketChannel> channels,
+      ByteBuffer bb) throws IOException {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    channels.add(pair.getSocket1());
+    channels.add(pair.getSocket2());
+    bb.clear();
+    pair.getSocket1().write(bb);
+    pair.getSocket2().configureBlocking(false);
+    return pair.getSocket2().register(selector, SelectionKey.OP_READ);
+  }
+
   @Test
   public void testCancelSelect() throws Exception {
     Selector selector = provider.openSelector();
@@ -109,4 +372,170 @@ public class AFUNIXSelectorTest {
     selector.wakeup();
     assertEquals(0, cf.get(5, TimeUnit.SECONDS));
   }
+
+  @Test
+  public void testWakeupIsolated() throws Exception {
+    try (Selector sel1 = provider.openSelector(); Selector sel2 = provider.openSelector()) {
+      CompletableFuture<Integer> cf = new CompletableFuture<>();
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            cf.complete(sel2.select());
+          } catch (IOException e) {
+            cf.completeExceptionally(e);
+          }
+        }
+      }.start();
+
+      // coalesced into a single wakeup, which must not affect the other selector
+      sel1.wakeup();
+      sel1.wakeup();
+      sel1.wakeup();
+      assertEquals(0, sel1.select());
+      long time = System.currentTimeMillis();
+      assertEquals(0, sel1.select(200));
+      assertTrue(System.currentTimeMillis() - time >= 100, "Wakeup should have been consumed");
+      assertFalse(cf.isDone());
+
+      sel2.wakeup();
+      assertEquals(0, cf.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testWakeupAfterClose() throws Exception {
+    Selector selector = provider.openSelector();
+    selector.close();
+    // must neither throw nor touch the closed wakeup file descriptor
+    selector.wakeup();
+    selector.wakeup();
+  }
+
+  @Test
+  public void testSelectConsumer() throws Exception {
+    List<AFUNIXSocketChannel> channels = new ArrayList<>();
+    try (AFUNIXSelector selector = (AFUNIXSelector) provider.openSelector()) {
+      List<SelectionKey> keys = new ArrayList<>();
+      ByteBuffer bb = ByteBuffer.allocate(1);
+      for (int i = 0; i < 10; i++) {
+        AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+        channels.add(pair.getSocket1());
+        channels.add(pair.getSocket2());
+        pair.getSocket2().configureBlocking(false);
+        keys.add(pair.getSocket2().register(selector, SelectionKey.OP_READ));
+        if (i % 3 == 0) {
+          bb.clear();
+          pair.getSocket1().write(bb);
+        }
+      }
+
+      assertSelect(4, selector, false);
+      Set<SelectionKey> selected = new HashSet<>(selector.selectedKeys());
+
+      // the selected-key set is not touched by select(Consumer)
+      Set<SelectionKey> dispatched = new HashSet<>();
+      assertEquals(4, selector.selectNow((k) -> {
+        assertEquals(SelectionKey.OP_READ, k.readyOps());
+        assertTrue(dispatched.add(k));
+      }));
+      assertEquals(selected, dispatched);
+      assertEquals(selected, selector.selectedKeys());
+
+      dispatched.clear();
+      assertEquals(4, selector.select((k) -> dispatched.add(k), 1000));
+      assertEquals(selected, dispatched);
+
+      // cancelling keys from within the action
+      assertEquals(4, selector.select((k) -> k.cancel()));
+      assertEquals(6, selector.keys().size());
+      assertEquals(0, selector.selectNow((k) -> dispatched.add(k)));
+
+      // removing from the selected-key set
+      keys.get(1).interestOps(SelectionKey.OP_WRITE);
+      keys.get(2).interestOps(SelectionKey.OP_WRITE);
+      assertSelect(2, selector, false);
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+      it.next();
+      it.remove();
+      assertEquals(1, selector.selectedKeys().size());
+      assertTrue(it.hasNext());
+      assertTrue(selector.selectedKeys().contains(it.next()));
+      assertFalse(it.hasNext());
+    } finally {
+      for (AFUNIXSocketChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Checks that a steady-state select loop does not allocate any objects on the Java heap.
+   *
+   * @throws Exception on error.
+   */
+  @Test
+  public void testSelectAllocationFree() throws Exception {
+    // accessed via reflection, since java.management/jdk.management may not be available
+    Object bean;
+    Method getThreadAllocatedBytes;
+    try {
+      bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean")
+          .invoke(null);
+      getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod(
+          "getThreadAllocatedBytes", long.class);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      bean = null;
+      getThreadAllocatedBytes = null;
+    }
+    assumeTrue(getThreadAllocatedBytes != null && getThreadAllocatedBytes.getDeclaringClass()
+        .isInstance(bean), "Cannot measure allocations");
+    long threadId = Thread.currentThread().getId();
+
+    List<AFUNIXSocketChannel> channels = new ArrayList<>();
+    try (AFUNIXSelector selector = (AFUNIXSelector) provider.openSelector()) {
+      ByteBuffer bb = ByteBuffer.allocateDirect(1);
+      for (int i = 0; i < 100; i++) {
+        AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+        channels.add(pair.getSocket1());
+        channels.add(pair.getSocket2());
+        pair.getSocket2().configureBlocking(false);
+        pair.getSocket2().register(selector, SelectionKey.OP_READ);
+        if (i % 10 == 0) {
+          bb.clear();
+          pair.getSocket1().write(bb);
+        }
+      }
+
+      int[] numDispatched = new int[1];
+      Consumer<SelectionKey> action = (k) -> numDispatched[0]++;
+
+      final int iterations = 20000;
+      long allocatedBytes;
+      // repeat, so we don't count one-time allocations (class loading, JIT compilation etc.)
+      int rounds = 0;
+      do {
+        long before = (long) getThreadAllocatedBytes.invoke(bean, threadId);
+        long after = (long) getThreadAllocatedBytes.invoke(bean, threadId);
+        long overhead = after - before;
+
+        before = (long) getThreadAllocatedBytes.invoke(bean, threadId);
+        for (int i = 0; i < iterations; i++) {
+          selector.selectNow(action);
+          selector.selectNow();
+        }
+        after = (long) getThreadAllocatedBytes.invoke(bean, threadId);
+        allocatedBytes = after - before - overhead;
+        rounds++;
+      } while (allocatedBytes > 0 && rounds < 5);
+      assertEquals(10 * rounds * iterations, numDispatched[0], "Number of dispatched keys");
+      assertEquals(10, selector.selectedKeys().size());
+      assertTrue(allocatedBytes < iterations, "select should not allocate; allocated "
+          + allocatedBytes + " bytes in " + iterations + " iterations");
+    } finally {
+      for (AFUNIXSocketChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
 }
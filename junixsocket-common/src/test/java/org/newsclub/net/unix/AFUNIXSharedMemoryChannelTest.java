@@ -0,0 +1,264 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+public class AFUNIXSharedMemoryChannelTest {
+  private final AFUNIXSelectorProvider provider = AFUNIXSelectorProvider.provider();
+
+  private AFUNIXSharedMemoryChannel[] openPair(int bufferSize) throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    CompletableFuture<AFUNIXSharedMemoryChannel> accepted = CompletableFuture.supplyAsync(() -> {
+      try {
+        return AFUNIXSharedMemoryChannel.accept(pair.getSocket2());
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    AFUNIXSharedMemoryChannel offered = AFUNIXSharedMemoryChannel.offer(pair.getSocket1(),
+        bufferSize);
+    return new AFUNIXSharedMemoryChannel[] {offered, accepted.get(5, TimeUnit.SECONDS)};
+  }
+
+  @Test
+  public void testPingPong() throws Exception {
+    AFUNIXSharedMemoryChannel[] pair = openPair(1000);
+    try (AFUNIXSharedMemoryChannel sc1 = pair[0]; //
+        AFUNIXSharedMemoryChannel sc2 = pair[1]) {
+      assertEquals(4096, sc1.getBufferSize());
+      assertEquals(4096, sc2.getBufferSize());
+
+      assertEquals(4, sc1.write(ByteBuffer.wrap("ping".getBytes(StandardCharsets.US_ASCII))));
+      ByteBuffer bb = ByteBuffer.allocate(16);
+      assertEquals(4, sc2.read(bb));
+      assertEquals("ping", new String(bb.array(), 0, 4, StandardCharsets.US_ASCII));
+
+      assertEquals(4, sc2.write(ByteBuffer.wrap("pong".getBytes(StandardCharsets.US_ASCII))));
+      bb.clear();
+      assertEquals(4, sc1.read(bb));
+      assertEquals("pong", new String(bb.array(), 0, 4, StandardCharsets.US_ASCII));
+    }
+  }
+
+  /**
+   * Counts the open file descriptors that refer to shared memory files created by
+   * {@link AFUNIXSharedMemoryChannel#offer(AFUNIXSocketChannel, int)}.
+   */
+  private static int countSharedMemoryFiles(File fdDir) {
+    int count = 0;
+    for (File f : fdDir.listFiles()) {
+      try {
+        if (Files.readSymbolicLink(f.toPath()).toString().contains("junixsocket-shm")) {
+          count++;
+        }
+      } catch (IOException e) {
+        // closed in the meantime
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testNoFileDescriptorLeak() throws Exception {
+    File fdDir = new File("/proc/self/fd");
+    assumeTrue(fdDir.isDirectory(), "Cannot list open file descriptors");
+
+    int before = countSharedMemoryFiles(fdDir);
+    for (int i = 0; i < 10; i++) {
+      AFUNIXSharedMemoryChannel[] pair = openPair(4096);
+      pair[0].close();
+      pair[1].close();
+    }
+    assertEquals(before, countSharedMemoryFiles(fdDir));
+  }
+
+  @Test
+  public void testLargeTransfer() throws Exception {
+    byte[] data = new byte[1000000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31);
+    }
+
+    AFUNIXSharedMemoryChannel[] pair = openPair(8192);
+    try (AFUNIXSharedMemoryChannel sc1 = pair[0]; //
+        AFUNIXSharedMemoryChannel sc2 = pair[1]) {
+      CompletableFuture<Void> written = CompletableFuture.runAsync(() -> {
+        try {
+          // odd-sized chunks so that writes wrap around the end of the ring buffer
+          ByteBuffer bb = ByteBuffer.wrap(data);
+          while (bb.hasRemaining()) {
+            ByteBuffer chunk = bb.duplicate();
+            chunk.limit(Math.min(bb.limit(), bb.position() + 12345));
+            bb.position(bb.position() + sc1.write(chunk));
+          }
+          sc1.close();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      ByteBuffer bb = ByteBuffer.allocateDirect(data.length);
+      while (bb.hasRemaining()) {
+        if (sc2.read(bb) < 0) {
+          break;
+        }
+      }
+      written.get(10, TimeUnit.SECONDS);
+      assertEquals(-1, sc2.read(ByteBuffer.allocate(1)));
+
+      assertFalse(bb.hasRemaining());
+      bb.flip();
+      byte[] received = new byte[data.length];
+      bb.get(received);
+      assertArrayEquals(data, received);
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    AFUNIXSharedMemoryChannel[] pair = openPair(4096);
+    try (AFUNIXSharedMemoryChannel sc1 = pair[0]; //
+        AFUNIXSharedMemoryChannel sc2 = pair[1]) {
+      sc1.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+      sc1.close();
+      assertFalse(sc1.isOpen());
+      assertThrows(ClosedChannelException.class, () -> sc1.read(ByteBuffer.allocate(1)));
+
+      // pending data is still delivered, followed by end-of-stream
+      ByteBuffer bb = ByteBuffer.allocate(16);
+      assertEquals(3, sc2.read(bb));
+      assertEquals(-1, sc2.read(bb));
+      assertThrows(IOException.class, () -> sc2.write(ByteBuffer.wrap(new byte[] {4})));
+    }
+  }
+
+  private static CompletableFuture<Void> writeAsync(AFUNIXSharedMemoryChannel sc, byte[] data) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (bb.hasRemaining()) {
+          ByteBuffer chunk = bb.duplicate();
+          chunk.limit(Math.min(bb.limit(), bb.position() + 777));
+          bb.position(bb.position() + sc.write(chunk));
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private static CompletableFuture<byte[]> readAsync(AFUNIXSharedMemoryChannel sc, int length) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        while (bb.hasRemaining()) {
+          if (sc.read(bb) < 0) {
+            break;
+          }
+        }
+        return bb.array();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @Test
+  public void testConcurrentReadWrite() throws Exception {
+    byte[] data1 = new byte[500000];
+    byte[] data2 = new byte[500000];
+    for (int i = 0; i < data1.length; i++) {
+      data1[i] = (byte) (i * 31);
+      data2[i] = (byte) (i * 17);
+    }
+
+    // both sides read and write at the same time, so doorbells for either direction have to be
+    // handed over between the reading and the writing thread
+    AFUNIXSharedMemoryChannel[] pair = openPair(4096);
+    try (AFUNIXSharedMemoryChannel sc1 = pair[0]; //
+        AFUNIXSharedMemoryChannel sc2 = pair[1]) {
+      CompletableFuture<byte[]> read1 = readAsync(sc1, data2.length);
+      CompletableFuture<byte[]> read2 = readAsync(sc2, data1.length);
+      CompletableFuture<Void> written1 = writeAsync(sc1, data1);
+      CompletableFuture<Void> written2 = writeAsync(sc2, data2);
+
+      written1.get(10, TimeUnit.SECONDS);
+      written2.get(10, TimeUnit.SECONDS);
+      assertArrayEquals(data2, read1.get(10, TimeUnit.SECONDS));
+      assertArrayEquals(data1, read2.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testCloseWakesBlockedRead() throws Exception {
+    AFUNIXSharedMemoryChannel[] pair = openPair(4096);
+    try (AFUNIXSharedMemoryChannel sc1 = pair[0]; //
+        AFUNIXSharedMemoryChannel sc2 = pair[1]) {
+      CompletableFuture<byte[]> read = readAsync(sc2, 1);
+      assertThrows(TimeoutException.class, () -> read.get(100, TimeUnit.MILLISECONDS));
+
+      sc2.close();
+      ExecutionException e = assertThrows(ExecutionException.class, () -> read.get(5,
+          TimeUnit.SECONDS));
+      assertTrue(e.getCause().getCause() instanceof ClosedChannelException, e.toString());
+    }
+  }
+
+  @Test
+  public void testInconsistentPositions() throws Exception {
+    AFUNIXSharedMemoryChannel[] pair = openPair(4096);
+    try (AFUNIXSharedMemoryChannel sc1 = pair[0]; //
+        AFUNIXSharedMemoryChannel sc2 = pair[1]) {
+      sc1.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+      // a misbehaving peer claims to have written more than fits into the ring buffer
+      Field field = AFUNIXSharedMemoryChannel.class.getDeclaredField("buffer");
+      field.setAccessible(true);
+      ByteBuffer shared = (ByteBuffer) field.get(sc1);
+      long writePos = shared.getLong(128);
+      shared.putLong(128, writePos + 1000000);
+
+      IOException e = assertThrows(IOException.class, () -> sc2.read(ByteBuffer.allocate(16)));
+      assertTrue(e.getMessage().startsWith("Inconsistent shared memory state"), e.toString());
+
+      // ... or to have read more than was written
+      shared.putLong(128, writePos - 4);
+      assertThrows(IOException.class, () -> sc2.read(ByteBuffer.allocate(16)));
+    }
+  }
+}
@@ -17,11 +17,32 @@
  */
 package org.newsclub.net.unix;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
@@ -64,4 +85,404 @@ public class AFUNIXSocketChannelTest {
     }
   }
 
+  @Test
+  public void testConnectionState() throws IOException {
+    AFUNIXSocketAddress sa = AFUNIXSocketAddress.of(SocketTestBase.newTempFile());
+
+    try (AFUNIXServerSocketChannel ssc = provider.openServerSocketChannel();
+        AFUNIXSocketChannel sc = provider.openSocketChannel()) {
+      ssc.bind(sa, 1);
+      assertFalse(sc.isConnected());
+
+      assertTrue(sc.connect(sa));
+      assertTrue(sc.isConnected());
+      assertTrue(sc.finishConnect());
+
+      try (AFUNIXSocketChannel accepted = ssc.accept()) {
+        assertTrue(accepted.isConnected());
+      }
+    }
+
+    // created from existing file descriptors; the state is determined once via the OS
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+      assertTrue(sc1.isConnected());
+      assertTrue(sc2.isConnected());
+    }
+  }
+
+  @Test
+  public void testScatterGather() throws IOException {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+      ByteBuffer header = ByteBuffer.allocate(4);
+      header.putInt(0x04030201);
+      header.flip();
+      ByteBuffer body = ByteBuffer.allocateDirect(6);
+      body.put("abcdef".getBytes(StandardCharsets.US_ASCII));
+      body.flip();
+      ByteBuffer trailer = ByteBuffer.wrap("XYZ".getBytes(StandardCharsets.US_ASCII));
+
+      assertEquals(13, sc1.write(new ByteBuffer[] {header, ByteBuffer.allocate(0), body, trailer}));
+      assertEquals(0, header.remaining());
+      assertEquals(0, body.remaining());
+      assertEquals(0, trailer.remaining());
+
+      ByteBuffer in1 = ByteBuffer.allocateDirect(3);
+      ByteBuffer in2 = ByteBuffer.allocate(5);
+      ByteBuffer in3 = ByteBuffer.allocate(10);
+      long numRead = 0;
+      while (numRead < 13) {
+        numRead += sc2.read(new ByteBuffer[] {in1, in2, in3});
+      }
+      assertEquals(13, numRead);
+      in1.flip();
+      in2.flip();
+      in3.flip();
+      assertEquals(3, in1.remaining());
+      assertEquals(5, in2.remaining());
+      assertEquals(5, in3.remaining());
+
+      ByteBuffer all = ByteBuffer.allocate(13);
+      all.put(in1).put(in2).put(in3);
+      all.flip();
+      assertEquals(0x04030201, all.getInt());
+      byte[] rest = new byte[9];
+      all.get(rest);
+      assertEquals("abcdefXYZ", new String(rest, StandardCharsets.US_ASCII));
+    }
+  }
+
+  @Test
+  public void testBlockingEndOfStream() throws IOException {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+      sc1.write(ByteBuffer.wrap(new byte[] {42}));
+      sc1.shutdownOutput();
+
+      ByteBuffer bb = ByteBuffer.allocateDirect(8);
+      assertEquals(1, sc2.read(bb));
+      assertEquals(42, bb.get(0));
+      assertEquals(-1, sc2.read(bb));
+      assertEquals(-1, sc2.read(ByteBuffer.allocate(8)));
+      assertEquals(-1, sc2.read(new ByteBuffer[] {ByteBuffer.allocate(4), ByteBuffer
+          .allocateDirect(4)}));
+
+      // a read into a full buffer is not end-of-stream
+      assertEquals(0, sc2.read(ByteBuffer.allocate(0)));
+    }
+  }
+
+  @Test
+  public void testNonBlockingEndOfStream() throws IOException {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+      sc2.configureBlocking(false);
+
+      ByteBuffer bb = ByteBuffer.allocateDirect(8);
+      assertEquals(0, sc2.read(bb), "No data available yet");
+      assertEquals(0, sc2.read(new ByteBuffer[] {bb}), "No data available yet");
+
+      sc1.shutdownOutput();
+      assertEquals(-1, sc2.read(bb));
+      assertEquals(-1, sc2.read(ByteBuffer.allocate(8)));
+      assertEquals(-1, sc2.read(new ByteBuffer[] {bb}));
+    }
+  }
+
+  @Test
+  public void testNonBlockingStreamReadWithoutData() throws IOException {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+      sc2.configureBlocking(false);
+      InputStream in = sc2.socket().getInputStream();
+
+      // neither a fake zero byte nor a zero-length read
+      assertThrows(SocketTimeoutException.class, in::read);
+      assertThrows(SocketTimeoutException.class, () -> in.read(new byte[8]));
+    }
+  }
+
+  @Test
+  public void testTransferFromFile() throws Exception {
+    File f = SocketTestBase.newTempFile();
+    byte[] data = new byte[100000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    Files.write(f.toPath(), data);
+    final int offset = 123;
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2(); //
+        FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      CompletableFuture<Long> sent = CompletableFuture.supplyAsync(() -> {
+        try {
+          long pos = offset;
+          while (pos < data.length) {
+            pos += sc1.transferFrom(fc, pos, Long.MAX_VALUE);
+          }
+          return pos - offset;
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      ByteBuffer bb = ByteBuffer.allocate(data.length - offset);
+      while (bb.hasRemaining()) {
+        if (sc2.read(bb) < 0) {
+          break;
+        }
+      }
+      assertEquals(data.length - offset, (long) sent.get());
+      assertEquals(0, fc.position());
+      assertEquals(0, sc1.transferFrom(fc, data.length, 10));
+
+      bb.flip();
+      assertEquals(data.length - offset, bb.remaining());
+      for (int i = offset; i < data.length; i++) {
+        assertEquals(data[i], bb.get());
+      }
+    } finally {
+      Files.deleteIfExists(f.toPath());
+    }
+  }
+
+  @Test
+  public void testTransferTo() throws Exception {
+    byte[] data = new byte[200000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31);
+    }
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> in = provider.openSocketChannelPair();
+    AFUNIXSocketPair<AFUNIXSocketChannel> out = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel src = in.getSocket1(); //
+        AFUNIXSocketChannel relay = in.getSocket2(); //
+        AFUNIXSocketChannel target = out.getSocket1(); //
+        AFUNIXSocketChannel dst = out.getSocket2()) {
+      CompletableFuture<Void> written = CompletableFuture.runAsync(() -> {
+        try {
+          ByteBuffer bb = ByteBuffer.wrap(data);
+          while (bb.hasRemaining()) {
+            src.write(bb);
+          }
+          src.shutdownOutput();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      CompletableFuture<Long> transferred = CompletableFuture.supplyAsync(() -> {
+        try {
+          long total = 0;
+          long n;
+          while ((n = relay.transferTo(Long.MAX_VALUE, target)) >= 0) {
+            total += n;
+          }
+          target.shutdownOutput();
+          return total;
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      ByteBuffer bb = ByteBuffer.allocate(data.length);
+      while (bb.hasRemaining()) {
+        if (dst.read(bb) < 0) {
+          break;
+        }
+      }
+      written.get();
+      assertEquals(data.length, (long) transferred.get());
+      assertEquals(-1, relay.transferTo(10, target));
+      assertArrayEquals(data, bb.array());
+    }
+  }
+
+  @Test
+  public void testRelay() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> left = provider.openSocketChannelPair();
+    AFUNIXSocketPair<AFUNIXSocketChannel> right = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel client = left.getSocket1(); //
+        AFUNIXSocketChannel proxyIn = left.getSocket2(); //
+        AFUNIXSocketChannel proxyOut = right.getSocket1(); //
+        AFUNIXSocketChannel server = right.getSocket2()) {
+      CompletableFuture<Void> relay = CompletableFuture.runAsync(() -> {
+        try {
+          proxyIn.relay(proxyOut);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      client.write(ByteBuffer.wrap("ping".getBytes(StandardCharsets.US_ASCII)));
+      client.shutdownOutput();
+      ByteBuffer bb = ByteBuffer.allocate(4);
+      while (bb.hasRemaining()) {
+        server.read(bb);
+      }
+      assertEquals("ping", new String(bb.array(), StandardCharsets.US_ASCII));
+
+      server.write(ByteBuffer.wrap("pong".getBytes(StandardCharsets.US_ASCII)));
+      server.shutdownOutput();
+      bb.clear();
+      while (bb.hasRemaining()) {
+        client.read(bb);
+      }
+      assertEquals("pong", new String(bb.array(), StandardCharsets.US_ASCII));
+
+      relay.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testRelayWithExecutor() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> left = provider.openSocketChannelPair();
+    AFUNIXSocketPair<AFUNIXSocketChannel> right = provider.openSocketChannelPair();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    AtomicInteger numTasks = new AtomicInteger();
+    try (AFUNIXSocketChannel client = left.getSocket1(); //
+        AFUNIXSocketChannel proxyIn = left.getSocket2(); //
+        AFUNIXSocketChannel proxyOut = right.getSocket1(); //
+        AFUNIXSocketChannel server = right.getSocket2()) {
+      CompletableFuture<Void> relay = CompletableFuture.runAsync(() -> {
+        try {
+          proxyIn.relay(proxyOut, (r) -> {
+            numTasks.incrementAndGet();
+            executor.execute(r);
+          });
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      server.write(ByteBuffer.wrap("pong".getBytes(StandardCharsets.US_ASCII)));
+      server.shutdownOutput();
+      ByteBuffer bb = ByteBuffer.allocate(4);
+      while (bb.hasRemaining()) {
+        client.read(bb);
+      }
+      assertEquals("pong", new String(bb.array(), StandardCharsets.US_ASCII));
+      client.shutdownOutput();
+
+      relay.get(10, TimeUnit.SECONDS);
+      assertEquals(1, numTasks.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testRelayFailsInBothDirections() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> left = provider.openSocketChannelPair();
+    AFUNIXSocketPair<AFUNIXSocketChannel> right = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel client = left.getSocket1(); //
+        AFUNIXSocketChannel proxyIn = left.getSocket2(); //
+        AFUNIXSocketChannel proxyOut = right.getSocket1(); //
+        AFUNIXSocketChannel server = right.getSocket2()) {
+      // data is pending in both directions, but neither side can be written to
+      client.write(ByteBuffer.wrap("ping".getBytes(StandardCharsets.US_ASCII)));
+      server.write(ByteBuffer.wrap("pong".getBytes(StandardCharsets.US_ASCII)));
+      proxyIn.shutdownOutput();
+      proxyOut.shutdownOutput();
+
+      // let the forward direction fail only after the reverse direction has failed on its own
+      CountDownLatch reverseDone = new CountDownLatch(1);
+      Executor executor = (r) -> new Thread(() -> {
+        try {
+          r.run();
+        } finally {
+          reverseDone.countDown();
+        }
+      }).start();
+      ByteChannel other = new ByteChannel() {
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+          return proxyOut.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+          try {
+            reverseDone.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          return proxyOut.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+          return proxyOut.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+          proxyOut.close();
+        }
+      };
+
+      IOException e = assertThrows(IOException.class, () -> proxyIn.relay(other, executor));
+      assertEquals(1, e.getSuppressed().length, "The reverse exception should be suppressed");
+      assertFalse(proxyIn.isOpen());
+      assertFalse(proxyOut.isOpen());
+    }
+  }
+
+  @Test
+  public void testCloseDuringTransferTo() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> in = provider.openSocketChannelPair();
+    AFUNIXSocketPair<AFUNIXSocketChannel> out = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel src = in.getSocket1(); //
+        AFUNIXSocketChannel relay = in.getSocket2(); //
+        AFUNIXSocketChannel target = out.getSocket1(); //
+        AFUNIXSocketChannel dst = out.getSocket2()) {
+      CompletableFuture<Long> transferred = CompletableFuture.supplyAsync(() -> {
+        try {
+          // blocks, since there's nothing to read
+          return relay.transferTo(Long.MAX_VALUE, target);
+        } catch (IOException e) {
+          return -2L;
+        }
+      });
+      Thread.sleep(100);
+
+      assertTimeoutPreemptively(Duration.ofSeconds(5), relay::close);
+      assertTrue(transferred.get(5, TimeUnit.SECONDS) < 0);
+    }
+  }
+
+  @Test
+  public void testRelayFailsWhileBlocked() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> left = provider.openSocketChannelPair();
+    AFUNIXSocketPair<AFUNIXSocketChannel> right = provider.openSocketChannelPair();
+    try (AFUNIXSocketChannel client = left.getSocket1(); //
+        AFUNIXSocketChannel proxyIn = left.getSocket2(); //
+        AFUNIXSocketChannel proxyOut = right.getSocket1(); //
+        AFUNIXSocketChannel server = right.getSocket2()) {
+      // relaying to proxyIn fails, while the other direction is blocked waiting for the client
+      proxyIn.shutdownOutput();
+      CompletableFuture<IOException> relay = CompletableFuture.supplyAsync(() -> {
+        try {
+          proxyIn.relay(proxyOut);
+          return null;
+        } catch (IOException e) {
+          return e;
+        }
+      });
+      Thread.sleep(100);
+      server.write(ByteBuffer.wrap("pong".getBytes(StandardCharsets.US_ASCII)));
+
+      // both channels are closed, which unblocks the other direction
+      assertTrue(relay.get(5, TimeUnit.SECONDS) != null);
+      assertFalse(proxyIn.isOpen());
+      assertFalse(proxyOut.isOpen());
+    }
+  }
 }
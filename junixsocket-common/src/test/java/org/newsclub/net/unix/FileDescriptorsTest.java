@@ -32,6 +32,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.time.Duration;
@@ -398,4 +399,101 @@ public class FileDescriptorsTest extends SocketTestBase {
       }
     }
   }
+
+  /**
+   * Sends the pipe's sink file descriptor from one socket to the other, and closes the local copy.
+   */
+  private static void sendSinkAndClose(AFUNIXPipe pipe, AFUNIXSocketChannel from,
+      AFUNIXSocketChannel to) throws IOException {
+    to.setAncillaryReceiveBufferSize(1024);
+    from.setOutboundFileDescriptors(pipe.sink().getFileDescriptor());
+    from.write(ByteBuffer.wrap(new byte[] {123}));
+    pipe.sink().close();
+
+    ByteBuffer bb = ByteBuffer.allocate(1);
+    assertEquals(1, to.read(bb));
+  }
+
+  private static void assertEndOfStream(AFUNIXPipe pipe) throws IOException {
+    // all copies of the pipe's sink file descriptor have been closed
+    @SuppressWarnings("resource")
+    FileInputStream in = new FileInputStream(pipe.source().getFileDescriptor());
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testReceivedFileDescriptorsAreMaterializedLazily() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2(); //
+        AFUNIXPipe pipe = AFUNIXPipe.open()) {
+      sendSinkAndClose(pipe, sc1, sc2);
+
+      AncillaryDataSupport ancSupp = sc2.socket().getAFImpl().ancillaryDataSupport;
+      assertEquals(1, ancSupp.receivedFileDescriptorsCount);
+      assertTrue(ancSupp.openReceivedFileDescriptors.isEmpty(),
+          "No FileDescriptor instances until asked for");
+
+      FileDescriptor[] fds = sc2.getReceivedFileDescriptors();
+      assertEquals(1, fds.length);
+      assertTrue(fds[0].valid());
+      assertEquals(0, ancSupp.receivedFileDescriptorsCount);
+      assertEquals(1, ancSupp.openReceivedFileDescriptors.size());
+      assertNull(sc2.getReceivedFileDescriptors());
+
+      new FileOutputStream(fds[0]).close();
+      assertTrue(ancSupp.openReceivedFileDescriptors.isEmpty());
+      assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertEndOfStream(pipe));
+    }
+  }
+
+  @Test
+  public void testClearClosesUnclaimedFileDescriptors() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2(); //
+        AFUNIXPipe pipe = AFUNIXPipe.open()) {
+      sendSinkAndClose(pipe, sc1, sc2);
+
+      sc2.clearReceivedFileDescriptors();
+      assertNull(sc2.getReceivedFileDescriptors());
+      assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertEndOfStream(pipe));
+    }
+  }
+
+  @Test
+  public void testCloseClosesUnclaimedFileDescriptors() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXPipe pipe = AFUNIXPipe.open()) {
+      try (AFUNIXSocketChannel sc2 = pair.getSocket2()) {
+        sendSinkAndClose(pipe, sc1, sc2);
+      }
+      assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertEndOfStream(pipe));
+    }
+  }
+
+  @Test
+  public void testTruncatedControlDataDoesNotLeakFileDescriptors() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocketChannel sc1 = pair.getSocket1(); //
+        AFUNIXSocketChannel sc2 = pair.getSocket2(); //
+        AFUNIXPipe pipe = AFUNIXPipe.open()) {
+      FileDescriptor sink = pipe.sink().getFileDescriptor();
+      sc1.setOutboundFileDescriptors(sink, sink, sink, sink);
+      sc1.write(ByteBuffer.wrap(new byte[] {123}));
+      pipe.sink().close();
+
+      // large enough for some, but not all file descriptors
+      sc2.socket().getAFImpl().ancillaryDataSupport.setAncillaryReceiveBufferSize0(24);
+      try {
+        sc2.read(ByteBuffer.allocate(1));
+      } catch (SocketException e) {
+        // expected ("No buffer space available"), but not all operating systems throw
+      }
+      sc2.clearReceivedFileDescriptors();
+
+      assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertEndOfStream(pipe));
+    }
+  }
 }
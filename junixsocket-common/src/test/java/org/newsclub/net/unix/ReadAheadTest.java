@@ -0,0 +1,128 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ReadAheadTest {
+  @Test
+  public void testReadAhead() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      assertEquals(0, s2.getReadAheadBufferSize());
+      s2.setReadAheadBufferSize(64);
+      assertEquals(64, s2.getReadAheadBufferSize());
+
+      DataOutputStream out = new DataOutputStream(s1.getOutputStream());
+      out.writeInt(0x04030201);
+      out.writeByte(5);
+      out.writeLong(Long.MAX_VALUE);
+      out.flush();
+
+      InputStream in = s2.getInputStream();
+      DataInputStream din = new DataInputStream(in);
+      assertEquals(0x04030201, din.readInt());
+      // the remaining bytes have been read ahead
+      assertEquals(9, in.available());
+      assertEquals(5, din.readByte());
+
+      s2.setReadAheadBufferSize(0);
+      // buffered data is not lost
+      assertEquals(Long.MAX_VALUE, din.readLong());
+
+      s1.shutdownOutput();
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testAvailableWhileReadBlocks() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      s2.setReadAheadBufferSize(64);
+      InputStream in = s2.getInputStream();
+
+      CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> {
+        try {
+          return in.read();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      Thread.sleep(100);
+
+      // neither call waits for the blocked read
+      assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+        assertEquals(0, in.available());
+        s2.setReadAheadBufferSize(128);
+      });
+
+      s1.getOutputStream().write(new byte[] {42, 43});
+      assertEquals(42, (int) read.get(5, TimeUnit.SECONDS));
+      assertEquals(1, in.available());
+      assertEquals(43, in.read());
+    }
+  }
+
+  @AFUNIXSocketCapabilityRequirement(AFUNIXSocketCapability.CAPABILITY_FILE_DESCRIPTORS)
+  @Test
+  public void testFileDescriptorsOfDataReadAhead() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      OutputStream out = s1.getOutputStream();
+      InputStream in = s2.getInputStream();
+
+      // setting the ancillary receive buffer first: read-ahead is not used
+      s2.setReadAheadBufferSize(64);
+      s2.setAncillaryReceiveBufferSize(1024);
+      out.write('A');
+      s1.setOutboundFileDescriptors(FileDescriptor.in);
+      out.write('B');
+      assertEquals('A', in.read());
+      assertNull(s2.getReceivedFileDescriptors());
+      assertEquals('B', in.read());
+      assertEquals(1, s2.getReceivedFileDescriptors().length);
+
+      // setting it after 'D' has been read ahead: the file descriptor is lost
+      s2.setAncillaryReceiveBufferSize(0);
+      out.write('C');
+      s1.setOutboundFileDescriptors(FileDescriptor.in);
+      out.write('D');
+      assertEquals('C', in.read());
+      s2.setAncillaryReceiveBufferSize(1024);
+      assertEquals('D', in.read());
+      assertNull(s2.getReceivedFileDescriptors());
+    }
+  }
+}
@@ -79,6 +79,48 @@ public class ReadWriteTest extends SocketTestBase {
     });
   }
 
+  /**
+   * Transfers chunks that are larger than what is staged on the native stack, and reads them into a
+   * non-zero offset of the target array.
+   */
+  @Test
+  public void testLargeByteArrays() {
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+      final byte[] data = new byte[NativeUnixSocket.STACK_BUFFER_SIZE * 8 + 17];
+      for (int i = 0; i < data.length; i++) {
+        data[i] = (byte) (i % 251);
+      }
+
+      AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+      try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+          AFUNIXSocket s2 = pair.getSocket2().socket()) {
+        Thread writer = new Thread(() -> {
+          try {
+            s1.getOutputStream().write(data);
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+        writer.start();
+
+        InputStream in = s2.getInputStream();
+        byte[] buf = new byte[data.length + 3];
+        int numReceived = 0;
+        int read;
+        while (numReceived < data.length && (read = in.read(buf, 3 + numReceived, data.length
+            - numReceived)) >= 0) {
+          numReceived += read;
+        }
+        writer.join();
+
+        assertEquals(data.length, numReceived);
+        byte[] received = new byte[numReceived];
+        System.arraycopy(buf, 3, received, 0, numReceived);
+        assertArrayEquals(data, received);
+      }
+    });
+  }
+
   private final class ByteArrayWritingServerThread extends ServerThread {
     public ByteArrayWritingServerThread() throws IOException {
       super();
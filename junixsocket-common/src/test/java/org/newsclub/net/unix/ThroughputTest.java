@@ -39,6 +39,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -64,6 +65,8 @@ import com.kohlschutter.util.SystemPropertyUtil;
  * <li><code>org.newsclub.net.unix.throughput-test.enabled</code> (0/1, default: 1)</li>
  * <li><code>org.newsclub.net.unix.throughput-test.payload-size</code> (bytes, e.g., 65536)</li>
  * <li><code>org.newsclub.net.unix.throughput-test.seconds</code> (default: 0)</li>
+ * <li><code>org.newsclub.net.unix.throughput-test.batch-size</code> (datagrams received at once in
+ * the batch tests, default: 32)</li>
  * </ul>
  *
  * @author Christian Kohlschütter
@@ -77,6 +80,8 @@ public class ThroughputTest extends SocketTestBase {
   private static final int NUM_SECONDS = SystemPropertyUtil.getIntSystemProperty(
       "org.newsclub.net.unix.throughput-test.seconds", 0);
   private static final int NUM_MILLISECONDS = Math.max(50, NUM_SECONDS * 1000);
+  private static final int BATCH_SIZE = SystemPropertyUtil.getIntSystemProperty(
+      "org.newsclub.net.unix.throughput-test.batch-size", 32);
 
   private static byte[] createTestData(int size) {
     byte[] buf = new byte[size];
@@ -171,6 +176,76 @@ public class ThroughputTest extends SocketTestBase {
     runTestJUnixSocketChannel(true);
   }
 
+  @Test
+  public void testJUnixSocketSharedMemoryChannel() throws Exception {
+    assumeTrue(ENABLED > 0, "Throughput tests are disabled");
+    assumeTrue(PAYLOAD_SIZE > 0, "Payload must be positive");
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSelectorProvider.getInstance()
+        .openSocketChannelPair();
+    CompletableFuture<AFUNIXSharedMemoryChannel> serverChannel = CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return AFUNIXSharedMemoryChannel.accept(pair.getSocket2());
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+
+    final AtomicBoolean keepRunning = new AtomicBoolean(true);
+    try (AFUNIXSharedMemoryChannel client = AFUNIXSharedMemoryChannel.offer(pair.getSocket1(),
+        Math.max(PAYLOAD_SIZE, 65536)); //
+        AFUNIXSharedMemoryChannel server = serverChannel.get()) {
+      CompletableFuture<Void> echo = CompletableFuture.runAsync(() -> {
+        ByteBuffer bb = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+        try {
+          while (server.read(bb) >= 0) {
+            bb.flip();
+            server.write(bb);
+            bb.clear();
+          }
+        } catch (IOException e) {
+          if (keepRunning.get()) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+
+      Executors.newSingleThreadScheduledExecutor().schedule(() -> {
+        keepRunning.set(false);
+      }, NUM_MILLISECONDS, TimeUnit.MILLISECONDS);
+
+      ByteBuffer bb = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+      bb.put(createTestData(PAYLOAD_SIZE));
+      bb.flip();
+
+      long readTotal = 0;
+      long time = System.currentTimeMillis();
+      while (keepRunning.get()) {
+        int remaining = client.write(bb);
+        bb.clear();
+
+        long read;
+        while (remaining > 0 && (read = client.read(bb)) >= 0) {
+          remaining -= read;
+          readTotal += read;
+        }
+        bb.flip();
+
+        int pos = ThreadLocalRandom.current().nextInt(bb.limit());
+        if ((bb.get(pos) & 0xFF) != (pos % 256)) {
+          throw new IllegalStateException("Unexpected response from read");
+        }
+      }
+      time = System.currentTimeMillis() - time;
+      reportResults("junixsocket shared memory", ((1000f * readTotal / time) / 1000f / 1000f)
+          + " MB/s for payload size " + PAYLOAD_SIZE);
+
+      client.close();
+      echo.get(5, TimeUnit.SECONDS);
+    }
+  }
+
   @Test
   @AvailabilityRequirement(classes = {"java.net.UnixDomainSocketAddress"}, //
       message = "This test requires Java 16 or later")
@@ -430,7 +505,23 @@ public class ThroughputTest extends SocketTestBase {
     testJUnixSocketDatagramChannel(true);
   }
 
+  @Test
+  @AFUNIXSocketCapabilityRequirement(AFUNIXSocketCapability.CAPABILITY_DATAGRAMS)
+  public void testJUnixSocketDatagramChannelBatch() throws Exception {
+    testJUnixSocketDatagramChannel(false, BATCH_SIZE);
+  }
+
+  @Test
+  @AFUNIXSocketCapabilityRequirement(AFUNIXSocketCapability.CAPABILITY_DATAGRAMS)
+  public void testJUnixSocketDatagramChannelBatchDirect() throws Exception {
+    testJUnixSocketDatagramChannel(true, BATCH_SIZE);
+  }
+
   private void testJUnixSocketDatagramChannel(boolean direct) throws Exception {
+    testJUnixSocketDatagramChannel(direct, 1);
+  }
+
+  private void testJUnixSocketDatagramChannel(boolean direct, int batchSize) throws Exception {
     AFUNIXSocketAddress dsAddr = AFUNIXSocketAddress.of(SocketTestBase.newTempFile());
     AFUNIXSocketAddress dcAddr = AFUNIXSocketAddress.of(SocketTestBase.newTempFile());
     assertNotEquals(dsAddr, dcAddr);
@@ -440,7 +531,8 @@ public class ThroughputTest extends SocketTestBase {
       ds.bind(dsAddr);
       dc.bind(dcAddr).connect(dsAddr);
 
-      testSocketDatagramChannel("junixsocket DatagramChannel", ds, dc, direct);
+      testSocketDatagramChannel("junixsocket DatagramChannel" + (batchSize > 1 ? " batch="
+          + batchSize : ""), ds, dc, direct, batchSize);
     }
   }
 
@@ -470,16 +562,16 @@ public class ThroughputTest extends SocketTestBase {
 
       assertNotEquals(ds.getLocalAddress(), dc.getLocalAddress());
 
-      testSocketDatagramChannel("UDP-Loopback DatagramChannel", ds, dc, direct);
+      testSocketDatagramChannel("UDP-Loopback DatagramChannel", ds, dc, direct, 1);
     }
   }
 
   private void testSocketDatagramChannel(String id, DatagramChannel ds, DatagramChannel dc,
-      boolean direct) throws IOException {
+      boolean direct, int batchSize) throws IOException {
     // FIXME investigate why we need to add a few more bytes (82) than the payload
     // the receiver blocks otherwise (not exactly the struct socket_addr_un).
     // smells like some TCP/IP overhead ... (?)
-    ds.setOption(StandardSocketOptions.SO_RCVBUF, (PAYLOAD_SIZE + 82));
+    ds.setOption(StandardSocketOptions.SO_RCVBUF, (PAYLOAD_SIZE + 82) * batchSize);
 
     AtomicBoolean keepRunning = new AtomicBoolean(true);
     Executors.newSingleThreadScheduledExecutor().schedule(() -> {
@@ -492,10 +584,26 @@ public class ThroughputTest extends SocketTestBase {
     new Thread() {
       @Override
       public void run() {
-        final ByteBuffer receiveBuffer = direct ? ByteBuffer.allocateDirect(PAYLOAD_SIZE)
-            : ByteBuffer.allocate(PAYLOAD_SIZE);
+        final ByteBuffer[] receiveBuffers = new ByteBuffer[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+          receiveBuffers[i] = direct ? ByteBuffer.allocateDirect(PAYLOAD_SIZE) : ByteBuffer
+              .allocate(PAYLOAD_SIZE);
+        }
+        final ByteBuffer receiveBuffer = receiveBuffers[0];
         try {
           while (!Thread.interrupted()) {
+            if (batchSize > 1) {
+              int received = ((AFUNIXDatagramChannel) ds).receive(receiveBuffers, null);
+              for (int i = 0; i < received; i++) {
+                int read = receiveBuffers[i].position();
+                receiveBuffers[i].rewind();
+                if (read != PAYLOAD_SIZE) {
+                  throw new IOException("Unexpected response length: " + read);
+                }
+                readTotal.addAndGet(read);
+              }
+              continue;
+            }
             int read = ds.read(receiveBuffer);
             receiveBuffer.rewind();
             if (read != PAYLOAD_SIZE && read != 0) {
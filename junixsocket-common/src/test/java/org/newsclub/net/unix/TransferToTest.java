@@ -0,0 +1,120 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+public class TransferToTest {
+  private static byte[] testData(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 7);
+    }
+    return data;
+  }
+
+  private static CompletableFuture<Void> writeAndShutdown(AFUNIXSocket socket, byte[] data) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        OutputStream out = socket.getOutputStream();
+        out.write(data);
+        out.flush();
+        socket.shutdownOutput();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  @Test
+  public void testTransferToFile() throws Exception {
+    byte[] data = testData(300000);
+    File f = SocketTestBase.newTempFile();
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      s2.setReadAheadBufferSize(64);
+      CompletableFuture<Void> written = writeAndShutdown(s1, data);
+
+      InputStream in = s2.getInputStream();
+      // leaves some bytes in the read-ahead buffer, which must be transferred first
+      assertEquals(data[0], (byte) in.read());
+
+      try (FileOutputStream fos = new FileOutputStream(f)) {
+        assertEquals(data.length - 1, in.transferTo(fos));
+      }
+      written.get();
+
+      byte[] expected = new byte[data.length - 1];
+      System.arraycopy(data, 1, expected, 0, expected.length);
+      assertArrayEquals(expected, Files.readAllBytes(f.toPath()));
+    } finally {
+      Files.deleteIfExists(f.toPath());
+    }
+  }
+
+  @Test
+  public void testTransferToStream() throws Exception {
+    byte[] data = testData(100000);
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      CompletableFuture<Void> written = writeAndShutdown(s1, data);
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      assertEquals(data.length, s2.getInputStream().transferTo(bos));
+      written.get();
+      assertArrayEquals(data, bos.toByteArray());
+    }
+  }
+
+  @Test
+  public void testTransferToFileTimeout() throws Exception {
+    File f = SocketTestBase.newTempFile();
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket(); //
+        FileOutputStream fos = new FileOutputStream(f)) {
+      s2.setSoTimeout(100);
+      s1.getOutputStream().write(testData(123));
+
+      SocketTimeoutException e = assertThrows(SocketTimeoutException.class, () -> s2
+          .getInputStream().transferTo(fos));
+      assertEquals(123, e.bytesTransferred);
+      assertEquals(123, f.length());
+    } finally {
+      Files.deleteIfExists(f.toPath());
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests blocking I/O from virtual threads (Java 21 and newer); skipped on older Java versions.
+ */
+public class VirtualThreadTest {
+  private static Thread startVirtual(Runnable task) throws Exception {
+    Method startVirtualThread;
+    try {
+      startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+    } catch (NoSuchMethodException e) {
+      startVirtualThread = null;
+    }
+    assumeTrue(startVirtualThread != null, "Virtual threads are not supported");
+
+    return (Thread) startVirtualThread.invoke(null, task);
+  }
+
+  private static <T> T callVirtual(Callable<T> callable) throws Exception {
+    FutureTask<T> task = new FutureTask<>(callable);
+    startVirtual(task);
+    return task.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testAcceptTimeout() throws Exception {
+    try (AFUNIXServerSocket server = AFUNIXServerSocket.newInstance()) {
+      server.bind(AFUNIXSocketAddress.of(SocketTestBase.newTempFile()));
+      server.setSoTimeout(100);
+
+      assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+        assertTrue(callVirtual(() -> {
+          assertThrows(SocketTimeoutException.class, server::accept);
+          return true;
+        }));
+      });
+    }
+  }
+
+  @Test
+  public void testBlockingReadWrite() throws Exception {
+    AFUNIXSocketAddress addr = AFUNIXSocketAddress.of(SocketTestBase.newTempFile());
+    try (AFUNIXServerSocket server = AFUNIXServerSocket.newInstance()) {
+      server.bind(addr);
+
+      try (AFUNIXSocket client = AFUNIXSocket.connectTo(addr);
+          Socket socket = callVirtual(server::accept)) {
+        socket.setSoTimeout(100);
+        InputStream in = socket.getInputStream();
+
+        // no data yet
+        assertTrue(callVirtual(() -> {
+          assertThrows(SocketTimeoutException.class, in::read);
+          return true;
+        }));
+
+        // the socket is still usable after a timeout
+        socket.setSoTimeout(0);
+        Thread writer = new Thread() {
+          @Override
+          public void run() {
+            try {
+              Thread.sleep(100);
+              client.getOutputStream().write(new byte[] {0, 42});
+              client.shutdownOutput();
+            } catch (InterruptedException | IOException e) {
+              e.printStackTrace();
+            }
+          }
+        };
+        writer.start();
+
+        assertEquals("0,42,-1", callVirtual(() -> in.read() + "," + in.read() + "," + in
+            .read()));
+        writer.join();
+
+        // a large write has to wait until the peer has read enough
+        final int total = 8 * 1024 * 1024;
+        Thread reader = new Thread() {
+          @Override
+          public void run() {
+            try {
+              InputStream clientIn = client.getInputStream();
+              byte[] buf = new byte[65536];
+              int read = 0;
+              int count;
+              while (read < total && (count = clientIn.read(buf)) != -1) {
+                read += count;
+              }
+            } catch (IOException e) {
+              e.printStackTrace();
+            }
+          }
+        };
+        reader.start();
+        callVirtual(() -> {
+          socket.getOutputStream().write(new byte[total]);
+          return null;
+        });
+        reader.join();
+      }
+    }
+  }
+
+  @Test
+  public void testTransferToFileTimeout() throws Exception {
+    File f = SocketTestBase.newTempFile();
+
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket(); //
+        FileOutputStream fos = new FileOutputStream(f)) {
+      s2.setSoTimeout(100);
+      s1.getOutputStream().write(new byte[124]);
+      InputStream in = s2.getInputStream();
+
+      assertEquals(123, (int) callVirtual(() -> {
+        assertEquals(0, in.read());
+        SocketTimeoutException e = assertThrows(SocketTimeoutException.class, () -> in
+            .transferTo(fos));
+        return e.bytesTransferred;
+      }));
+      assertEquals(123, f.length());
+    } finally {
+      Files.deleteIfExists(f.toPath());
+    }
+  }
+
+  @Test
+  public void testCloseWakesBlockedRead() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      InputStream in = s2.getInputStream();
+      FutureTask<Integer> task = new FutureTask<>(() -> {
+        try {
+          return in.read();
+        } catch (SocketException e) {
+          return -1;
+        }
+      });
+      startVirtual(task);
+
+      Thread.sleep(100); // let the virtual thread park
+      s2.close();
+      // just like a platform thread blocked in recv, the reader sees EOF or an exception
+      assertEquals(-1, (int) task.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testInterruptClosesSocket() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      InputStream in = s2.getInputStream();
+      FutureTask<Boolean> task = new FutureTask<>(() -> {
+        assertThrows(InterruptedIOException.class, in::read);
+        return Thread.currentThread().isInterrupted();
+      });
+      Thread t = startVirtual(task);
+
+      Thread.sleep(100); // let the virtual thread park
+      t.interrupt();
+      assertTrue(task.get(5, TimeUnit.SECONDS), "The interrupt status should be kept");
+      assertTrue(s2.isClosed());
+
+      // the peer sees the connection closed
+      assertEquals(-1, s1.getInputStream().read());
+    }
+  }
+
+  @Test
+  public void testChannelTransferToWaitsForData() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> source = AFUNIXSocketPair.open();
+    AFUNIXSocketPair<AFUNIXSocketChannel> target = AFUNIXSocketPair.open();
+    try (AFUNIXSocketChannel s1 = source.getSocket1(); //
+        AFUNIXSocketChannel s2 = source.getSocket2(); //
+        AFUNIXSocketChannel t1 = target.getSocket1(); //
+        AFUNIXSocketChannel t2 = target.getSocket2()) {
+      s1.write(ByteBuffer.wrap(new byte[1]));
+      FutureTask<Long> task = new FutureTask<>(() -> {
+        // switches the (blocking) socket to non-blocking mode under the hood
+        assertEquals(1, s2.read(ByteBuffer.allocate(1)));
+        return s2.transferTo(100, t1);
+      });
+      startVirtual(task);
+
+      Thread.sleep(100);
+      s1.write(ByteBuffer.wrap(new byte[10]));
+      assertEquals(10, (long) task.get(5, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class WriteCoalescingTest {
+  @Test
+  public void testWriteCoalescing() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      assertEquals(0, s1.getWriteCoalescingBufferSize());
+      s1.setWriteCoalescingBufferSize(16);
+      assertEquals(16, s1.getWriteCoalescingBufferSize());
+
+      OutputStream out = s1.getOutputStream();
+      DataOutputStream dout = new DataOutputStream(out);
+      dout.writeInt(0x04030201);
+      dout.writeByte(5);
+
+      InputStream in = s2.getInputStream();
+      // nothing has been sent yet
+      assertEquals(0, in.available());
+
+      dout.flush();
+      DataInputStream din = new DataInputStream(in);
+      assertEquals(0x04030201, din.readInt());
+      assertEquals(5, din.readByte());
+
+      // larger than the buffer: sent along with the buffered data
+      dout.writeByte(6);
+      byte[] large = new byte[100];
+      large[99] = 7;
+      dout.write(large);
+      assertEquals(6, din.readByte());
+      byte[] largeIn = new byte[100];
+      din.readFully(largeIn);
+      assertEquals(7, largeIn[99]);
+
+      dout.writeLong(Long.MAX_VALUE);
+      // disabling coalescing sends any buffered data
+      s1.setWriteCoalescingBufferSize(0);
+      assertEquals(Long.MAX_VALUE, din.readLong());
+    }
+  }
+
+  private static final int LARGE = 4 * 1024 * 1024; // more than fits into the socket buffer
+
+  private static byte[] pattern(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i * 31 + seed);
+    }
+    return data;
+  }
+
+  private static CompletableFuture<byte[]> readAll(InputStream in) {
+    return CompletableFuture.supplyAsync(() -> {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buf = new byte[65536];
+      int count;
+      try {
+        while ((count = in.read(buf)) != -1) {
+          bos.write(buf, 0, count);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return bos.toByteArray();
+    });
+  }
+
+  @Test
+  public void testFlushFailsAfterPartialWrite() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      s1.setWriteCoalescingBufferSize(LARGE);
+      // the peer doesn't read yet, so sending times out after some data has been sent
+      s1.setSoTimeout(100);
+
+      OutputStream out = s1.getOutputStream();
+      byte[] data = pattern(LARGE - 1, 0);
+      out.write(data);
+      assertThrows(SocketTimeoutException.class, out::flush);
+
+      CompletableFuture<byte[]> received = readAll(s2.getInputStream());
+      s1.setSoTimeout(0);
+      out.flush();
+      s1.shutdownOutput();
+
+      // nothing has been sent twice
+      assertArrayEquals(data, received.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testGatheredWriteFailsAfterPartialWrite() throws Exception {
+    AFUNIXSocketPair<AFUNIXSocketChannel> pair = AFUNIXSocketPair.open();
+    try (AFUNIXSocket s1 = pair.getSocket1().socket(); //
+        AFUNIXSocket s2 = pair.getSocket2().socket()) {
+      s1.setWriteCoalescingBufferSize(1024);
+      s1.setSoTimeout(100);
+
+      OutputStream out = s1.getOutputStream();
+      byte[] buffered = pattern(1000, 1);
+      out.write(buffered);
+      byte[] large = pattern(LARGE, 2);
+      SocketTimeoutException e = assertThrows(SocketTimeoutException.class, () -> out.write(
+          large));
+      assertTrue(e.bytesTransferred < large.length);
+
+      CompletableFuture<byte[]> received = readAll(s2.getInputStream());
+      s1.setSoTimeout(0);
+      out.flush();
+      s1.shutdownOutput();
+
+      byte[] expected = Arrays.copyOf(buffered, buffered.length + e.bytesTransferred);
+      System.arraycopy(large, 0, expected, buffered.length, e.bytesTransferred);
+      assertArrayEquals(expected, received.get(10, TimeUnit.SECONDS));
+    }
+  }
+}
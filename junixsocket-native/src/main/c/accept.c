@@ -64,7 +64,7 @@ JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_accept(
 
 #if defined(junixsocket_use_poll_for_accept)
     {
-        int ret = pollWithTimeout(env, fdServer, serverHandle, timeout);
+        int ret = pollWithTimeout(env, serverHandle, timeout);
         if(ret == 0) {
             _throwErrnumException(env, ETIMEDOUT, fdServer);
             return false;
@@ -54,6 +54,9 @@ struct cmsghdr* junixsocket_CMSG_NXTHDR (struct msghdr *mhdr, struct cmsghdr *cm
 static jclass class_AncillaryDataSupport = NULL;
 static jfieldID fieldID_ancillaryReceiveBuffer = NULL;
 static jfieldID fieldID_pendingFileDescriptors = NULL;
+static jfieldID fieldID_receivedFileDescriptorsBuffer = NULL;
+static jfieldID fieldID_receivedFileDescriptorsCount = NULL;
+static jmethodID methodID_growReceivedFileDescriptors = NULL;
 
 jfieldID getFieldID_ancillaryReceiveBuffer() {
     return fieldID_ancillaryReceiveBuffer;
@@ -66,11 +69,53 @@ void init_ancillary(JNIEnv *env) {
     class_AncillaryDataSupport = findClassAndGlobalRef(env, "org/newsclub/net/unix/AncillaryDataSupport");
     fieldID_ancillaryReceiveBuffer = (*env)->GetFieldID(env, class_AncillaryDataSupport, "ancillaryReceiveBuffer", "Ljava/nio/ByteBuffer;");
     fieldID_pendingFileDescriptors = (*env)->GetFieldID(env, class_AncillaryDataSupport, "pendingFileDescriptors", "[I");
+    fieldID_receivedFileDescriptorsBuffer = (*env)->GetFieldID(env, class_AncillaryDataSupport, "receivedFileDescriptorsBuffer", "[I");
+    fieldID_receivedFileDescriptorsCount = (*env)->GetFieldID(env, class_AncillaryDataSupport, "receivedFileDescriptorsCount", "I");
+    methodID_growReceivedFileDescriptors = (*env)->GetMethodID(env, class_AncillaryDataSupport, "growReceivedFileDescriptors", "(I)V");
 }
 void destroy_ancillary(JNIEnv *env) {
     releaseClassGlobalRef(env, class_AncillaryDataSupport);
     fieldID_ancillaryReceiveBuffer = NULL;
     fieldID_pendingFileDescriptors = NULL;
+    fieldID_receivedFileDescriptorsBuffer = NULL;
+    fieldID_receivedFileDescriptorsCount = NULL;
+    methodID_growReceivedFileDescriptors = NULL;
 }
 
+/*
+ * Appends received file descriptors to AncillaryDataSupport's preallocated buffer.
+ *
+ * No Java objects are allocated unless the buffer needs to grow; FileDescriptor instances
+ * are only created when the application asks for them.
+ *
+ * Returns false if an exception is pending.
+ */
+bool ancillary_receiveFileDescriptors(JNIEnv *env, jobject ancSupp, jint *fds, jint numFds) {
+    if((*env)->MonitorEnter(env, ancSupp) != JNI_OK) {
+        return false;
+    }
+
+    bool success = false;
+
+    jint count = (*env)->GetIntField(env, ancSupp, fieldID_receivedFileDescriptorsCount);
+    jintArray buf = (*env)->GetObjectField(env, ancSupp, fieldID_receivedFileDescriptorsBuffer);
+    jint capacity = buf == NULL ? 0 : (*env)->GetArrayLength(env, buf);
+
+    if(capacity - count < numFds) {
+        (*env)->CallVoidMethod(env, ancSupp, methodID_growReceivedFileDescriptors, count + numFds);
+        if((*env)->ExceptionCheck(env)) {
+            goto end;
+        }
+        buf = (*env)->GetObjectField(env, ancSupp, fieldID_receivedFileDescriptorsBuffer);
+    }
+
+    (*env)->SetIntArrayRegion(env, buf, count, numFds, fds);
+    (*env)->SetIntField(env, ancSupp, fieldID_receivedFileDescriptorsCount, count + numFds);
+
+    success = true;
+
+end:
+    (*env)->MonitorExit(env, ancSupp);
+    return success;
+}
 #endif
@@ -35,6 +35,8 @@ void destroy_ancillary(JNIEnv *env);
 jfieldID getFieldID_ancillaryReceiveBuffer();
 jfieldID getFieldID_pendingFileDescriptors();
 
+bool ancillary_receiveFileDescriptors(JNIEnv *env, jobject ancSupp, jint *fds, jint numFds);
+
 #endif
 
 #endif /* ancillary_h */
@@ -27,6 +27,7 @@ static int CAPABILITY_FILE_DESCRIPTORS = (1 << 2);
 static int CAPABILITY_ABSTRACT_NAMESPACE = (1 << 3);
 static int CAPABILITY_DATAGRAMS = (1 << 4);
 static int CAPABILITY_NATIVE_SOCKETPAIR = (1 << 5);
+static int CAPABILITY_MEMORY_FILES = (1 << 6);
 CK_IGNORE_UNUSED_VARIABLE_END
 
 /*
@@ -65,5 +66,9 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_capabilities(
     capabilities |= CAPABILITY_NATIVE_SOCKETPAIR;
 #endif
 
+#if defined(junixsocket_have_memfd)
+    capabilities |= CAPABILITY_MEMORY_FILES;
+#endif
+
     return capabilities;
 }
@@ -115,6 +115,12 @@ int clock_gettime(int ignored CK_UNUSED, struct timespec *spec);
 #    define WSA_FLAG_NO_HANDLE_INHERIT 0x80
 #  endif
 
+// WinSock has no readv/writev; we still describe scatter/gather buffers this way internally
+struct iovec {
+    void *iov_base;
+    size_t iov_len;
+};
+
 #else // not windows:
 #  include <sys/ioctl.h>
 #  include <sys/socket.h>
@@ -164,6 +170,36 @@ extern "C" {
 #  define JUNIXSOCKET_HARDEN_CMSG_NXTHDR 1
 #endif
 
+#if defined(MSG_WAITFORONE)
+#  define junixsocket_have_mmsg
+#endif
+
+#define junixsocket_have_sendfile
+#include <sys/sendfile.h>
+
+#define junixsocket_have_splice
+
+#define junixsocket_have_epoll
+#include <sys/epoll.h>
+
+#define junixsocket_have_eventfd
+#include <sys/eventfd.h>
+
+#include <sys/syscall.h>
+#if defined(SYS_memfd_create)
+#  define junixsocket_have_memfd
+#  if !defined(MFD_CLOEXEC)
+#    define MFD_CLOEXEC 0x0001U
+#  endif
+#  if !defined(MFD_ALLOW_SEALING)
+#    define MFD_ALLOW_SEALING 0x0002U
+#  endif
+#  if !defined(F_ADD_SEALS)
+#    define F_ADD_SEALS 1033
+#    define F_GET_SEALS 1034
+#  endif
+#endif
+
 #endif
 
 // Solaris
@@ -380,3 +380,121 @@ JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_copyFileDescr
     _initHandle(env, target, (jlong)_getHandle(env, source));
 #endif
 }
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    initMemoryFile
+ * Signature: (Ljava/io/FileDescriptor;Ljava/lang/String;Z)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initMemoryFile
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jstring name, jboolean allowSealing)
+{
+#if defined(junixsocket_have_memfd)
+    const char *nameChars = (*env)->GetStringUTFChars(env, name, NULL);
+    if(nameChars == NULL) {
+        // OutOfMemoryError pending
+        return false;
+    }
+
+    unsigned int flags = MFD_CLOEXEC;
+    if(allowSealing) {
+        flags |= MFD_ALLOW_SEALING;
+    }
+
+    // call via syscall(2) so we don't depend on a recent libc
+    int handle = (int)syscall(SYS_memfd_create, nameChars, flags);
+    int errnum = errno;
+    (*env)->ReleaseStringUTFChars(env, name, nameChars);
+
+    if(handle < 0) {
+        if(errnum == ENOSYS) {
+            return false;
+        }
+        _throwErrnumException(env, errnum, NULL);
+        return false;
+    }
+    _initFD(env, fd, handle);
+    return true;
+#else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(env);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(name);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(allowSealing);
+    return false;
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    addSeals
+ * Signature: (Ljava/io/FileDescriptor;I)V
+ */
+JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_addSeals
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jint seals)
+{
+#if defined(junixsocket_have_memfd)
+    int handle = _getFD(env, fd);
+    if(fcntl(handle, F_ADD_SEALS, (int)seals) == -1) {
+        _throwErrnumException(env, errno, NULL);
+    }
+#else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(seals);
+    _throwException(env, kExceptionSocketException, "File sealing is not supported");
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    getSeals
+ * Signature: (Ljava/io/FileDescriptor;)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_getSeals
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd)
+{
+#if defined(junixsocket_have_memfd)
+    int handle = _getFD(env, fd);
+    int seals = fcntl(handle, F_GET_SEALS);
+    if(seals == -1) {
+        int errnum = errno;
+        if(errnum == EINVAL) {
+            // file does not support sealing
+            return 0;
+        }
+        _throwErrnumException(env, errnum, NULL);
+        return 0;
+    }
+    return seals;
+#else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(env);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+    return 0;
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    duplicate
+ * Signature: (Ljava/io/FileDescriptor;Ljava/io/FileDescriptor;)V
+ */
+JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_duplicate
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject source, jobject target)
+{
+#if defined(_WIN32)
+    CK_ARGUMENT_POTENTIALLY_UNUSED(source);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(target);
+    _throwException(env, kExceptionSocketException, "Unsupported");
+#else
+    int handle = _getFD(env, source);
+#  if defined(F_DUPFD_CLOEXEC)
+    int dupHandle = fcntl(handle, F_DUPFD_CLOEXEC, 0);
+#  else
+    int dupHandle = dup(handle);
+#  endif
+    if(dupHandle < 0) {
+        _throwErrnumException(env, errno, NULL);
+        return;
+    }
+    _initFD(env, target, dupHandle);
+#endif
+}
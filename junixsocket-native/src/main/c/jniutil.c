@@ -151,3 +151,38 @@ struct jni_direct_byte_buffer_ref getDirectByteBufferRef(JNIEnv *env, jobject by
 
     return ref;
 }
+
+int getIOVecs(JNIEnv *env, struct iovec *iov, jobjectArray buffers, jintArray offsets, jintArray lengths, jint numBuffers) {
+    if(numBuffers > junixsocket_max_iovecs) {
+        numBuffers = junixsocket_max_iovecs;
+    } else if(numBuffers <= 0) {
+        return 0;
+    }
+
+    jint offs[junixsocket_max_iovecs];
+    jint lens[junixsocket_max_iovecs];
+    (*env)->GetIntArrayRegion(env, offsets, 0, numBuffers, offs);
+    (*env)->GetIntArrayRegion(env, lengths, 0, numBuffers, lens);
+    if((*env)->ExceptionCheck(env)) {
+        return -1;
+    }
+
+    for(int i = 0; i < numBuffers; i++) {
+        jobject buffer = (*env)->GetObjectArrayElement(env, buffers, i);
+        if(buffer == NULL || offs[i] < 0 || lens[i] < 0) {
+            _throwException(env, kExceptionIndexOutOfBoundsException, "Illegal buffer");
+            return -1;
+        }
+        struct jni_direct_byte_buffer_ref ref = getDirectByteBufferRef(env, buffer, (size_t)offs[i], (size_t)lens[i]);
+        (*env)->DeleteLocalRef(env, buffer);
+        if(ref.size < lens[i]) {
+            _throwException(env, kExceptionSocketException, "Cannot get buffer");
+            return -1;
+        }
+
+        iov[i].iov_base = ref.buf;
+        iov[i].iov_len = (size_t)lens[i];
+    }
+
+    return numBuffers;
+}
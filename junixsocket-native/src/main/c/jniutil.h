@@ -54,4 +54,22 @@ struct jni_direct_byte_buffer_ref {
  */
 CK_VISIBILITY_INTERNAL struct jni_direct_byte_buffer_ref getDirectByteBufferRef(JNIEnv *env, jobject byteBuffer, size_t offset, size_t minSizeExpected);
 
+/**
+ * The maximum number of buffers considered for a single scattering read or gathering write.
+ * Any further buffers are left for a subsequent call.
+ */
+#if defined(IOV_MAX) && IOV_MAX < org_newsclub_net_unix_NativeUnixSocket_MAX_IOVECS
+#  define junixsocket_max_iovecs IOV_MAX
+#else
+#  define junixsocket_max_iovecs org_newsclub_net_unix_NativeUnixSocket_MAX_IOVECS
+#endif
+
+/**
+ * Fills the given iovec array (of size junixsocket_max_iovecs) from an array of direct byte buffers
+ * and corresponding offsets and lengths.
+ *
+ * Returns the number of iovecs used, or -1 if an exception was thrown.
+ */
+CK_VISIBILITY_INTERNAL int getIOVecs(JNIEnv *env, struct iovec *iov, jobjectArray buffers, jintArray offsets, jintArray lengths, jint numBuffers);
+
 #endif /* jniutil_h */
@@ -21,6 +21,8 @@ extern "C" {
 #define org_newsclub_net_unix_NativeUnixSocket_OPT_NON_BLOCKING 4L
 #undef org_newsclub_net_unix_NativeUnixSocket_OPT_NON_SOCKET
 #define org_newsclub_net_unix_NativeUnixSocket_OPT_NON_SOCKET 8L
+#undef org_newsclub_net_unix_NativeUnixSocket_OPT_STREAM
+#define org_newsclub_net_unix_NativeUnixSocket_OPT_STREAM 16L
 #undef org_newsclub_net_unix_NativeUnixSocket_SOCKETSTATUS_INVALID
 #define org_newsclub_net_unix_NativeUnixSocket_SOCKETSTATUS_INVALID -1L
 #undef org_newsclub_net_unix_NativeUnixSocket_SOCKETSTATUS_UNKNOWN
@@ -29,6 +31,10 @@ extern "C" {
 #define org_newsclub_net_unix_NativeUnixSocket_SOCKETSTATUS_BOUND 1L
 #undef org_newsclub_net_unix_NativeUnixSocket_SOCKETSTATUS_CONNECTED
 #define org_newsclub_net_unix_NativeUnixSocket_SOCKETSTATUS_CONNECTED 2L
+#undef org_newsclub_net_unix_NativeUnixSocket_STACK_BUFFER_SIZE
+#define org_newsclub_net_unix_NativeUnixSocket_STACK_BUFFER_SIZE 8192L
+#undef org_newsclub_net_unix_NativeUnixSocket_MAX_IOVECS
+#define org_newsclub_net_unix_NativeUnixSocket_MAX_IOVECS 64L
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    init
@@ -128,18 +134,18 @@ JNIEXPORT jclass JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_primaryType
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    read
- * Signature: (Ljava/io/FileDescriptor;[BIILorg/newsclub/net/unix/AncillaryDataSupport;I)I
+ * Signature: (Ljava/io/FileDescriptor;[BIILjava/nio/ByteBuffer;ILorg/newsclub/net/unix/AncillaryDataSupport;I)I
  */
 JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_read
-  (JNIEnv *, jclass, jobject, jbyteArray, jint, jint, jobject, jint);
+  (JNIEnv *, jclass, jobject, jbyteArray, jint, jint, jobject, jint, jobject, jint);
 
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    write
- * Signature: (Ljava/io/FileDescriptor;[BIILorg/newsclub/net/unix/AncillaryDataSupport;)I
+ * Signature: (Ljava/io/FileDescriptor;[BIILjava/nio/ByteBuffer;Lorg/newsclub/net/unix/AncillaryDataSupport;)I
  */
 JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_write
-  (JNIEnv *, jclass, jobject, jbyteArray, jint, jint, jobject);
+  (JNIEnv *, jclass, jobject, jbyteArray, jint, jint, jobject, jobject);
 
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
@@ -157,6 +163,62 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receive
 JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_send
   (JNIEnv *, jclass, jobject, jobject, jint, jint, jobject, jint, jobject);
 
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    receiveVectored
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[IIILorg/newsclub/net/unix/AncillaryDataSupport;I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receiveVectored
+  (JNIEnv *, jclass, jobject, jobjectArray, jintArray, jintArray, jint, jint, jobject, jint);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    sendVectored
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[IIILorg/newsclub/net/unix/AncillaryDataSupport;)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_sendVectored
+  (JNIEnv *, jclass, jobject, jobjectArray, jintArray, jintArray, jint, jint, jobject);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    receiveMultiple
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[I[IILjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receiveMultiple
+  (JNIEnv *, jclass, jobject, jobjectArray, jintArray, jintArray, jintArray, jint, jobject, jint, jint);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    sendMultiple
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[I[IILjava/nio/ByteBuffer;[II)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_sendMultiple
+  (JNIEnv *, jclass, jobject, jobjectArray, jintArray, jintArray, jintArray, jint, jobject, jintArray, jint);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    transferFrom
+ * Signature: (Ljava/io/FileDescriptor;Ljava/nio/channels/FileChannel;JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_transferFrom
+  (JNIEnv *, jclass, jobject, jobject, jlong, jlong);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    splice
+ * Signature: (Ljava/io/FileDescriptor;Ljava/io/FileDescriptor;J)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_splice
+  (JNIEnv *, jclass, jobject, jobject, jlong);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    channelFileDescriptor
+ * Signature: (Ljava/nio/channels/Channel;)Ljava/io/FileDescriptor;
+ */
+JNIEXPORT jobject JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_channelFileDescriptor
+  (JNIEnv *, jclass, jobject);
+
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    close
@@ -253,6 +315,38 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_getFD
 JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_copyFileDescriptor
   (JNIEnv *, jclass, jobject, jobject);
 
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    initMemoryFile
+ * Signature: (Ljava/io/FileDescriptor;Ljava/lang/String;Z)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initMemoryFile
+  (JNIEnv *, jclass, jobject, jstring, jboolean);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    addSeals
+ * Signature: (Ljava/io/FileDescriptor;I)V
+ */
+JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_addSeals
+  (JNIEnv *, jclass, jobject, jint);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    getSeals
+ * Signature: (Ljava/io/FileDescriptor;)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_getSeals
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    duplicate
+ * Signature: (Ljava/io/FileDescriptor;Ljava/io/FileDescriptor;)V
+ */
+JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_duplicate
+  (JNIEnv *, jclass, jobject, jobject);
+
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    attachCloseable
@@ -309,6 +403,14 @@ JNIEXPORT jobject JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_currentRMI
 JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initPipe
   (JNIEnv *, jclass, jobject, jobject, jboolean);
 
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    initEventFd
+ * Signature: (Ljava/io/FileDescriptor;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initEventFd
+  (JNIEnv *, jclass, jobject);
+
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    poll
@@ -317,6 +419,30 @@ JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initPipe
 JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_poll
   (JNIEnv *, jclass, jobject, jint);
 
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    epollCreate
+ * Signature: (Ljava/io/FileDescriptor;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_epollCreate
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    epollCtl
+ * Signature: (Ljava/io/FileDescriptor;ILjava/io/FileDescriptor;II)V
+ */
+JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_epollCtl
+  (JNIEnv *, jclass, jobject, jint, jobject, jint, jint);
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    epollWait
+ * Signature: (Ljava/io/FileDescriptor;I[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_epollWait
+  (JNIEnv *, jclass, jobject, jint, jintArray, jintArray);
+
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    configureBlocking
@@ -70,3 +70,29 @@ JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initPipe
 
      return false;
  }
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    initEventFd
+ * Signature: (Ljava/io/FileDescriptor;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_initEventFd
+ (JNIEnv *env, jclass clazz CK_UNUSED, jobject fd) {
+#if defined(junixsocket_have_eventfd)
+     int efd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+     if(efd == -1) {
+         if(errno == ENOSYS || errno == EINVAL) {
+             // not supported by the kernel; use a pipe instead
+             return false;
+         }
+         _throwErrnumException(env, errno, NULL);
+         return false;
+     }
+     _initFD(env, fd, efd);
+     return true;
+#else
+     CK_ARGUMENT_POTENTIALLY_UNUSED(env);
+     CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+     return false;
+#endif
+ }
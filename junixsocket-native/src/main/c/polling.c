@@ -27,12 +27,14 @@ static jclass class_PollFd = NULL;
 static jfieldID fieldID_fds = NULL;
 static jfieldID fieldID_ops = NULL;
 static jfieldID fieldID_rops = NULL;
+static jfieldID fieldID_numFds = NULL;
 
 void init_poll(JNIEnv *env) {
     class_PollFd = findClassAndGlobalRef(env, "org/newsclub/net/unix/AFUNIXSelector$PollFd");
     fieldID_fds = (*env)->GetFieldID(env, class_PollFd, "fds", "[Ljava/io/FileDescriptor;");
     fieldID_ops = (*env)->GetFieldID(env, class_PollFd, "ops", "[I");
     fieldID_rops = (*env)->GetFieldID(env, class_PollFd, "rops", "[I");
+    fieldID_numFds = (*env)->GetFieldID(env, class_PollFd, "numFds", "I");
 }
 
 void destroy_poll(JNIEnv *env) {
@@ -40,6 +42,7 @@ void destroy_poll(JNIEnv *env) {
     fieldID_fds = NULL;
     fieldID_ops = NULL;
     fieldID_rops = NULL;
+    fieldID_numFds = NULL;
 }
 
 static const int OP_READ = (1<<0);
@@ -81,48 +84,15 @@ static uint64_t timespecToMillis(struct timespec* ts) {
 /*
  * Waits until the connection is ready to read/accept.
  *
+ * The timeout is the socket timeout as tracked on the Java side (SO_TIMEOUT); we deliberately
+ * don't query SO_RCVTIMEO here, since that would cost an extra syscall for every read.
+ *
  * Returns -1 if an exception was thrown, 0 if a timeout occurred, 1 if ready.
  */
-jint pollWithTimeout(JNIEnv * env, jobject fd, int handle, int timeout) {
-#if defined(_WIN32)
-    DWORD optVal;
-#else
-    struct timeval optVal;
-#endif
-
-    socklen_t optLen = sizeof(optVal);
-    int ret = getsockopt(handle, SOL_SOCKET, SO_RCVTIMEO, WIN32_NEEDS_CHARP &optVal, &optLen);
-
-    uint64_t millis = 0;
-    if(ret != 0) {
-        if(socket_errno == ENOTSOCK) {
-#if defined(_WIN32)
-            optVal = 0;
-#else
-            optVal.tv_sec = 0;
-            optVal.tv_usec = 0;
-#endif
-        } else {
-            _throwSockoptErrnumException(env, socket_errno, fd);
-            return -1;
-        }
-    }
-#if defined(_WIN32)
-    if(optLen >= (socklen_t)sizeof(optVal)) {
-        millis = optVal;
-    }
-#else
-    if(optLen >= sizeof(optVal) && (optVal.tv_sec > 0 || optVal.tv_usec > 0)) {
-        millis = ((uint64_t)optVal.tv_sec * 1000) + (uint64_t)(optVal.tv_usec / 1000);
-    }
-#endif
-
-    if(timeout > 0 && millis < (uint64_t)timeout) {
-        // Some platforms (Windows) may not support SO_TIMEOUT, so let's override the timeout with our own value
-        millis = (uint64_t)timeout;
-    }
+jint pollWithTimeout(JNIEnv * env, int handle, int timeout) {
+    uint64_t millis = timeout > 0 ? (uint64_t)timeout : 0;
 
-    ret = pollWithMillis(handle, millis);
+    jint ret = pollWithMillis(handle, millis);
     if(ret == -1) {
         _throwErrnumException(env, errno, NULL);
     }
@@ -275,8 +245,11 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_poll
     }
 
     jobject fdsObj = (*env)->GetObjectField(env, pollFdObj, fieldID_fds);
-    jsize nfds = (*env)->GetArrayLength(env, fdsObj);
-    if(nfds == 0) {
+    jsize nfds = (*env)->GetIntField(env, pollFdObj, fieldID_numFds);
+    if(nfds > (*env)->GetArrayLength(env, fdsObj)) {
+        nfds = (*env)->GetArrayLength(env, fdsObj);
+    }
+    if(nfds <= 0) {
         return 0;
     }
 
@@ -291,10 +264,20 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_poll
         pollFd[i].events = opToEvent(buf[i]);
     }
 
+    int numInvalid = 0;
     for(int i=0; i<nfds;i++) {
         jobject fdObj = (*env)->GetObjectArrayElement(env, fdsObj, i);
         int fd = _getFD(env, fdObj);
+        (*env)->DeleteLocalRef(env, fdObj);
         pollFd[i].fd = fd;
+        if(fd < 0) {
+            // closed; ignored by poll
+            numInvalid++;
+        }
+    }
+    if(numInvalid > 0) {
+        // report invalid file descriptors right away
+        timeout = 0;
     }
 
 #if defined(_WIN32)
@@ -309,13 +292,157 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_poll
     }
 
     for(int i=0; i<nfds;i++) {
-        // FIXME check for POLLERR?
-        buf[i] &= eventToOp(pollFd[i].revents);
+        if(pollFd[i].fd < 0 || (pollFd[i].revents & POLLNVAL)) {
+            // see AFUNIXSelector.ROPS_INVALID
+            buf[i] = -1;
+        } else {
+            // FIXME check for POLLERR?
+            buf[i] &= eventToOp(pollFd[i].revents);
+        }
     }
     (*env)->SetIntArrayRegion(env, ropsObj, 0, nfds, buf);
+    ret += numInvalid;
 
 end:
     free(buf);
     free(pollFd);
     return ret;
 }
+
+#if defined(junixsocket_have_epoll)
+static uint32_t opToEpollEvents(int op) {
+    uint32_t events = 0;
+    if((op & OP_READ) || (op & OP_ACCEPT)) {
+        events |= EPOLLIN;
+    }
+    if((op & OP_WRITE) || (op & OP_CONNECT)) {
+        events |= EPOLLOUT;
+    }
+    return events;
+}
+
+static int epollEventsToOp(uint32_t events) {
+    int op = 0;
+    if((events & EPOLLIN)) {
+        op |= (OP_READ | OP_ACCEPT); // will be masked accordingly later
+    }
+    if((events & EPOLLOUT)) {
+        op |= (OP_WRITE | OP_CONNECT); // will be masked accordingly later
+    }
+    if((events & (EPOLLERR | EPOLLHUP))) {
+        // let the subsequent read/write/accept report the error or end-of-stream
+        op |= (OP_READ | OP_ACCEPT | OP_WRITE | OP_CONNECT);
+    }
+    return op;
+}
+#endif
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    epollCreate
+ * Signature: (Ljava/io/FileDescriptor;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_epollCreate
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd) {
+#if defined(junixsocket_have_epoll)
+    int handle = epoll_create1(EPOLL_CLOEXEC);
+    if(handle == -1) {
+        int errnum = errno;
+        if(errnum == ENOSYS) {
+            return false;
+        }
+        _throwErrnumException(env, errnum, NULL);
+        return false;
+    }
+    _initFD(env, fd, handle);
+    return true;
+#else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(env);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+    return false;
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    epollCtl
+ * Signature: (Ljava/io/FileDescriptor;ILjava/io/FileDescriptor;II)V
+ */
+JNIEXPORT void JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_epollCtl
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject epfd, jint op, jobject fd, jint ops, jint id) {
+#if defined(junixsocket_have_epoll)
+    int epHandle = _getFD(env, epfd);
+    int handle = _getFD(env, fd);
+
+    struct epoll_event event = {0};
+    event.events = opToEpollEvents(ops);
+    event.data.u64 = (uint32_t)id;
+
+    if(epoll_ctl(epHandle, op, handle, &event) == -1) {
+        int errnum = errno;
+        if(op == EPOLL_CTL_DEL && (errnum == EBADF || errnum == ENOENT)) {
+            // already removed (e.g., the file descriptor has been closed)
+            return;
+        }
+        _throwErrnumException(env, errnum, NULL);
+    }
+#else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(epfd);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(op);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(ops);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(id);
+    _throwException(env, kExceptionSocketException, "Unsupported");
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    epollWait
+ * Signature: (Ljava/io/FileDescriptor;I[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_epollWait
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject epfd, jint timeout, jintArray idsObj,
+ jintArray ropsObj) {
+#if defined(junixsocket_have_epoll)
+    int epHandle = _getFD(env, epfd);
+    jsize maxEvents = (*env)->GetArrayLength(env, idsObj);
+    if(maxEvents <= 0) {
+        return 0;
+    }
+
+    struct epoll_event* events = calloc(maxEvents, sizeof(struct epoll_event));
+    jint *buf = calloc(maxEvents, sizeof(jint));
+
+    int ret = epoll_wait(epHandle, events, maxEvents, timeout);
+    if(ret == -1) {
+        int errnum = errno;
+        ret = 0;
+        if(errnum != EINTR) {
+            _throwErrnumException(env, errnum, NULL);
+        }
+        goto end;
+    }
+
+    for(int i=0; i<ret; i++) {
+        buf[i] = (jint)events[i].data.u64;
+    }
+    (*env)->SetIntArrayRegion(env, idsObj, 0, ret, buf);
+    for(int i=0; i<ret; i++) {
+        buf[i] = epollEventsToOp(events[i].events);
+    }
+    (*env)->SetIntArrayRegion(env, ropsObj, 0, ret, buf);
+
+end:
+    free(buf);
+    free(events);
+    return ret;
+#else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(epfd);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(timeout);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(idsObj);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(ropsObj);
+    _throwException(env, kExceptionSocketException, "Unsupported");
+    return 0;
+#endif
+}
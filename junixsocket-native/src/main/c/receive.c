@@ -25,14 +25,83 @@
 #include "jniutil.h"
 #include "polling.h"
 
+// Native-only option flag (not exposed via NativeUnixSocket): receive without blocking
+#define OPT_DONTWAIT_INTERNAL (1 << 30)
+
 static int optToFlags(jint opt) {
     int flags = 0;
     if ((opt & (org_newsclub_net_unix_NativeUnixSocket_OPT_PEEK)) != 0) {
         flags |= MSG_PEEK;
     }
+#if defined(MSG_DONTWAIT)
+    if ((opt & OPT_DONTWAIT_INTERNAL) != 0) {
+        flags |= MSG_DONTWAIT;
+    }
+#endif
     return flags;
 }
 
+#if defined(junixsocket_use_poll_for_read)
+/*
+ * Waits until the socket is ready to read.
+ *
+ * Returns 1 if ready, 0 if there is no data on a non-blocking socket, -1 if an exception was thrown.
+ */
+static int pollForRead(JNIEnv *env, jobject fd, int handle, jint hardTimeoutMillis) {
+    int ret = pollWithTimeout(env, handle, hardTimeoutMillis);
+    if(ret < 1) {
+        if(checkNonBlocking(handle, socket_errno)) {
+            // non-blocking socket
+            return 0;
+        } else if(ret == -1) {
+            _throwErrnumException(env, errno, fd);
+            return -1;
+        } else {
+            // timeout on blocking socket
+            _throwException(env, kExceptionSocketTimeoutException, "timeout");
+            return -1;
+        }
+    }
+    return 1;
+}
+
+/*
+ * Performance: With a timeout, data is often already waiting (e.g., request/response), in which
+ * case polling first costs an extra syscall. Try a non-blocking receive first and only poll
+ * (with the full timeout) if that would block.
+ *
+ * Without a timeout, pollWithTimeout doesn't poll anyway.
+ */
+static bool tryReceiveBeforePoll(int opt, jint hardTimeoutMillis) {
+#  if defined(MSG_DONTWAIT)
+    // "read(2)" on pipes doesn't take flags
+    return hardTimeoutMillis > 0 && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_SOCKET) == 0;
+#  else
+    CK_ARGUMENT_POTENTIALLY_UNUSED(opt);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(hardTimeoutMillis);
+    return false;
+#  endif
+}
+
+/*
+ * Checks whether an optimistic non-blocking receive came up empty.
+ */
+static bool receiveWouldBlock(JNIEnv *env, ssize_t count) {
+    return count == -1 && (socket_errno == EAGAIN || socket_errno == EWOULDBLOCK)
+        && !(*env)->ExceptionCheck(env);
+}
+#endif
+
+/**
+ * Zeroes the part of a sender address that was not set by the kernel (e.g., for unbound senders),
+ * so we don't report stale data from an earlier datagram.
+ */
+static void clearUnsetAddressBytes(struct sockaddr_un *sender, socklen_t len) {
+    if(len < sizeof(struct sockaddr_un)) {
+        memset((char*)sender + len, 0, sizeof(struct sockaddr_un) - len);
+    }
+}
+
 ssize_t recv_wrapper(int handle, jbyte *buf, jint length, struct sockaddr_un *senderBuf, socklen_t *senderBufLen, int opt) {
 
     int flags = optToFlags(opt);
@@ -52,11 +121,89 @@ ssize_t recv_wrapper(int handle, jbyte *buf, jint length, struct sockaddr_un *se
     return count;
 }
 
+static ssize_t recv_iov_wrapper(int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *senderBuf, socklen_t *senderBufLen, int opt) {
+#if defined(_WIN32)
+    CK_ARGUMENT_POTENTIALLY_UNUSED(iovcnt);
+    // no scattering reads; only fill the first buffer
+    return recv_wrapper(handle, iov->iov_base, (jint)iov->iov_len, senderBuf, senderBufLen, opt);
+#else
+    if(iovcnt == 1) {
+        return recv_wrapper(handle, iov->iov_base, (jint)iov->iov_len, senderBuf, senderBufLen, opt);
+    }
+
+    int flags = optToFlags(opt);
+
+    ssize_t count;
+    if(senderBuf == NULL && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_SOCKET) != 0 && flags == 0) {
+        // "readv" can be used with pipes, too.
+        do {
+            count = readv(handle, iov, iovcnt);
+        } while(count == (ssize_t)-1 && (socket_errno == EINTR));
+        return count;
+    }
+
+    struct msghdr msg = {.msg_name = (struct sockaddr*)senderBuf, .msg_namelen = senderBufLen == NULL ? 0 : *senderBufLen, .msg_iov = iov, .msg_iovlen = iovcnt };
+    do {
+        count = recvmsg(handle, &msg, flags);
+    } while(count == (ssize_t)-1 && (socket_errno == EINTR));
+
+    if (senderBufLen != NULL) {
+        *senderBufLen = msg.msg_namelen;
+    }
+
+    return count;
+#endif
+}
+
 ssize_t recvmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struct sockaddr_un *senderBuf, socklen_t *senderBufLen, int opt, jobject ancSupp) {
+    struct iovec iov = {.iov_base = buf, .iov_len = (size_t)length};
+    return recvmsg_iov_wrapper(env, handle, &iov, 1, senderBuf, senderBufLen, opt, ancSupp);
+}
+
+#if defined(junixsocket_have_ancillary)
+/*
+ * Returns the number of file descriptors stored in the given SCM_RIGHTS message, taking a
+ * possibly truncated control buffer into account.
+ */
+static int cmsgNumFds(struct cmsghdr *cmsg, jbyte *control, socklen_t controlLen) {
+    char *endBytes = (char*)cmsg + cmsg->cmsg_len;
+    char *controlEnd = (char*)control + controlLen;
+    if(controlEnd < endBytes) {
+        endBytes = controlEnd;
+    }
+
+    unsigned char *data = CMSG_DATA(cmsg);
+    unsigned char *end = (unsigned char *)endBytes;
+    return (int)(end - data) / (int)sizeof(int);
+}
+
+/*
+ * Closes the file descriptors received via SCM_RIGHTS, starting at the given control message.
+ *
+ * Used when the receive fails after recvmsg returned, so these descriptors will never be handed
+ * over to AncillaryDataSupport.
+ */
+static void closeReceivedFileDescriptors(struct msghdr *msg, struct cmsghdr *cmsg, jbyte *control, socklen_t controlLen) {
+    for(; cmsg != NULL; cmsg = junixsocket_CMSG_NXTHDR(msg, cmsg)) {
+        if(cmsg->cmsg_level != SOL_SOCKET || cmsg->cmsg_type != SCM_RIGHTS) {
+            continue;
+        }
+        int numFds = cmsgNumFds(cmsg, control, controlLen);
+        CK_IGNORE_CAST_ALIGN_BEGIN // CMSG_DATA is suitably aligned for int
+        int *fds = (int*)CMSG_DATA(cmsg);
+        CK_IGNORE_CAST_ALIGN_END
+        for(int i = 0; i < numFds; i++) {
+            close(fds[i]);
+        }
+    }
+}
+#endif
+
+ssize_t recvmsg_iov_wrapper(JNIEnv * env, int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *senderBuf, socklen_t *senderBufLen, int opt, jobject ancSupp) {
 #if !defined(junixsocket_have_ancillary)
     CK_ARGUMENT_POTENTIALLY_UNUSED(env);
     CK_ARGUMENT_POTENTIALLY_UNUSED(ancSupp);
-    return recv_wrapper(handle, buf, length, senderBuf, senderBufLen, opt);
+    return recv_iov_wrapper(handle, iov, iovcnt, senderBuf, senderBufLen, opt);
 #else
 
     socklen_t controlLen;
@@ -82,15 +229,14 @@ ssize_t recvmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struc
 #endif
 
     if (control == NULL || controlLen == 0 || ancSupp == NULL) {
-        return recv_wrapper(handle, buf, length, senderBuf, senderBufLen, opt);
+        return recv_iov_wrapper(handle, iov, iovcnt, senderBuf, senderBufLen, opt);
     }
 
     int flags = optToFlags(opt);
 
     ssize_t count;
 
-    struct iovec iov = {.iov_base = buf, .iov_len = (size_t)length};
-    struct msghdr msg = {.msg_name = (struct sockaddr*)senderBuf, .msg_namelen = senderBufLen == NULL ? 0 : *senderBufLen, .msg_iov = &iov, .msg_iovlen = 1, .msg_control =
+    struct msghdr msg = {.msg_name = (struct sockaddr*)senderBuf, .msg_namelen = senderBufLen == NULL ? 0 : *senderBufLen, .msg_iov = iov, .msg_iovlen = iovcnt, .msg_control =
         control, .msg_controllen = controlLen, };
 
     do {
@@ -101,15 +247,24 @@ ssize_t recvmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struc
         *senderBufLen = msg.msg_namelen;
     }
 
-    if((msg.msg_flags & MSG_CTRUNC) != 0) {
-        errno = ENOBUFS;
-        count = -1;
+    if(count == (ssize_t)-1) {
+        // msg_controllen has not been updated; the control buffer holds stale data
         return count;
     }
 
     controlLen = msg.msg_controllen;
     control = msg.msg_control;
 
+    if((msg.msg_flags & MSG_CTRUNC) != 0) {
+        // the file descriptors that did fit into the control buffer have been received regardless
+        if(controlLen >= sizeof(struct cmsghdr)) {
+            closeReceivedFileDescriptors(&msg, CMSG_FIRSTHDR(&msg), control, controlLen);
+        }
+        errno = ENOBUFS;
+        count = -1;
+        return count;
+    }
+
     if(controlLen <= 0 || control == NULL || ancSupp == NULL) {
         return count;
     }
@@ -124,30 +279,20 @@ ssize_t recvmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struc
         junixsocket_CMSG_NXTHDR(&msg, cmsg)) {
         if(cmsg->cmsg_level == SOL_SOCKET
            && cmsg->cmsg_type == SCM_RIGHTS) {
-            char *endBytes = (char*)cmsg + cmsg->cmsg_len;
-            char *controlEnd = (char*)control + controlLen;
-            if(controlEnd < endBytes) {
-                endBytes = controlEnd;
-            }
-
-            unsigned char *data = CMSG_DATA(cmsg);
-            unsigned char *end = (unsigned char *)endBytes;
-            int numFds = (int)(end - data) / sizeof(int);
+            int numFds = cmsgNumFds(cmsg, control, controlLen);
 
             CK_STATIC_ASSERT(sizeof(int)==sizeof(jint));
 
             if(numFds > 0) {
-                jintArray fdArray = (*env)->NewIntArray(env, numFds);
-                jint *fdBuf = (*env)->GetIntArrayElements(env, fdArray,
-                                                          NULL);
-
-                memcpy(fdBuf, data, numFds * sizeof(int));
-
-                (*env)->ReleaseIntArrayElements(env, fdArray, fdBuf, 0);
-
-                callObjectSetter(env, ancSupp, "receiveFileDescriptors",
-                                 "([I)V", fdArray);
+                CK_IGNORE_CAST_ALIGN_BEGIN // CMSG_DATA is suitably aligned for int
+                if(!ancillary_receiveFileDescriptors(env, ancSupp, (jint*)CMSG_DATA(cmsg), numFds)) {
+                    // nobody owns these (and any subsequent) file descriptors now
+                    closeReceivedFileDescriptors(&msg, cmsg, control, controlLen);
+                    return -1;
+                }
+                CK_IGNORE_CAST_ALIGN_END
             } else if(numFds < 0) {
+                closeReceivedFileDescriptors(&msg, cmsg, control, controlLen);
                 _throwException(env, kExceptionSocketException, "No buffer space available");
                 return -1;
             }
@@ -170,11 +315,11 @@ ssize_t recvmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struc
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    read
- * Signature: (Ljava/io/FileDescriptor;[BIILorg/newsclub/net/unix/AncillaryDataSupport;)I
+ * Signature: (Ljava/io/FileDescriptor;[BIILjava/nio/ByteBuffer;ILorg/newsclub/net/unix/AncillaryDataSupport;I)I
  */
 JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_read(
                                                                         JNIEnv * env, jclass clazz CK_UNUSED, jobject fd, jbyteArray jbuf,
-                                                                        jint offset, jint length, jobject ancSupp, jint hardTimeoutMillis)
+                                                                        jint offset, jint length, jobject directBuffer, jint opt, jobject ancSupp, jint hardTimeoutMillis)
 {
 #if defined(_WIN32)
     CK_ARGUMENT_POTENTIALLY_UNUSED(ancSupp);
@@ -198,45 +343,60 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_read(
         return -1;
     }
 
-    int handle = _getFD(env, fd);
-
-#if defined(junixsocket_use_poll_for_read)
-    int ret = pollWithTimeout(env, fd, handle, hardTimeoutMillis);
-    if(ret < 1) {
-        if(checkNonBlocking(handle, socket_errno)) {
-            // non-blocking socket
-            return 0;
-        } else if(ret == -1) {
-            _throwErrnumException(env, errno, fd);
-            return -1;
+    // Performance: Don't allocate a buffer for each call.
+    // Small reads are staged on the stack, larger ones in the caller-supplied direct buffer.
+    jbyte stackBuf[org_newsclub_net_unix_NativeUnixSocket_STACK_BUFFER_SIZE];
+    jbyte *buf = stackBuf;
+    if(length > (jint)sizeof(stackBuf)) {
+        struct jni_direct_byte_buffer_ref directBufferRef =
+        getDirectByteBufferRef (env, directBuffer, 0, 0);
+        if(directBufferRef.buf != NULL && directBufferRef.size > (ssize_t)sizeof(stackBuf)) {
+            buf = directBufferRef.buf;
+            if(directBufferRef.size < length) {
+                length = (jint)directBufferRef.size;
+            }
         } else {
-            // timeout on blocking socket
-            _throwException(env, kExceptionSocketTimeoutException, "timeout");
-            return -1;
+            // no (usable) direct buffer; read less than requested, which is fine for a stream
+            length = (jint)sizeof(stackBuf);
         }
     }
-#endif
 
-    jbyte *buf = malloc((size_t)length);
-    if(buf == NULL) {
-        return -1; // OOME
-    }
+    int handle = _getFD(env, fd);
 
     ssize_t count;
-
-    int opt = 0;
+#if defined(junixsocket_use_poll_for_read)
+    bool needPoll = true;
+    if(tryReceiveBeforePoll(opt, hardTimeoutMillis)) {
+        count = recvmsg_wrapper(env, handle, buf, length, NULL, 0, opt | OPT_DONTWAIT_INTERNAL, ancSupp);
+        needPoll = receiveWouldBlock(env, count);
+    }
+    if(needPoll) {
+        int ret = pollForRead(env, fd, handle, hardTimeoutMillis);
+        if(ret < 1) {
+            return ret;
+        }
+        count = recvmsg_wrapper(env, handle, buf, length, NULL, 0, opt, ancSupp);
+    }
+#else
     count = recvmsg_wrapper(env, handle, buf, length, NULL, 0, opt, ancSupp);
+#endif
 
     jint returnValue;
     if(count < 0) {
-        // read(2) returns -1 on error. Java throws an Exception.
-        _throwErrnumException(env, errno, fd);
-        returnValue = -1;
+        if((opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_BLOCKING) != 0
+           && checkNonBlocking(handle, errno)) {
+            // no data on a socket that we've switched to non-blocking mode
+            returnValue = 0;
+        } else {
+            // read(2) returns -1 on error. Java throws an Exception.
+            _throwErrnumException(env, errno, fd);
+            returnValue = -1;
+        }
     } else if(count == 0) {
         // read(2)/recv return 0 on EOF. Java returns -1.
         returnValue = -1;
     } else if(jbuf) {
-        (*env)->SetByteArrayRegion(env, jbuf, offset, length, buf);
+        (*env)->SetByteArrayRegion(env, jbuf, offset, (jsize)count, buf);
 
         returnValue = (jint)count;
     } else {
@@ -244,7 +404,6 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_read(
         returnValue = (*buf & 0xFF);
     }
 
-    free(buf);
     return returnValue;
 }
 
@@ -264,23 +423,6 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receive
         return -1;
     }
 
-#if defined(junixsocket_use_poll_for_read)
-    int ret = pollWithTimeout(env, fd, handle, hardTimeoutMillis);
-    if(ret < 1) {
-        if(checkNonBlocking(handle, socket_errno)) {
-            // non-blocking socket
-            return 0;
-        } else if(ret == -1) {
-            _throwErrnumException(env, errno, fd);
-            return -1;
-        } else {
-            // timeout on blocking socket
-            _throwException(env, kExceptionSocketTimeoutException, "timeout");
-            return -1;
-        }
-    }
-#endif
-
     struct jni_direct_byte_buffer_ref dataBufferRef =
     getDirectByteBufferRef (env, buffer, offset, 0);
     if(dataBufferRef.size == -1) {
@@ -304,9 +446,30 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receive
     struct sockaddr_un *senderBuf = (struct sockaddr_un *)addressBufferRef.buf;
     socklen_t senderBufLen = addressBufferRef.size;
 
-    ssize_t count = recvmsg_wrapper(env, handle, dataBufferRef.buf, length, senderBuf, &senderBufLen, opt, ancSupp);
+    ssize_t count;
+#if defined(junixsocket_use_poll_for_read)
+    bool needPoll = true;
+    if(tryReceiveBeforePoll(opt, hardTimeoutMillis)) {
+        count = recvmsg_wrapper(env, handle, dataBufferRef.buf, length, senderBuf, &senderBufLen, opt | OPT_DONTWAIT_INTERNAL, ancSupp);
+        needPoll = receiveWouldBlock(env, count);
+    }
+    if(needPoll) {
+        int ret = pollForRead(env, fd, handle, hardTimeoutMillis);
+        if(ret < 1) {
+            return ret;
+        }
+        senderBufLen = addressBufferRef.size;
+        count = recvmsg_wrapper(env, handle, dataBufferRef.buf, length, senderBuf, &senderBufLen, opt, ancSupp);
+    }
+#else
+    count = recvmsg_wrapper(env, handle, dataBufferRef.buf, length, senderBuf, &senderBufLen, opt, ancSupp);
+#endif
 
     // NOTE: if we receive messages from an unbound socket, the "sender" may be just a bunch of zeros.
+    if(count >= 0 && senderBuf != NULL && addressBufferRef.size >= (ssize_t)sizeof(struct sockaddr_un)) {
+        // AFUNIXSocketAddress looks up the entire sockaddr_un in its cache
+        clearUnsetAddressBytes(senderBuf, senderBufLen);
+    }
 
     if(count == -1) {
         count = 0;
@@ -319,9 +482,205 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receive
             }
             goto end;
         }
+    } else if(count == 0 && length > 0 && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_STREAM) != 0) {
+        // end of stream
+        count = -1;
     }
 
 end:
 
     return count;
 }
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    receiveVectored
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[IIILorg/newsclub/net/unix/AncillaryDataSupport;I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receiveVectored
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jobjectArray buffers, jintArray offsets, jintArray lengths, jint numBuffers, jint opt, jobject ancSupp, jint hardTimeoutMillis) {
+
+    CK_ARGUMENT_POTENTIALLY_UNUSED(hardTimeoutMillis);
+
+    int handle = _getFD(env, fd);
+    if (handle <= 0) {
+        _throwException(env, kExceptionSocketException, "Socket closed");
+        return -1;
+    }
+
+    struct iovec iov[junixsocket_max_iovecs];
+    int iovcnt = getIOVecs(env, iov, buffers, offsets, lengths, numBuffers);
+    if(iovcnt <= 0) {
+        return iovcnt;
+    }
+
+    ssize_t count;
+#if defined(junixsocket_use_poll_for_read)
+    bool needPoll = true;
+    if(tryReceiveBeforePoll(opt, hardTimeoutMillis)) {
+        count = recvmsg_iov_wrapper(env, handle, iov, iovcnt, NULL, NULL, opt | OPT_DONTWAIT_INTERNAL, ancSupp);
+        needPoll = receiveWouldBlock(env, count);
+    }
+    if(needPoll) {
+        int ret = pollForRead(env, fd, handle, hardTimeoutMillis);
+        if(ret < 1) {
+            return ret;
+        }
+        count = recvmsg_iov_wrapper(env, handle, iov, iovcnt, NULL, NULL, opt, ancSupp);
+    }
+#else
+    count = recvmsg_iov_wrapper(env, handle, iov, iovcnt, NULL, NULL, opt, ancSupp);
+#endif
+    if(count == -1) {
+        count = 0;
+        if(checkNonBlocking(handle, errno)) {
+             // no data on non-blocking socket
+        } else if(!(*env)->ExceptionCheck(env)) {
+            // read(2) returns -1 on error. Java throws an Exception.
+            _throwErrnumException(env, errno, fd);
+        }
+    } else if(count == 0 && iovcnt > 0 && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_STREAM) != 0) {
+        // end of stream
+        count = -1;
+    }
+
+    return (jlong)count;
+}
+
+/**
+ * Receives up to iovcnt datagrams, one per iovec. Only the first datagram is waited for;
+ * further ones are received only if they are immediately available.
+ *
+ * Returns the number of datagrams received, or -1 upon error (with errno set).
+ */
+static int recv_multiple(int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *senders, jint *counts, int opt) {
+    int flags = optToFlags(opt);
+
+#if defined(junixsocket_have_mmsg)
+    struct mmsghdr msgs[junixsocket_max_iovecs];
+    memset(msgs, 0, sizeof(struct mmsghdr) * (size_t)iovcnt);
+    for(int i = 0; i < iovcnt; i++) {
+        msgs[i].msg_hdr.msg_iov = &iov[i];
+        msgs[i].msg_hdr.msg_iovlen = 1;
+        if(senders != NULL) {
+            msgs[i].msg_hdr.msg_name = &senders[i];
+            msgs[i].msg_hdr.msg_namelen = sizeof(struct sockaddr_un);
+        }
+    }
+
+    int received;
+    do {
+        received = recvmmsg(handle, msgs, (unsigned int)iovcnt, flags | MSG_WAITFORONE, NULL);
+    } while(received == -1 && (socket_errno == EINTR));
+
+    for(int i = 0; i < received; i++) {
+        counts[i] = (jint)msgs[i].msg_len;
+        if(senders != NULL) {
+            clearUnsetAddressBytes(&senders[i], msgs[i].msg_hdr.msg_namelen);
+        }
+    }
+    return received;
+#else
+#  if !defined(MSG_DONTWAIT)
+    // we can't tell whether further datagrams are available without blocking
+    iovcnt = 1;
+#  endif
+    int received;
+    for(received = 0; received < iovcnt; received++) {
+        struct sockaddr_un *sender = (senders == NULL) ? NULL : &senders[received];
+        socklen_t senderLen = sizeof(struct sockaddr_un);
+
+        int f = flags;
+#  if defined(MSG_DONTWAIT)
+        if(received > 0) {
+            f |= MSG_DONTWAIT;
+        }
+#  endif
+
+        ssize_t count;
+        do {
+            count = recvfrom(handle, WIN32_NEEDS_CHARP iov[received].iov_base, (size_t)iov[received].iov_len, f,
+                             (struct sockaddr *)sender, sender == NULL ? NULL : &senderLen);
+        } while(count == (ssize_t)-1 && (socket_errno == EINTR));
+
+        if(count == -1) {
+            if(received > 0) {
+                // most likely EAGAIN; any other error will be reported upon the next call
+                break;
+            }
+            return -1;
+        }
+
+        counts[received] = (jint)count;
+        if(sender != NULL) {
+            clearUnsetAddressBytes(sender, senderLen);
+        }
+    }
+    return received;
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    receiveMultiple
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[I[IILjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_receiveMultiple
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jobjectArray buffers, jintArray offsets, jintArray lengths, jintArray counts, jint numBuffers, jobject addressBuffer, jint opt, jint hardTimeoutMillis) {
+
+    CK_ARGUMENT_POTENTIALLY_UNUSED(hardTimeoutMillis);
+
+    int handle = _getFD(env, fd);
+    if (handle <= 0) {
+        _throwException(env, kExceptionSocketException, "Socket closed");
+        return -1;
+    }
+
+    struct iovec iov[junixsocket_max_iovecs];
+    int iovcnt = getIOVecs(env, iov, buffers, offsets, lengths, numBuffers);
+    if(iovcnt <= 0) {
+        return iovcnt;
+    }
+
+    struct sockaddr_un *senders = NULL;
+    if(addressBuffer != NULL) {
+        struct jni_direct_byte_buffer_ref addressBufferRef =
+        getDirectByteBufferRef (env, addressBuffer, 0, (size_t)iovcnt * sizeof(struct sockaddr_un));
+        if(addressBufferRef.size == -1) {
+            _throwException(env, kExceptionSocketException, "Cannot get addressBuffer");
+            return -1;
+        }
+        senders = (struct sockaddr_un *)addressBufferRef.buf;
+    }
+
+    jint lens[junixsocket_max_iovecs];
+    int received;
+#if defined(junixsocket_use_poll_for_read)
+    bool needPoll = true;
+    if(tryReceiveBeforePoll(opt, hardTimeoutMillis)) {
+        received = recv_multiple(handle, iov, iovcnt, senders, lens, opt | OPT_DONTWAIT_INTERNAL);
+        needPoll = receiveWouldBlock(env, received);
+    }
+    if(needPoll) {
+        int ret = pollForRead(env, fd, handle, hardTimeoutMillis);
+        if(ret < 1) {
+            return ret;
+        }
+        received = recv_multiple(handle, iov, iovcnt, senders, lens, opt);
+    }
+#else
+    received = recv_multiple(handle, iov, iovcnt, senders, lens, opt);
+#endif
+    if(received == -1) {
+        if(checkNonBlocking(handle, errno)) {
+            // no data on non-blocking socket
+            return 0;
+        } else if(!(*env)->ExceptionCheck(env)) {
+            _throwErrnumException(env, errno, fd);
+        }
+        return -1;
+    }
+
+    (*env)->SetIntArrayRegion(env, counts, 0, received, lens);
+    return received;
+}
@@ -22,5 +22,6 @@
 #include "config.h"
 
 ssize_t recvmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struct sockaddr_un *senderBuf, socklen_t *senderBufLen, int opt, jobject ancSupp);
+ssize_t recvmsg_iov_wrapper(JNIEnv * env, int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *senderBuf, socklen_t *senderBufLen, int opt, jobject ancSupp);
 
 #endif /* receive_h */
@@ -54,21 +54,59 @@ ssize_t send_wrapper(int handle, jbyte *buf, jint length, struct sockaddr_un *se
     return count;
 }
 
+static ssize_t send_iov_wrapper(int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *sendTo, socklen_t sendToLen, int opt) {
+#if defined(_WIN32)
+    CK_ARGUMENT_POTENTIALLY_UNUSED(iovcnt);
+    // no gathering writes; only send the first buffer
+    return send_wrapper(handle, iov->iov_base, (jint)iov->iov_len, sendTo, sendToLen, opt);
+#else
+    if(iovcnt == 1) {
+        return send_wrapper(handle, iov->iov_base, (jint)iov->iov_len, sendTo, sendToLen, opt);
+    }
+
+    struct msghdr msg = {.msg_name = (struct sockaddr*)sendTo, .msg_namelen =
+        sendToLen, .msg_iov = iov, .msg_iovlen = iovcnt };
+
+    ssize_t count;
+
+    do {
+        errno = 0;
+        if (sendTo == NULL && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_SOCKET) != 0) {
+            // "writev" can be used with pipes, too.
+            count = writev(handle, iov, iovcnt);
+        } else {
+            count = sendmsg(handle, &msg, 0);
+        }
+    } while(count == -1 && (socket_errno == EINTR ||
+                            (
+                             errno == ENOBUFS
+                             && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_BLOCKING) == 0
+                             && sleepForRetryWriting()
+                             )
+                            ));
+    return count;
+#endif
+}
+
 ssize_t sendmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struct sockaddr_un *sendTo, socklen_t sendToLen, int opt, jobject ancSupp) {
+    struct iovec iov = {.iov_base = buf, .iov_len = (size_t)length};
+    return sendmsg_iov_wrapper(env, handle, &iov, 1, sendTo, sendToLen, opt, ancSupp);
+}
+
+ssize_t sendmsg_iov_wrapper(JNIEnv * env, int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *sendTo, socklen_t sendToLen, int opt, jobject ancSupp) {
 #if !defined(junixsocket_have_ancillary)
     CK_ARGUMENT_POTENTIALLY_UNUSED(env);
     CK_ARGUMENT_POTENTIALLY_UNUSED(ancSupp);
-    return send_wrapper(handle, buf, length, sendTo, sendToLen, opt);
+    return send_iov_wrapper(handle, iov, iovcnt, sendTo, sendToLen, opt);
 #else
 
     jintArray ancFds = ancSupp == NULL ? NULL : (*env)->GetObjectField(env, ancSupp, getFieldID_pendingFileDescriptors());
     if (ancFds == NULL) {
-        return send_wrapper(handle, buf, length, sendTo, sendToLen, opt);
+        return send_iov_wrapper(handle, iov, iovcnt, sendTo, sendToLen, opt);
     }
 
-    struct iovec iov = {.iov_base = buf, .iov_len = (size_t)length};
     struct msghdr msg = {.msg_name = (struct sockaddr*)sendTo, .msg_namelen =
-        sendToLen, .msg_iov = &iov, .msg_iovlen = 1 };
+        sendToLen, .msg_iov = iov, .msg_iovlen = iovcnt };
 
     char *control = NULL;
     if(ancFds != NULL) {
@@ -104,7 +142,7 @@ ssize_t sendmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struc
 
     errno = 0;
     do {
-        if (msg.msg_controllen == 0) {
+        if (msg.msg_controllen == 0 && iovcnt == 1) {
             count = send(handle, msg.msg_iov->iov_base, msg.msg_iov->iov_len, 0);
         } else {
             count = sendmsg(handle, &msg, 0);
@@ -128,11 +166,11 @@ ssize_t sendmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struc
 /*
  * Class:     org_newsclub_net_unix_NativeUnixSocket
  * Method:    write
- * Signature: (Ljava/io/FileDescriptor;[BIILorg/newsclub/net/unix/AncillaryDataSupport;)I
+ * Signature: (Ljava/io/FileDescriptor;[BIILjava/nio/ByteBuffer;Lorg/newsclub/net/unix/AncillaryDataSupport;)I
  */
 JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_write(
                                                                          JNIEnv * env, jclass clazz CK_UNUSED, jobject fd, jbyteArray jbuf,
-                                                                         jint offset, jint length, jobject ancSupp)
+                                                                         jint offset, jint length, jobject directBuffer, jobject ancSupp)
 {
 #if defined(_WIN32)
     CK_ARGUMENT_POTENTIALLY_UNUSED(ancSupp);
@@ -151,9 +189,22 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_write(
         return -1;
     }
 
-    jbyte *buf = malloc(length);
-    if(buf == NULL) {
-        return -1; // OOME
+    // Performance: Don't allocate a buffer for each call.
+    // Small writes are staged on the stack, larger ones in the caller-supplied direct buffer.
+    jbyte stackBuf[org_newsclub_net_unix_NativeUnixSocket_STACK_BUFFER_SIZE];
+    jbyte *buf = stackBuf;
+    if(length > (jint)sizeof(stackBuf)) {
+        struct jni_direct_byte_buffer_ref directBufferRef =
+        getDirectByteBufferRef (env, directBuffer, 0, 0);
+        if(directBufferRef.buf != NULL && directBufferRef.size > (ssize_t)sizeof(stackBuf)) {
+            buf = directBufferRef.buf;
+            if(directBufferRef.size < length) {
+                length = (jint)directBufferRef.size;
+            }
+        } else {
+            // no (usable) direct buffer; the caller will have to write the remainder
+            length = (jint)sizeof(stackBuf);
+        }
     }
 
     if(jbuf) {
@@ -176,8 +227,6 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_write(
     } while(count == -1 && socket_errno == EINTR);
 #endif
 
-    free(buf);
-
     if(count == -1) {
         if(checkNonBlocking(handle, errno)) {
             return 0;
@@ -238,3 +287,285 @@ JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_send
 
     return ret;
 }
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    sendVectored
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[IIILorg/newsclub/net/unix/AncillaryDataSupport;)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_sendVectored
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jobjectArray buffers, jintArray offsets, jintArray lengths, jint numBuffers, jint opt, jobject ancSupp) {
+    int handle = _getFD(env, fd);
+    if (handle <= 0) {
+        _throwException(env, kExceptionSocketException, "Socket closed");
+        return 0;
+    }
+
+    struct iovec iov[junixsocket_max_iovecs];
+    int iovcnt = getIOVecs(env, iov, buffers, offsets, lengths, numBuffers);
+    if(iovcnt <= 0) {
+        return iovcnt;
+    }
+
+    ssize_t ret = sendmsg_iov_wrapper(env, handle, iov, iovcnt, NULL, 0, opt, ancSupp);
+    if(ret < 0) {
+        ret = 0;
+        if(socket_errno != EAGAIN && errno != EWOULDBLOCK && (errno != ENOBUFS || (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_BLOCKING) == 0 )) {
+            if(!(*env)->ExceptionCheck(env)) {
+                _throwErrnumException(env, errno, fd);
+            }
+        }
+    }
+
+    return (jlong)ret;
+}
+
+/**
+ * Sends up to iovcnt datagrams, one per iovec, in order. Stops at the first datagram that
+ * cannot be sent.
+ *
+ * Returns the number of datagrams sent, or -1 if not even the first one could be sent (with errno set).
+ */
+static int send_multiple(int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *addresses, jint *addressIndexes, jint *counts, int opt) {
+#if defined(junixsocket_have_mmsg)
+    struct mmsghdr msgs[junixsocket_max_iovecs];
+    memset(msgs, 0, sizeof(struct mmsghdr) * (size_t)iovcnt);
+    for(int i = 0; i < iovcnt; i++) {
+        msgs[i].msg_hdr.msg_iov = &iov[i];
+        msgs[i].msg_hdr.msg_iovlen = 1;
+        if(addresses != NULL && addressIndexes[i] >= 0) {
+            msgs[i].msg_hdr.msg_name = &addresses[addressIndexes[i]];
+            msgs[i].msg_hdr.msg_namelen = sizeof(struct sockaddr_un);
+        }
+    }
+
+    int sent;
+    do {
+        errno = 0;
+        sent = sendmmsg(handle, msgs, (unsigned int)iovcnt, 0);
+    } while(sent == -1 && (socket_errno == EINTR ||
+                           (
+                            errno == ENOBUFS
+                            && (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_BLOCKING) == 0
+                            && sleepForRetryWriting()
+                            )
+                           ));
+
+    for(int i = 0; i < sent; i++) {
+        counts[i] = (jint)msgs[i].msg_len;
+    }
+    return sent;
+#else
+    int sent;
+    for(sent = 0; sent < iovcnt; sent++) {
+        struct sockaddr_un *sendTo = (addresses == NULL || addressIndexes[sent] < 0) ? NULL : &addresses[addressIndexes[sent]];
+        ssize_t count = send_wrapper(handle, iov[sent].iov_base, (jint)iov[sent].iov_len, sendTo,
+                                     sendTo == NULL ? 0 : sizeof(struct sockaddr_un), opt);
+        if(count == -1) {
+            if(sent > 0) {
+                // any error other than EAGAIN will be reported upon the next call
+                break;
+            }
+            return -1;
+        }
+        counts[sent] = (jint)count;
+    }
+    return sent;
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    sendMultiple
+ * Signature: (Ljava/io/FileDescriptor;[Ljava/nio/ByteBuffer;[I[I[IILjava/nio/ByteBuffer;[II)I
+ */
+JNIEXPORT jint JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_sendMultiple
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jobjectArray buffers, jintArray offsets, jintArray lengths, jintArray counts, jint numBuffers, jobject addressBuffer, jintArray addressIndexes, jint opt) {
+    int handle = _getFD(env, fd);
+    if (handle <= 0) {
+        _throwException(env, kExceptionSocketException, "Socket closed");
+        return 0;
+    }
+
+    struct iovec iov[junixsocket_max_iovecs];
+    int iovcnt = getIOVecs(env, iov, buffers, offsets, lengths, numBuffers);
+    if(iovcnt <= 0) {
+        return iovcnt;
+    }
+
+    struct sockaddr_un *addresses = NULL;
+    jint indexes[junixsocket_max_iovecs];
+    if(addressBuffer != NULL) {
+        struct jni_direct_byte_buffer_ref addressBufferRef =
+        getDirectByteBufferRef (env, addressBuffer, 0, sizeof(struct sockaddr_un));
+        if(addressBufferRef.size == -1) {
+            _throwException(env, kExceptionSocketException, "Cannot get addressBuffer");
+            return -1;
+        }
+        addresses = (struct sockaddr_un *)addressBufferRef.buf;
+
+        (*env)->GetIntArrayRegion(env, addressIndexes, 0, iovcnt, indexes);
+        if((*env)->ExceptionCheck(env)) {
+            return -1;
+        }
+        jint numAddresses = (jint)(addressBufferRef.size / (ssize_t)sizeof(struct sockaddr_un));
+        for(int i = 0; i < iovcnt; i++) {
+            if(indexes[i] >= numAddresses) {
+                _throwException(env, kExceptionIndexOutOfBoundsException, "Illegal address index");
+                return -1;
+            }
+        }
+    }
+
+    jint lens[junixsocket_max_iovecs];
+    int sent = send_multiple(handle, iov, iovcnt, addresses, indexes, lens, opt);
+    if(sent < 0) {
+        if(socket_errno != EAGAIN && errno != EWOULDBLOCK && (errno != ENOBUFS || (opt & org_newsclub_net_unix_NativeUnixSocket_OPT_NON_BLOCKING) == 0 )) {
+            if(!(*env)->ExceptionCheck(env)) {
+                _throwErrnumException(env, errno, fd);
+            }
+        }
+        return 0;
+    }
+
+    (*env)->SetIntArrayRegion(env, counts, 0, sent, lens);
+    return sent;
+}
+
+/*
+ * Returns the java.io.FileDescriptor behind a JDK channel implementation (e.g.,
+ * sun.nio.ch.FileChannelImpl or sun.nio.ch.SocketChannelImpl), or NULL if unknown.
+ */
+static jobject channelFileDescriptor(JNIEnv *env, jobject channel) {
+    jclass channelClass = (*env)->GetObjectClass(env, channel);
+    jfieldID fdField = (*env)->GetFieldID(env, channelClass, "fd", "Ljava/io/FileDescriptor;");
+    if(fdField == NULL) {
+        // not a JDK channel, or an unsupported JVM
+        (*env)->ExceptionClear(env);
+        return NULL;
+    }
+    return (*env)->GetObjectField(env, channel, fdField);
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    transferFrom
+ * Signature: (Ljava/io/FileDescriptor;Ljava/nio/channels/FileChannel;JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_transferFrom
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fd, jobject fileChannel, jlong position, jlong count) {
+#if !defined(junixsocket_have_sendfile)
+    CK_ARGUMENT_POTENTIALLY_UNUSED(env);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fd);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fileChannel);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(position);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(count);
+    return -1;
+#else
+    int handle = _getFD(env, fd);
+    jobject fileFd = channelFileDescriptor(env, fileChannel);
+    if(fileFd == NULL) {
+        return -1;
+    }
+    int fileHandle = _getFD(env, fileFd);
+    if(fileHandle < 0) {
+        return -1;
+    }
+
+    off_t offset = (off_t)position;
+    jlong total = 0;
+    while(total < count) {
+        // Linux transfers at most 0x7ffff000 bytes per call
+        size_t chunk = (size_t)(count - total);
+        if(chunk > 0x7ffff000) {
+            chunk = 0x7ffff000;
+        }
+
+        ssize_t ret = sendfile(handle, fileHandle, &offset, chunk);
+        if(ret == -1) {
+            int errnum = errno;
+            if(errnum == EINTR) {
+                continue;
+            } else if(total > 0 || checkNonBlocking(handle, errnum)) {
+                // report what we have; any persisting error will show up on the next call
+                break;
+            } else if(errnum == EINVAL || errnum == ENOSYS) {
+                // sendfile is not supported for this combination of file descriptors
+                return -1;
+            }
+            _throwErrnumException(env, errnum, fd);
+            return -1;
+        } else if(ret == 0) {
+            // end of file
+            break;
+        }
+        total += ret;
+    }
+
+    return total;
+#endif
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    channelFileDescriptor
+ * Signature: (Ljava/nio/channels/Channel;)Ljava/io/FileDescriptor;
+ */
+JNIEXPORT jobject JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_channelFileDescriptor
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject channel) {
+    return channelFileDescriptor(env, channel);
+}
+
+/*
+ * Class:     org_newsclub_net_unix_NativeUnixSocket
+ * Method:    splice
+ * Signature: (Ljava/io/FileDescriptor;Ljava/io/FileDescriptor;J)J
+ */
+JNIEXPORT jlong JNICALL Java_org_newsclub_net_unix_NativeUnixSocket_splice
+(JNIEnv *env, jclass clazz CK_UNUSED, jobject fdIn, jobject fdOut, jlong count) {
+#if !defined(junixsocket_have_splice)
+    CK_ARGUMENT_POTENTIALLY_UNUSED(env);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fdIn);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(fdOut);
+    CK_ARGUMENT_POTENTIALLY_UNUSED(count);
+    return -2;
+#else
+    int handleIn = _getFD(env, fdIn);
+    int handleOut = _getFD(env, fdOut);
+    if(handleIn <= 0 || handleOut <= 0) {
+        _throwException(env, kExceptionSocketException, "Socket closed");
+        return -1;
+    }
+
+    size_t len = (size_t)count;
+    if(len > 0x7ffff000) {
+        len = 0x7ffff000;
+    }
+
+    ssize_t ret;
+    do {
+        ret = splice(handleIn, NULL, handleOut, NULL, len, SPLICE_F_MOVE);
+    } while(ret == -1 && errno == EINTR);
+
+    if(ret == -1) {
+        int errnum = errno;
+        if(checkNonBlocking(handleIn, errnum) || checkNonBlocking(handleOut, errnum)) {
+            return 0;
+        } else if(errnum == EAGAIN || errnum == EWOULDBLOCK) {
+            // blocking socket with SO_RCVTIMEO/SO_SNDTIMEO
+            _throwException(env, kExceptionSocketTimeoutException, "timeout");
+            return -1;
+        } else if(errnum == EINVAL || errnum == ENOSYS) {
+            // splice is not supported for this combination of file descriptors
+            return -2;
+        }
+        _throwErrnumException(env, errnum, fdIn);
+        return -1;
+    } else if(ret == 0) {
+        // end of file
+        return -1;
+    }
+
+    return (jlong)ret;
+#endif
+}
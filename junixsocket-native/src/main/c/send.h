@@ -22,5 +22,6 @@
 #include "config.h"
 
 ssize_t sendmsg_wrapper(JNIEnv * env, int handle, jbyte *buf, jint length, struct sockaddr_un *sendTo, socklen_t sendToLen, int opt, jobject ancSupp);
+ssize_t sendmsg_iov_wrapper(JNIEnv * env, int handle, struct iovec *iov, int iovcnt, struct sockaddr_un *sendTo, socklen_t sendToLen, int opt, jobject ancSupp);
 
 #endif /* send_h */
@@ -0,0 +1,528 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.newsclub.net.unix.AFUNIXSelectorProvider;
+import org.newsclub.net.unix.AFUNIXServerSocketChannel;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+import org.newsclub.net.unix.AFUNIXSocketChannel;
+
+/**
+ * A base implementation for a non-blocking, multi-reactor socket server.
+ *
+ * One acceptor thread accepts new connections and distributes them round-robin across a fixed
+ * number of event loops. Each event loop runs in its own thread, with its own selector, and serves
+ * all of its connections. Since idle connections do not occupy a thread, a large number of mostly
+ * idle connections can be served with only a few threads.
+ *
+ * All connection-related callbacks ({@link #onConnected(SelectionKey)},
+ * {@link #onReadable(SelectionKey)}, {@link #onWritable(SelectionKey)}, etc.) are called from the
+ * event loop thread the connection is assigned to, and must not block. The {@link SelectionKey}
+ * may be used to change the interest set (initially {@link SelectionKey#OP_READ}) and to attach
+ * per-connection state.
+ *
+ * If the accept thread or an event loop fails (see {@link #onListenException(Exception)}), the
+ * entire server is stopped, and all of its connections are closed.
+ *
+ * This class only supports AF_UNIX sockets; see {@link AFUNIXSocketServer} for a blocking
+ * implementation that also supports "regular" sockets.
+ *
+ * @author Christian Kohlschütter
+ */
+public abstract class AFUNIXEventLoopServer {
+  private final AFUNIXSocketAddress listenAddress;
+  private final AFUNIXServerSocketChannel reuseChannel;
+
+  private int numEventLoops = Runtime.getRuntime().availableProcessors();
+  private int backlog = 50;
+
+  private Thread acceptThread = null;
+  private Selector acceptSelector;
+  private EventLoop[] eventLoops;
+  private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+  private final AtomicBoolean ready = new AtomicBoolean(false);
+
+  /**
+   * Creates a server using the given {@link AFUNIXSocketAddress}.
+   *
+   * @param listenAddress The address to bind the socket on.
+   */
+  public AFUNIXEventLoopServer(AFUNIXSocketAddress listenAddress) {
+    this(listenAddress, null);
+  }
+
+  /**
+   * Creates a server using the given, bound {@link AFUNIXServerSocketChannel}.
+   *
+   * @param serverChannel The server channel to use (must be bound).
+   * @throws IOException If the channel's address could not be determined.
+   */
+  public AFUNIXEventLoopServer(AFUNIXServerSocketChannel serverChannel) throws IOException {
+    this(serverChannel.getLocalAddress(), serverChannel);
+  }
+
+  private AFUNIXEventLoopServer(AFUNIXSocketAddress listenAddress,
+      AFUNIXServerSocketChannel preboundChannel) {
+    this.reuseChannel = preboundChannel;
+    Objects.requireNonNull(listenAddress, "listenAddress");
+
+    this.listenAddress = listenAddress;
+  }
+
+  public int getNumEventLoops() {
+    return numEventLoops;
+  }
+
+  public void setNumEventLoops(int numEventLoops) {
+    if (numEventLoops <= 0) {
+      throw new IllegalArgumentException("numEventLoops must be positive");
+    }
+    synchronized (this) {
+      if (eventLoops != null) {
+        throw new IllegalStateException("Already configured");
+      }
+      this.numEventLoops = numEventLoops;
+    }
+  }
+
+  public int getBacklog() {
+    return backlog;
+  }
+
+  public void setBacklog(int backlog) {
+    synchronized (this) {
+      if (acceptThread != null) {
+        throw new IllegalStateException("Already configured");
+      }
+      this.backlog = backlog;
+    }
+  }
+
+  /**
+   * Checks if the server is running.
+   *
+   * @return {@code true} if the server is alive.
+   */
+  public boolean isRunning() {
+    synchronized (this) {
+      return (acceptThread != null && acceptThread.isAlive());
+    }
+  }
+
+  /**
+   * Checks if the server is running and accepting new connections.
+   *
+   * @return {@code true} if the server is alive and ready to accept new connections.
+   */
+  public boolean isReady() {
+    return ready.get() && !stopRequested.get() && isRunning();
+  }
+
+  /**
+   * Starts the server, and returns immediately.
+   *
+   * @throws IOException If the selectors could not be opened.
+   * @see #startAndWait
+   */
+  public void start() throws IOException {
+    synchronized (this) {
+      if (isRunning()) {
+        return;
+      }
+      if (stopRequested.get()) {
+        throw new IllegalStateException("The server has been stopped");
+      }
+
+      AFUNIXSelectorProvider provider = AFUNIXSelectorProvider.provider();
+      EventLoop[] loops = new EventLoop[numEventLoops];
+      boolean success = false;
+      try {
+        acceptSelector = provider.openSelector();
+        for (int i = 0; i < loops.length; i++) {
+          loops[i] = new EventLoop(provider.openSelector(), AFUNIXEventLoopServer.this
+              .toString() + " event loop " + i);
+        }
+        success = true;
+      } finally {
+        if (!success) {
+          closeSelectors(loops);
+        }
+      }
+      eventLoops = loops;
+
+      for (EventLoop loop : loops) {
+        loop.start();
+      }
+
+      Thread t = new Thread(AFUNIXEventLoopServer.this.toString() + " accept thread") {
+        @Override
+        public void run() {
+          try {
+            listen();
+          } catch (Exception e) {
+            onListenException(e);
+          }
+        }
+      };
+      t.start();
+
+      acceptThread = t;
+    }
+  }
+
+  private void closeSelectors(EventLoop[] loops) throws IOException {
+    if (acceptSelector != null) {
+      acceptSelector.close();
+    }
+    for (EventLoop loop : loops) {
+      if (loop != null) {
+        loop.selector.close();
+      }
+    }
+  }
+
+  /**
+   * Starts the server and waits until it is ready or had to stop due to an error.
+   *
+   * @param duration The duration wait.
+   * @param unit The duration's time unit.
+   * @return {@code true} if the server is ready to serve requests.
+   * @throws IOException If the server could not be started.
+   * @throws InterruptedException If the wait was interrupted.
+   */
+  public boolean startAndWait(long duration, TimeUnit unit) throws IOException,
+      InterruptedException {
+    synchronized (this) {
+      start();
+      long timeoutMillis = unit.toMillis(duration);
+      long timeStart = System.currentTimeMillis();
+      while (!isReady()) {
+        long remaining = timeoutMillis - (System.currentTimeMillis() - timeStart);
+        if (remaining <= 0) {
+          return false;
+        }
+        this.wait(remaining);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Stops the server. All connections are closed by their event loop threads.
+   */
+  public void stop() {
+    stopRequested.set(true);
+    ready.set(false);
+
+    synchronized (this) {
+      try {
+        if (acceptSelector != null) {
+          acceptSelector.wakeup();
+        }
+        if (eventLoops != null) {
+          for (EventLoop loop : eventLoops) {
+            loop.selector.wakeup();
+          }
+        }
+      } finally {
+        AFUNIXEventLoopServer.this.notifyAll();
+      }
+    }
+  }
+
+  private void listen() throws IOException {
+    AFUNIXServerSocketChannel server;
+    if (reuseChannel != null) {
+      server = reuseChannel;
+    } else {
+      server = AFUNIXSelectorProvider.provider().openServerSocketChannel();
+    }
+    onServerStarting();
+
+    try {
+      if (!server.socket().isBound()) {
+        server.bind(listenAddress, backlog);
+        onServerBound(listenAddress);
+      }
+      server.configureBlocking(false);
+      server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+      synchronized (this) {
+        ready.set(true);
+        this.notifyAll();
+      }
+      onServerReady();
+
+      acceptLoop(server);
+    } finally {
+      stop();
+      try {
+        server.close();
+      } finally {
+        acceptSelector.close();
+        onServerStopped(server);
+      }
+    }
+  }
+
+  private void acceptLoop(AFUNIXServerSocketChannel server) throws IOException {
+    int nextLoop = 0;
+    while (!stopRequested.get()) {
+      acceptSelector.select();
+      acceptSelector.selectedKeys().clear();
+
+      AFUNIXSocketChannel channel;
+      while (!stopRequested.get() && (channel = server.accept()) != null) {
+        eventLoops[nextLoop].add(channel);
+        if (++nextLoop == eventLoops.length) {
+          nextLoop = 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * An event loop, serving a share of the server's connections with its own selector and thread.
+   */
+  private final class EventLoop extends Thread {
+    private final Selector selector;
+    private final Queue<AFUNIXSocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set once this event loop does not take any new connections.
+     */
+    private volatile boolean terminated = false;
+
+    EventLoop(Selector selector, String name) {
+      super(name);
+      this.selector = selector;
+    }
+
+    /**
+     * Hands a new connection over to this event loop; it is closed right away if the event loop
+     * has terminated.
+     *
+     * @param channel The new connection.
+     */
+    void add(AFUNIXSocketChannel channel) {
+      newChannels.add(channel);
+      if (terminated) {
+        // closeAll may have drained the queue already
+        closeNewChannels();
+      } else {
+        selector.wakeup();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopRequested.get()) {
+          selector.select();
+          registerNewChannels();
+
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            handle(key);
+          }
+        }
+      } catch (Exception e) {
+        onListenException(e);
+      } finally {
+        terminated = true;
+        try {
+          closeAll();
+        } finally {
+          // the other event loops would keep serving, but this loop's share of new connections
+          // could not be served anymore
+          AFUNIXEventLoopServer.this.stop();
+        }
+      }
+    }
+
+    private void registerNewChannels() {
+      AFUNIXSocketChannel channel;
+      while ((channel = newChannels.poll()) != null) {
+        SelectionKey key = null;
+        try {
+          channel.configureBlocking(false);
+          key = channel.register(selector, SelectionKey.OP_READ);
+          onConnected(key);
+        } catch (Exception e) {
+          onConnectionException(channel, e);
+          close(key, channel);
+        }
+      }
+    }
+
+    private void handle(SelectionKey key) {
+      AFUNIXSocketChannel channel = (AFUNIXSocketChannel) key.channel();
+      try {
+        int readyOps = key.readyOps();
+        if ((readyOps & SelectionKey.OP_READ) != 0) {
+          onReadable(key);
+        }
+        if ((readyOps & SelectionKey.OP_WRITE) != 0 && key.isValid()) {
+          onWritable(key);
+        }
+        if (!channel.isOpen()) {
+          close(key, channel);
+        }
+      } catch (Exception e) {
+        onConnectionException(channel, e);
+        close(key, channel);
+      }
+    }
+
+    private void close(SelectionKey key, AFUNIXSocketChannel channel) {
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignore
+      }
+      if (key != null) {
+        onDisconnected(key);
+      }
+    }
+
+    private void closeNewChannels() {
+      AFUNIXSocketChannel channel;
+      while ((channel = newChannels.poll()) != null) {
+        close(null, channel);
+      }
+    }
+
+    private void closeAll() {
+      closeNewChannels();
+      try {
+        for (SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+          close(key, (AFUNIXSocketChannel) key.channel());
+        }
+      } finally {
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * Called when a new connection has been registered with its event loop, with an interest set of
+   * {@link SelectionKey#OP_READ}.
+   *
+   * @param key The connection's selection key; {@link SelectionKey#channel()} is the
+   *          {@link AFUNIXSocketChannel}.
+   * @throws IOException If there was an error; the connection is closed.
+   */
+  protected abstract void onConnected(SelectionKey key) throws IOException;
+
+  /**
+   * Called when a connection is ready for reading.
+   *
+   * Implementations should read until no more data is available, and close the channel upon
+   * end-of-stream.
+   *
+   * @param key The connection's selection key.
+   * @throws IOException If there was an error; the connection is closed.
+   */
+  protected abstract void onReadable(SelectionKey key) throws IOException;
+
+  /**
+   * Called when a connection is ready for writing (only if {@link SelectionKey#OP_WRITE} is in the
+   * key's interest set).
+   *
+   * @param key The connection's selection key.
+   * @throws IOException If there was an error; the connection is closed.
+   */
+  protected void onWritable(SelectionKey key) throws IOException {
+  }
+
+  /**
+   * Called after a connection has been closed, either by a handler, due to an error, or because
+   * the server stopped.
+   *
+   * @param key The connection's (cancelled) selection key.
+   */
+  protected void onDisconnected(SelectionKey key) {
+  }
+
+  /**
+   * Called when an exception was thrown while serving a connection. The connection is closed
+   * afterwards.
+   *
+   * @param channel The connection's channel.
+   * @param e The exception.
+   */
+  protected void onConnectionException(AFUNIXSocketChannel channel, Exception e) {
+  }
+
+  /**
+   * Called when the server is starting up.
+   */
+  protected void onServerStarting() {
+  }
+
+  /**
+   * Called when the server has been bound to a socket.
+   *
+   * This is not called when you instantiated the server with a pre-bound channel.
+   *
+   * @param address The bound address.
+   */
+  protected void onServerBound(AFUNIXSocketAddress address) {
+  }
+
+  /**
+   * Called when the server is ready to accept new connections.
+   */
+  protected void onServerReady() {
+  }
+
+  /**
+   * Called when the server has been stopped.
+   *
+   * @param channel The server's channel that stopped.
+   */
+  protected void onServerStopped(AFUNIXServerSocketChannel channel) {
+  }
+
+  /**
+   * Called when an exception was thrown in the accept thread or in an event loop.
+   *
+   * @param e The exception.
+   */
+  protected void onListenException(Exception e) {
+  }
+}
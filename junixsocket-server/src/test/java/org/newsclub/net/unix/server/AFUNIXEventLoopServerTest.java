@@ -0,0 +1,223 @@
+/*
+ * junixsocket
+ *
+ * Copyright 2009-2021 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.newsclub.net.unix.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.newsclub.net.unix.AFUNIXServerSocketChannel;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+import org.newsclub.net.unix.AFUNIXSocketChannel;
+
+public class AFUNIXEventLoopServerTest {
+  private static final byte FAIL = 'X';
+
+  private File socketFile;
+  private AFUNIXSocketAddress address;
+  private EchoServer server;
+
+  /**
+   * Echoes all data back to the client; a {@link #FAIL} byte breaks the connection's event loop.
+   */
+  private static final class EchoServer extends AFUNIXEventLoopServer {
+    private final BlockingQueue<SelectionKey> disconnected = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Exception> listenExceptions = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+    EchoServer(AFUNIXSocketAddress listenAddress) {
+      super(listenAddress);
+    }
+
+    @Override
+    protected void onConnected(SelectionKey key) throws IOException {
+      key.attach(ByteBuffer.allocate(256));
+    }
+
+    @Override
+    protected void onReadable(SelectionKey key) throws IOException {
+      AFUNIXSocketChannel channel = (AFUNIXSocketChannel) key.channel();
+      ByteBuffer bb = (ByteBuffer) key.attachment();
+      int read;
+      while ((read = channel.read(bb)) > 0) {
+        bb.flip();
+        if (bb.get(0) == FAIL) {
+          key.attach(null);
+          throw new IOException("Failure requested");
+        }
+        while (bb.hasRemaining()) {
+          channel.write(bb);
+        }
+        bb.clear();
+      }
+      if (read < 0) {
+        channel.close();
+      }
+    }
+
+    @Override
+    protected void onDisconnected(SelectionKey key) {
+      disconnected.add(key);
+      if (key.attachment() == null) {
+        // a bug in a callback that is not attributed to a particular connection
+        throw new IllegalStateException("Simulated event loop failure");
+      }
+    }
+
+    @Override
+    protected void onListenException(Exception e) {
+      listenExceptions.add(e);
+    }
+
+    @Override
+    protected void onServerStopped(AFUNIXServerSocketChannel channel) {
+      stopped.complete(null);
+    }
+  }
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    socketFile = File.createTempFile("jux", ".sock");
+    if (!socketFile.delete()) {
+      throw new IOException("Could not delete temporary file: " + socketFile);
+    }
+    address = AFUNIXSocketAddress.of(socketFile);
+    server = new EchoServer(address);
+    server.setNumEventLoops(2);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop();
+    socketFile.delete(); // NOPMD
+  }
+
+  private AFUNIXSocket connect() throws IOException {
+    AFUNIXSocket socket = AFUNIXSocket.connectTo(address);
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  private static void assertEcho(AFUNIXSocket socket, String message) throws IOException {
+    byte[] bytes = message.getBytes("UTF-8");
+    socket.getOutputStream().write(bytes);
+    InputStream in = socket.getInputStream();
+    byte[] buf = new byte[bytes.length];
+    for (int off = 0; off < buf.length;) {
+      int read = in.read(buf, off, buf.length - off);
+      assertTrue(read > 0, "Unexpected end of stream");
+      off += read;
+    }
+    assertEquals(message, new String(buf, "UTF-8"));
+  }
+
+  @Test
+  public void testAcceptAndEcho() throws Exception {
+    assertTrue(server.startAndWait(5, TimeUnit.SECONDS));
+    assertTrue(server.isReady());
+
+    List<AFUNIXSocket> clients = new ArrayList<>();
+    try {
+      // more clients than event loops
+      for (int i = 0; i < 5; i++) {
+        clients.add(connect());
+      }
+      for (int round = 0; round < 3; round++) {
+        for (int i = 0; i < clients.size(); i++) {
+          assertEcho(clients.get(i), "Hello " + i + "/" + round);
+        }
+      }
+
+      clients.get(0).close();
+      SelectionKey key = server.disconnected.poll(5, TimeUnit.SECONDS);
+      assertTrue(key != null, "onDisconnected should have been called");
+      assertFalse(key.isValid());
+
+      // the remaining connections are not affected
+      assertEcho(clients.get(1), "Still there");
+    } finally {
+      for (AFUNIXSocket client : clients) {
+        client.close();
+      }
+    }
+    assertTrue(server.listenExceptions.isEmpty());
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    assertTrue(server.startAndWait(5, TimeUnit.SECONDS));
+
+    try (AFUNIXSocket client1 = connect(); AFUNIXSocket client2 = connect()) {
+      assertEcho(client1, "Hello");
+      assertEcho(client2, "World");
+
+      server.stop();
+      server.stopped.get(5, TimeUnit.SECONDS);
+
+      // all connections are closed by their event loops
+      assertEquals(-1, client1.getInputStream().read());
+      assertEquals(-1, client2.getInputStream().read());
+    }
+
+    assertFalse(server.isReady());
+    assertThrows(SocketException.class, () -> AFUNIXSocket.connectTo(address).close());
+    assertThrows(IllegalStateException.class, server::start);
+    assertTrue(server.listenExceptions.isEmpty());
+  }
+
+  @Test
+  public void testEventLoopFailure() throws Exception {
+    assertTrue(server.startAndWait(5, TimeUnit.SECONDS));
+
+    // connections are distributed round-robin, so each one is served by another event loop
+    try (AFUNIXSocket client1 = connect(); AFUNIXSocket client2 = connect()) {
+      assertEcho(client1, "Hello");
+      assertEcho(client2, "World");
+
+      client1.getOutputStream().write(FAIL);
+
+      Exception e = server.listenExceptions.poll(5, TimeUnit.SECONDS);
+      assertTrue(e instanceof IllegalStateException, "Unexpected exception: " + e);
+
+      // the server stops instead of handing new connections to a dead event loop
+      server.stopped.get(5, TimeUnit.SECONDS);
+      assertFalse(server.isReady());
+      assertEquals(-1, client1.getInputStream().read());
+      assertEquals(-1, client2.getInputStream().read());
+    }
+    assertThrows(SocketException.class, () -> AFUNIXSocket.connectTo(address).close());
+  }
+}